@@ -0,0 +1,44 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BenchmarkResult#getKey()}, which is computed for every benchmark when a report is parsed.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class BenchmarkResultBenchmark
+{
+  @Param( { "0", "1", "4" } )
+  public int _params;
+
+  private BenchmarkResult _result;
+
+  @Setup
+  public void setUp()
+  {
+    _result = SyntheticResults.createResult( 123, _params );
+  }
+
+  @Benchmark
+  public String getKey()
+  {
+    return _result.getKey();
+  }
+}
@@ -0,0 +1,46 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CsvParser#parse} on result files of 1k, 10k and 100k rows.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class CsvParserBenchmark
+{
+  @Param( { "1000", "10000", "100000" } )
+  public int _rows;
+
+  private File _file;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    _file = SyntheticResults.createCsvFile( _rows );
+  }
+
+  @Benchmark
+  public BenchmarkReport parse() throws IOException
+  {
+    return new CsvParser().parse( null, _file, null );
+  }
+}
@@ -0,0 +1,100 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * SyntheticResults creates JMH results of a given size for the plugin's own benchmarks. The data is generated from a
+ * fixed seed so that every run measures the same input.
+ */
+final class SyntheticResults
+{
+  private static final String[] MODES = { "thrpt", "avgt", "sample", "ss" };
+  private static final String[] UNITS = { "ops/s", "us/op", "us/op", "s/op" };
+
+  private SyntheticResults()
+  {
+  }
+
+  /**
+   * Writes a CSV file in the format of JMH's <tt>-rf csv</tt> with the given number of rows, each with two params.
+   */
+  static File createCsvFile( int rows ) throws IOException
+  {
+    File file = File.createTempFile( "jmh-result", ".csv" );
+    file.deleteOnExit();
+    Random random = new Random( 42 );
+    BufferedWriter writer = new BufferedWriter( new FileWriter( file ) );
+    try
+    {
+      writer.write( "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\","
+                    + "\"Param: size\",\"Param: type\"\n" );
+      for ( int i = 0; i < rows; i++ )
+      {
+        int mode = i % MODES.length;
+        writer.write( "\"org.openjdk.jmh.samples.Benchmark" + ( i / 100 ) + ".method" + ( i % 100 ) + "\",\"" );
+        writer.write( MODES[ mode ] + "\",1,20," + ( random.nextDouble() * 1000 ) + ","
+                      + ( random.nextDouble() * 10 ) + ",\"" + UNITS[ mode ] + "\"," + ( i % 7 ) + ",\"" );
+        writer.write( i % 2 == 0 ? "plain" : "{\"\"quoted\"\":\"\"a,b\"\"}" );
+        writer.write( "\"\n" );
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+    return file;
+  }
+
+  /**
+   * Creates a report with the given number of benchmarks, as parsed from a JMH result file.
+   */
+  static BenchmarkReport createReport( int benchmarks, Random random )
+  {
+    BenchmarkReport report = new BenchmarkReport();
+    for ( int i = 0; i < benchmarks; i++ )
+    {
+      BenchmarkResult result = createResult( i, 1 );
+      result.setMean( 100 + random.nextGaussian() * 5 );
+      result.setMeanError( random.nextDouble() * 2 );
+      report.addBenchmarkResult( result.getKey(), result );
+    }
+    return report;
+  }
+
+  static BenchmarkResult createResult( int index, int params )
+  {
+    BenchmarkResult result = new BenchmarkResult();
+    result.setBenchmarkName( "org.openjdk.jmh.samples.Benchmark" + ( index / 100 ) + ".method" + ( index % 100 ) );
+    result.setShortBenchmarkName( "o.o.j.s.Benchmark" + ( index / 100 ) + ".method" + ( index % 100 ) );
+    result.setMode( "avgt" );
+    result.setThreads( 1 );
+    result.setSamples( 20 );
+    result.setUnit( "us/op" );
+    for ( int i = 0; i < params; i++ )
+    {
+      result.addParams( "Param: param" + i, String.valueOf( index % ( i + 2 ) ) );
+    }
+    return result;
+  }
+
+  /**
+   * Creates a trend store with the given number of builds of the given number of benchmarks.
+   */
+  static BenchmarkTrendStore createTrendStore( int builds, int benchmarks ) throws IOException
+  {
+    File file = File.createTempFile( "jmh-trend", ".dat" );
+    file.delete();
+    file.deleteOnExit();
+    BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+    Random random = new Random( 42 );
+    for ( int build = 1; build <= builds; build++ )
+    {
+      store.append( build, createReport( benchmarks, random ) );
+    }
+    return store;
+  }
+}
@@ -0,0 +1,54 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the computation of the project trend ({@link BenchmarkProjectAction#getBenchmarkTrend()}) over synthetic
+ * histories of 100, 1,000 and 10,000 builds of 100 benchmarks, as well as serving an up to date snapshot.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class TrendBenchmark
+{
+  private static final int BENCHMARKS = 100;
+
+  @Param( { "100", "1000", "10000" } )
+  public int _builds;
+
+  private BenchmarkTrendStore _store;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    _store = SyntheticResults.createTrendStore( _builds, BENCHMARKS );
+  }
+
+  @Benchmark
+  public TrendSnapshot computeTrend()
+  {
+    return _store.computeSnapshot();
+  }
+
+  @Benchmark
+  public TrendSnapshot getSnapshot()
+  {
+    return _store.getSnapshot();
+  }
+}
@@ -0,0 +1,50 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rendering of a trend graph as a PNG image, i.e. the cost of a miss in the {@link TrendGraphCache}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 5 )
+@Fork( value = 1, jvmArgsAppend = "-Djava.awt.headless=true" )
+public class TrendGraphBenchmark
+{
+  @Param( { "10", "100", "1000" } )
+  public int _builds;
+
+  private BenchmarkProjectAction _action;
+  private BenchmarkTrend _trend;
+  private String _key;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    TrendSnapshot snapshot = SyntheticResults.createTrendStore( _builds, 1 ).getSnapshot();
+    _key = snapshot.getTrend().keySet().iterator().next();
+    _trend = snapshot.getTrend( _key );
+    _action = new BenchmarkProjectAction( null );
+  }
+
+  @Benchmark
+  public byte[] renderGraph() throws IOException
+  {
+    return _action.renderGraph( _key, _trend, 800, 440 );
+  }
+}
@@ -1,31 +1,66 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
 import hudson.model.Action;
-import hudson.model.AbstractBuild;
+import hudson.model.Run;
 import hudson.util.StreamTaskListener;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 /**
- * The {@link Action} that is executed at the build level. It creates a link (i.e. JMH Benchmark Report) at the 
- * left menu of the build page. When this link is clicked, the benchmark report ({@link BenchmarkReport}) for 
+ * The {@link Action} that is executed at the build level. It creates a link (i.e. JMH Benchmark Report) at the
+ * left menu of the build page. When this link is clicked, the benchmark report ({@link BenchmarkReport}) for
  * the selected build is displayed.
- *
+ * <p/>
+ * The report is stored in a compressed file next to build.xml ({@link BenchmarkReportCodec}) and loaded on demand, so
+ * that loading a build only reads a small summary. Builds recorded by older versions of the plugin have the report
+ * embedded in build.xml; it is moved to the report file the first time it is used.
+ * <p/>
+ * The counts of the report are exported with the actions of the build in its remote API, so that they can be polled
+ * without loading any report; the report itself is exported by {@link BenchmarkBuildActionDisplay}.
  */
+@ExportedBean
 public class BenchmarkBuildAction implements Action, StaplerProxy
 {
-  private final AbstractBuild<?, ?> _build;
-  private final BenchmarkReport _performanceReport;
+  private static final Logger LOGGER = Logger.getLogger( BenchmarkBuildAction.class.getName() );
+  private static final String REPORT_FILE_NAME = "jmh_benchmark_report.gz";
+
+  private final Run<?, ?> _build;
+  /**
+   * @deprecated only set for builds recorded by older versions of the plugin, see {@link #getPerformanceReport()}
+   */
+  @Deprecated
+  private BenchmarkReport _performanceReport;
   private final int _decimalPlaces;
+  private int _benchmarkCount;
+  private int _improvementCount;
+  private int _degradationCount;
+  private String _referenceBuild;
+  private EnvironmentFingerprint _environment;
+  private List<String> _environmentWarnings;
+  private transient SoftReference<BenchmarkReport> _reportReference;
   private transient WeakReference<BenchmarkBuildActionDisplay> _buildActionDisplay;
 
-  public BenchmarkBuildAction( AbstractBuild<?, ?> pBuild, BenchmarkReport performanceReport, int decimalPlaces )
+  public BenchmarkBuildAction( Run<?, ?> pBuild, BenchmarkReport performanceReport, int decimalPlaces )
+    throws IOException
   {
     _build = pBuild;
-    _performanceReport = performanceReport;
     _decimalPlaces = decimalPlaces;
+    _environment = performanceReport.getEnvironment();
+    writeReport( performanceReport );
   }
 
   public String getIconFileName()
@@ -43,14 +78,172 @@ public class BenchmarkBuildAction implements Action, StaplerProxy
     return "jmhbenchmark";
   }
 
-  public AbstractBuild<?, ?> getBuild()
+  public Run<?, ?> getBuild()
   {
     return _build;
   }
 
-  public BenchmarkReport getPerformanceReport()
+  /**
+   * Returns the number of benchmarks in the report, without loading it.
+   */
+  @Exported
+  public int getBenchmarkCount()
+  {
+    return _benchmarkCount;
+  }
+
+  /**
+   * Returns the number of benchmarks whose score improved beyond the gain threshold, without loading the report.
+   */
+  @Exported
+  public int getImprovementCount()
+  {
+    return _improvementCount;
+  }
+
+  /**
+   * Returns the number of benchmarks whose score degraded beyond the degradation threshold, without loading the report.
+   */
+  @Exported
+  public int getDegradationCount()
+  {
+    return _degradationCount;
+  }
+
+  int getDecimalPlaces()
+  {
+    return _decimalPlaces;
+  }
+
+  /**
+   * Returns the name of the reference build the benchmarks were compared with, e.g. <tt>main #42</tt>, or null if
+   * they were compared with the builds of this job.
+   */
+  @Exported
+  public String getReferenceBuild()
+  {
+    return _referenceBuild;
+  }
+
+  void setReferenceBuild( String referenceBuild )
+  {
+    _referenceBuild = referenceBuild;
+  }
+
+  /**
+   * Returns the environment the benchmarks ran on, without loading the report, or null if it is unknown.
+   */
+  @Exported
+  public EnvironmentFingerprint getEnvironment()
+  {
+    return _environment;
+  }
+
+  /**
+   * Returns a warning for each build this build was compared with that ran on another environment.
+   */
+  @Exported
+  public List<String> getEnvironmentWarnings()
+  {
+    return _environmentWarnings == null ? Collections.<String>emptyList() : _environmentWarnings;
+  }
+
+  void setEnvironmentWarnings( List<String> environmentWarnings )
+  {
+    _environmentWarnings = environmentWarnings.isEmpty() ? null : new ArrayList<String>( environmentWarnings );
+  }
+
+  /**
+   * Returns the benchmark report of the build, reading it from the report file if it isn't in memory anymore. If the
+   * report file is missing, an empty report is returned.
+   */
+  public synchronized BenchmarkReport getPerformanceReport()
+  {
+    if ( _performanceReport != null )
+      return migrateReport();
+
+    return readPerformanceReport();
+  }
+
+  /**
+   * Returns the benchmark report of the build like {@link #getPerformanceReport()}, but leaves a report recorded by an
+   * older version of the plugin in build.xml, so that the build is never saved.
+   */
+  synchronized BenchmarkReport readPerformanceReport()
+  {
+    if ( _performanceReport != null )
+      return _performanceReport;
+
+    BenchmarkReport report = _reportReference == null ? null : _reportReference.get();
+    if ( report != null )
+      return report;
+
+    File reportFile = getReportFile();
+    try
+    {
+      report = BenchmarkReportCodec.decode( new FileInputStream( reportFile ) );
+    }
+    catch ( IOException ex )
+    {
+      LOGGER.log( Level.WARNING, "Failed to read the benchmark report " + reportFile, ex );
+      report = new BenchmarkReport();
+    }
+    _reportReference = new SoftReference<BenchmarkReport>( report );
+    return report;
+  }
+
+  /**
+   * Moves the report embedded in build.xml by older versions of the plugin to the report file and saves the build
+   * without it.
+   */
+  private BenchmarkReport migrateReport()
+  {
+    BenchmarkReport report = _performanceReport;
+    try
+    {
+      writeReport( report );
+      _performanceReport = null;
+      _build.save();
+    }
+    catch ( IOException ex )
+    {
+      LOGGER.log( Level.WARNING, "Failed to move the benchmark report of " + _build + " out of build.xml", ex );
+    }
+    return report;
+  }
+
+  private void writeReport( BenchmarkReport report ) throws IOException
+  {
+    File reportFile = getReportFile();
+    File tmp = new File( reportFile.getPath() + ".tmp" );
+    BenchmarkReportCodec.encode( report, new FileOutputStream( tmp ) );
+    if ( !tmp.renameTo( reportFile ) )
+    {
+      reportFile.delete();
+      if ( !tmp.renameTo( reportFile ) )
+        throw new IOException( "Failed to write " + reportFile );
+    }
+
+    _benchmarkCount = report.getReport().size();
+    _improvementCount = 0;
+    _degradationCount = 0;
+    for ( BenchmarkResult result : report.getReport().values() )
+    {
+      if ( "green".equals( result.getChangeIndicator() ) )
+      {
+        _improvementCount++;
+      }
+      else if ( "red".equals( result.getChangeIndicator() ) )
+      {
+        _degradationCount++;
+      }
+    }
+    _reportReference = new SoftReference<BenchmarkReport>( report );
+  }
+
+  private File getReportFile()
   {
-    return _performanceReport;
+    return new File( _build.getRootDir(), REPORT_FILE_NAME );
   }
 
   public BenchmarkBuildActionDisplay getBuildActionDisplay()
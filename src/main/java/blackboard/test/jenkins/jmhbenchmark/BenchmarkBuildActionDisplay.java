@@ -1,19 +1,31 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
-import hudson.model.AbstractBuild;
+import hudson.model.Api;
 import hudson.model.ModelObject;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
 /**
  * BenchmarkBuildActionDisplay is a {@link ModelOject} that contains the benchmark report ({@link BenchmarkReport}). This object is 
  * created when the JMH Benchmark Report link is clicked from the build page.  
+ * <p/>
+ * The report is also available through the remote API at <tt>&lt;build&gt;/jmhbenchmark/api/json</tt> (or xml).
  *
  */
+@ExportedBean
 public class BenchmarkBuildActionDisplay implements ModelObject
 {
   private transient BenchmarkBuildAction _buildAction; 
   private final int _decimalPlaces;
   private final BenchmarkReport _currentReport;
+  private transient Map<String, Double> _changePoints;
   
   public BenchmarkBuildActionDisplay( final BenchmarkBuildAction buildAction, TaskListener listener, int decimalPlaces )
   {
@@ -28,11 +40,38 @@ public class BenchmarkBuildActionDisplay implements ModelObject
     return "Benchmark Report";
   }
 
-  public AbstractBuild<?, ?> getBuild()
+  public Run<?, ?> getBuild()
   {
     return _buildAction.getBuild();
   }
 
+  public Api getApi()
+  {
+    return new Api( this );
+  }
+
+  @Exported
+  public int getBuildNumber()
+  {
+    return getBuild().getNumber();
+  }
+
+  public EnvironmentFingerprint getEnvironment()
+  {
+    return _buildAction.getEnvironment();
+  }
+
+  public List<String> getEnvironmentWarnings()
+  {
+    return _buildAction.getEnvironmentWarnings();
+  }
+
+  public String getReferenceBuild()
+  {
+    return _buildAction.getReferenceBuild();
+  }
+
+  @Exported( name = "report" )
   public BenchmarkReport getJmhPerfReport()
   {
     return _currentReport;
@@ -43,4 +82,69 @@ public class BenchmarkBuildActionDisplay implements ModelObject
     int multiplier = (int) Math.pow( 10, _decimalPlaces );    
     return (double) Math.round( num * multiplier )/multiplier;
   }
+
+  /**
+   * Returns the persistent shift of a benchmark's score that began with this build, as found by the change point
+   * analysis of the project's trend, or null if no shift began with this build.
+   */
+  public String getChangePointShift( String benchmarkKey )
+  {
+    if ( _changePoints == null )
+    {
+      Map<String, Double> changePoints = new HashMap<String, Double>();
+      Run<?, ?> build = getBuild();
+      if ( BenchmarkTrendStore.exists( build.getParent() ) )
+      {
+        TrendSnapshot snapshot = BenchmarkTrendStore.forProject( build.getParent() ).getSnapshot();
+        for ( Map.Entry<String, BenchmarkTrend> entry : snapshot.getTrend().entrySet() )
+        {
+          Double shift = entry.getValue().getChangePoints().get( build.getNumber() );
+          if ( shift != null )
+          {
+            changePoints.put( entry.getKey(), shift );
+          }
+        }
+      }
+      _changePoints = changePoints;
+    }
+
+    Double shift = _changePoints.get( benchmarkKey );
+    return shift == null ? null : String.format( "%+.2f%%", shift );
+  }
+
+  /**
+   * Formats the p-value of a significance test, "-" if the test wasn't run.
+   */
+  public String getFormattedPValue( double pValue )
+  {
+    return formatPValue( pValue );
+  }
+
+  static String formatPValue( double pValue )
+  {
+    if ( Double.isNaN( pValue ) )
+      return "-";
+    if ( pValue != 0 && pValue < 0.0001 )
+      return String.format( "%.1e", pValue );
+    return String.format( "%.4f", pValue );
+  }
+
+  /**
+   * Formats the percentiles of a sample mode benchmark, e.g. <tt>p50=1.2 p90=1.5 p99=3.1</tt>, or returns an empty
+   * string for the other modes.
+   */
+  public String getFormattedPercentiles( BenchmarkResult result )
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( Map.Entry<Double, Double> percentile : result.getPercentiles().entrySet() )
+    {
+      if ( sb.length() > 0 )
+      {
+        sb.append( ' ' );
+      }
+      sb.append( BenchmarkResult.getPercentileLabel( percentile.getKey() ) ).append( '=' );
+      sb.append( getFormattedNumber( percentile.getValue() ) );
+    }
+    return sb.toString();
+  }
 }
@@ -0,0 +1,29 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+/**
+ * BenchmarkItemListener evicts the {@link BenchmarkTrendStore} of a project that is deleted, renamed or moved, so that
+ * the store, with its series and snapshot, doesn't stay in memory for the lifetime of the master. The graphs of the
+ * project are dropped from the {@link TrendGraphCache} as well.
+ */
+@Extension
+public class BenchmarkItemListener extends ItemListener
+{
+  @Override
+  public void onDeleted( Item item )
+  {
+    // a deleted folder takes the stores of all its projects with it
+    BenchmarkTrendStore.evict( item.getRootDir() );
+    TrendGraphCache.getInstance().invalidate( item.getFullName() );
+  }
+
+  @Override
+  public void onLocationChanged( Item item, String oldFullName, String newFullName )
+  {
+    BenchmarkTrendStore.evictMissing();
+    TrendGraphCache.getInstance().invalidate( oldFullName );
+  }
+}
@@ -2,47 +2,66 @@ package blackboard.test.jenkins.jmhbenchmark;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
 
 import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryAxis;
 import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryMarker;
 import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.renderer.category.LineAndShapeRenderer;
 import org.jfree.data.category.CategoryDataset;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
-import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
 import hudson.model.Action;
-import hudson.util.ChartUtil;
+import hudson.model.Api;
+import hudson.model.Job;
+import hudson.model.Run;
 import hudson.util.ColorPalette;
 import hudson.util.Graph;
-import hudson.util.ChartUtil.NumberOnlyBuildLabel;
 import hudson.util.DataSetBuilder;
 import hudson.util.ShiftedCategoryAxis;
 
 /**
- * The {@link Action} that is executed at the project level. It constructs a benchmark trend ({@link BenchmarkTrend}) 
- * on score and score error for each benchmark over the previous builds and creates a graph that shows this trend.
+ * The {@link Action} that is executed at the project level. It reads the benchmark trend ({@link BenchmarkTrend}) on 
+ * score and score error for each benchmark over the previous builds from the project's {@link BenchmarkTrendStore} 
+ * and creates a graph that shows this trend. The builds where a persistent shift of the score began are marked with a
+ * vertical line. The trend of a sample mode benchmark also shows its percentiles as separate series.
+ * <p/>
+ * The trend page draws the graphs in the browser from the JSON trend of the project ({@link #doTrendData}); the graphs
+ * are only rendered as PNG images on the server for browsers that can't draw them.
+ * <p/>
+ * The trend is also exported through the remote API at <tt>&lt;job&gt;/jmhbenchmark/api/json</tt> (or xml), and any
+ * two builds can be compared at <tt>&lt;job&gt;/jmhbenchmark/compare</tt> ({@link BuildComparison}).
  *
  */
+@ExportedBean
 public class BenchmarkProjectAction implements Action
 {
   private static final String PLUGIN_NAME = "jmhbenchmark";
   private static final String DISPLAY_NAME = "JMH Report Trend";
+  private static final int DEFAULT_GRAPH_WIDTH = 300;
+  private static final int DEFAULT_GRAPH_HEIGHT = 200;
+  private static final int MAX_GRAPH_DIMENSION = 2000;
 
-  public final AbstractProject<?, ?> _project;
+  public final Job<?, ?> _project;
 
-  private Map<String, BenchmarkTrend> _benchmarkTrend = new TreeMap<String, BenchmarkTrend>();
-
-  public BenchmarkProjectAction( @SuppressWarnings( "rawtypes" ) AbstractProject project )
+  public BenchmarkProjectAction( Job<?, ?> project )
   {
     _project = project;
   }
@@ -62,129 +81,338 @@ public class BenchmarkProjectAction implements Action
     return PLUGIN_NAME;
   }
 
-  public AbstractProject<?, ?> getProject()
+  public Job<?, ?> getProject()
   {
     return _project;
   }
 
-  public Map<String, BenchmarkTrend> getBenchmarkTrend()
+  public Api getApi()
   {
-    Map<String, BenchmarkResult> buildBenchmarkData = null;
-    BenchmarkTrend trendBenchmarkData = null;
-    List<? extends AbstractBuild<?, ?>> builds = getProject().getBuilds();
+    return new Api( this );
+  }
 
-    _benchmarkTrend.clear();
+  /**
+   * Returns the number of the latest build that published benchmark results, or 0 if there is none.
+   */
+  @Exported
+  public int getLastBuildNumber()
+  {
+    return BenchmarkTrendStore.forProject( getProject() ).getSnapshot().getLastBuildNumber();
+  }
 
-    for ( AbstractBuild<?, ?> currentBuild : builds )
-    {
-      NumberOnlyBuildLabel buildNoLabel = new NumberOnlyBuildLabel( currentBuild );
+  /**
+   * Returns the trend of every benchmark from the latest snapshot of the project's {@link BenchmarkTrendStore}, without
+   * loading any build. The trends are exported as a list, in the order of their keys, as the keys of the benchmarks
+   * aren't valid XML element names.
+   */
+  @Exported( name = "benchmarks" )
+  public List<BenchmarkTrend> getBenchmarkTrend()
+  {
+    TrendSnapshot snapshot = BenchmarkTrendStore.forProject( getProject() ).getSnapshot();
+    return new ArrayList<BenchmarkTrend>( snapshot.getTrend().values() );
+  }
 
-      BenchmarkBuildAction jmhBenchmarkBuildAction = currentBuild.getAction( BenchmarkBuildAction.class );
-      if ( jmhBenchmarkBuildAction == null )
-      {
-        continue;
-      }
+  /**
+   * Returns the page of the trend requested by the filter and page parameters of the request (see {@link TrendPage}).
+   */
+  public TrendPage getTrendPage( StaplerRequest request )
+  {
+    return getTrendPage( request, BenchmarkTrendStore.forProject( getProject() ).getSnapshot() );
+  }
 
-      BenchmarkReport perfReport = jmhBenchmarkBuildAction.getBuildActionDisplay().getJmhPerfReport();
+  private TrendPage getTrendPage( StaplerRequest request, TrendSnapshot snapshot )
+  {
+    String params = request.getParameter( "params" );
+    String view = request.getParameter( "view" );
+    BenchmarkReport latestReport = TrendPage.needsLatestReport( params, view ) ? getLatestReport( snapshot ) : null;
+    return TrendPage.create( snapshot, latestReport, request.getParameter( "name" ), params,
+                             request.getParameter( "mode" ), view, request.getParameter( "page" ),
+                             request.getParameter( "pageSize" ) );
+  }
 
-      buildBenchmarkData = perfReport.getReport();
+  /**
+   * Returns the report of the latest build that published benchmark results, which holds the latest comparison of
+   * every benchmark, or null if that build is gone.
+   */
+  private BenchmarkReport getLatestReport( TrendSnapshot snapshot )
+  {
+    if ( snapshot.getLastBuildNumber() <= 0 )
+      return null;
 
-      if(buildBenchmarkData != null)
-      {
-        for ( Map.Entry<String, BenchmarkResult> entry : buildBenchmarkData.entrySet() )
-        {
-          String key = entry.getKey();
-          BenchmarkResult val = entry.getValue();
-          if ( _benchmarkTrend.containsKey( key ) )
-          {
-            trendBenchmarkData = _benchmarkTrend.get( key );
-            if ( isBenchmarkConfigSame( val, trendBenchmarkData ) )
-            {
-              trendBenchmarkData.addMeanTrend( buildNoLabel, val.getMean() );
-              trendBenchmarkData.addMeanErrorTrend( buildNoLabel, val.getMeanError() );
-            }
-          }
-          else
-          {
-            // create a benchmark trend if it hasn't yet been created
-            trendBenchmarkData = new BenchmarkTrend( val.getShortBenchmarkName(), val.getMode(), val.getThreads(),
-                                                     val.getSamples(), val.getUnit() );
-            trendBenchmarkData.addMeanTrend( buildNoLabel, val.getMean() );
-            trendBenchmarkData.addMeanErrorTrend( buildNoLabel, val.getMeanError() );
-            _benchmarkTrend.put( key, trendBenchmarkData );
-          }
-        }        
-      }
+    Run<?, ?> build = getProject().getBuildByNumber( snapshot.getLastBuildNumber() );
+    BenchmarkBuildAction buildAction = build == null ? null : build.getAction( BenchmarkBuildAction.class );
+    return buildAction == null ? null : buildAction.getPerformanceReport();
+  }
+
+  /**
+   * Returns the comparison of the builds given by the <tt>from</tt> and <tt>to</tt> parameters of the request, or null
+   * (not found) if either build is gone or didn't publish benchmark results. The <tt>significanceLevel</tt> parameter
+   * defaults to 0.01. Comparisons are kept in the {@link BuildComparisonCache}, so a pair of builds viewed again, or
+   * through its remote API, doesn't load the reports again. The builds are looked up first, so that a deleted build
+   * isn't served from the cache, and their start times are part of the key, so that a project recreated with the same
+   * name doesn't get the comparison of the builds that had the same numbers.
+   */
+  public BuildComparison getCompare( StaplerRequest request )
+  {
+    int fromBuild = getBuildNumber( request, "from" );
+    int toBuild = getBuildNumber( request, "to" );
+    Run<?, ?> from = fromBuild <= 0 ? null : getProject().getBuildByNumber( fromBuild );
+    Run<?, ?> to = toBuild <= 0 ? null : getProject().getBuildByNumber( toBuild );
+    BenchmarkBuildAction fromAction = from == null ? null : from.getAction( BenchmarkBuildAction.class );
+    BenchmarkBuildAction toAction = to == null ? null : to.getAction( BenchmarkBuildAction.class );
+    if ( fromAction == null || toAction == null )
+      return null;
+
+    double significanceLevel = getSignificanceLevel( request );
+    String key = BuildComparisonCache.getKey( getProject().getFullName(), from, to, significanceLevel );
+    BuildComparisonCache cache = BuildComparisonCache.getInstance();
+    BuildComparison comparison = cache.get( key );
+    if ( comparison != null )
+      return comparison;
+
+    comparison = BuildComparison.compare( fromBuild, fromAction.getPerformanceReport(), toBuild,
+                                          toAction.getPerformanceReport(), significanceLevel,
+                                          toAction.getDecimalPlaces() );
+    cache.put( key, comparison );
+    return comparison;
+  }
+
+  /**
+   * Sends the trend of the benchmarks as JSON in one response (see {@link TrendSnapshot#getJson(boolean)}), gzipped
+   * if the browser accepts it. The trend page draws the graphs from it in the browser instead of requesting a PNG per
+   * benchmark; {@link #doSummarizerGraphForMetric} remains for browsers without canvas support. With a <tt>page</tt>
+   * parameter, only the benchmarks of that page of the trend are sent (see {@link #getTrendPage(StaplerRequest)}).
+   * With a <tt>since</tt> parameter, only the builds after that build number are sent, so that a client polling the
+   * trend passes the <tt>lastBuildNumber</tt> of its previous response and only receives the new builds.
+   * <p/>
+   * The whole trend is encoded once per snapshot; pages and deltas are streamed to the response as they are encoded.
+   */
+  public void doTrendData( final StaplerRequest request, final StaplerResponse response ) throws IOException
+  {
+    TrendSnapshot snapshot = BenchmarkTrendStore.forProject( getProject() ).getSnapshot();
+    long lastModified = snapshot.getLastModified();
+    TrendPage page = request.getParameter( "page" ) == null ? null : getTrendPage( request, snapshot );
+    int since = getBuildNumber( request, "since" );
+    String etag = "\"" + Long.toHexString( lastModified ) + "-" + Long.toHexString( snapshot.getVersion() )
+                  + ( page == null ? "" : "-" + Integer.toHexString( page.getQuery( page.getPage() ).hashCode() ) )
+                  + ( since == 0 ? "" : "-" + Integer.toHexString( since ) ) + "\"";
+    response.setHeader( "ETag", etag );
+    response.setDateHeader( "Last-Modified", lastModified );
+    response.setHeader( "Cache-Control", "no-cache" );
+    response.setHeader( "Vary", "Accept-Encoding" );
+    if ( isNotModified( request, etag, lastModified ) )
+    {
+      response.setStatus( StaplerResponse.SC_NOT_MODIFIED );
+      return;
+    }
+
+    String acceptEncoding = request.getHeader( "Accept-Encoding" );
+    boolean gzipped = acceptEncoding != null && acceptEncoding.indexOf( "gzip" ) >= 0;
+    if ( gzipped )
+    {
+      response.setHeader( "Content-Encoding", "gzip" );
+    }
+    response.setContentType( "application/json;charset=UTF-8" );
+    if ( page == null && since == 0 )
+    {
+      byte[] json = snapshot.getJson( gzipped );
+      response.setContentLength( json.length );
+      OutputStream out = response.getOutputStream();
+      out.write( json );
+      out.close();
+      return;
     }
 
-    return _benchmarkTrend;
+    OutputStream out = response.getOutputStream();
+    Writer writer = new OutputStreamWriter( gzipped ? new GZIPOutputStream( out ) : out, "UTF-8" );
+    snapshot.writeJson( writer, page == null ? snapshot.getTrend().keySet() : page.getKeys(), since );
+    writer.close();
   }
 
-  private boolean isBenchmarkConfigSame( BenchmarkResult build, BenchmarkTrend topBuild )
+  /**
+   * Returns whether the client's copy of a response is current. As RFC 7232 requires, <tt>If-Modified-Since</tt> is
+   * only evaluated when the request has no <tt>If-None-Match</tt> header, which may list several ETags or <tt>*</tt>.
+   */
+  static boolean isNotModified( StaplerRequest request, String etag, long lastModified )
   {
-    if ( build.getMode().equals( topBuild.getMode() ) && ( build.getThreads() == topBuild.getThreads() )
-         && ( build.getSamples() == topBuild.getSamples() ) && build.getUnit().equals( topBuild.getUnit() ) )
+    String ifNoneMatch = request.getHeader( "If-None-Match" );
+    if ( ifNoneMatch != null )
     {
-      return true;
+      for ( String tag : ifNoneMatch.split( "," ) )
+      {
+        // If-None-Match uses the weak comparison
+        String trimmed = tag.trim();
+        if ( trimmed.equals( "*" ) || trimmed.equals( etag ) || trimmed.equals( "W/" + etag ) )
+          return true;
+      }
+      return false;
     }
-    return false;
+
+    // Last-Modified has a precision of one second, and the header is -1 when absent
+    long ifModifiedSince = request.getDateHeader( "If-Modified-Since" );
+    return ifModifiedSince >= 0 && ifModifiedSince / 1000 >= lastModified / 1000;
   }
 
+  /**
+   * Renders the trend graph of a benchmark as a PNG image. Rendered images are kept in the {@link TrendGraphCache} and
+   * the response carries an ETag and a Last-Modified header so that browsers only download a graph again after a
+   * build changed the trend.
+   */
   public void doSummarizerGraphForMetric( final StaplerRequest request, final StaplerResponse response )
     throws IOException
   {
-
     final String benchmarkKey = request.getParameter( "benchmarkKey" );
-    final String benchmarkUnit = request.getParameter( "benchmarkUnit" );
-    final String benchmarkThreads = request.getParameter( "benchmarkThreads" );
-    final String benchmarkSamples = request.getParameter( "benchmarkSamples" );
-    final String benchmarkMode = request.getParameter( "benchmarkMode" );
+    final int width = getDimension( request, "width", DEFAULT_GRAPH_WIDTH );
+    final int height = getDimension( request, "height", DEFAULT_GRAPH_HEIGHT );
+
+    TrendSnapshot snapshot = BenchmarkTrendStore.forProject( getProject() ).getSnapshot();
+    long lastModified = snapshot.getLastModified();
+    BenchmarkTrend val = snapshot.getTrend( benchmarkKey );
+    if ( val == null )
+    {
+      response.sendError( StaplerResponse.SC_NOT_FOUND );
+      return;
+    }
 
-    BenchmarkTrend val = _benchmarkTrend.get( benchmarkKey );
+    String cacheKey = TrendGraphCache.getKey( getProject().getFullName(), benchmarkKey, width, height,
+                                              val.getLastBuildNumber(), lastModified );
+    String etag = "\"" + Integer.toHexString( cacheKey.hashCode() ) + "\"";
+    response.setHeader( "ETag", etag );
+    response.setDateHeader( "Last-Modified", lastModified );
+    response.setHeader( "Cache-Control", "no-cache" );
+    if ( isNotModified( request, etag, lastModified ) )
+    {
+      response.setStatus( StaplerResponse.SC_NOT_MODIFIED );
+      return;
+    }
 
-    final Map<ChartUtil.NumberOnlyBuildLabel, Double> meanTrend = val.getMeanTrend();
-    final Map<ChartUtil.NumberOnlyBuildLabel, Double> meanErrorTrend = val.getMeanErrorTrend();
+    TrendGraphCache cache = TrendGraphCache.getInstance();
+    byte[] image = cache.get( cacheKey );
+    if ( image == null )
+    {
+      image = renderGraph( benchmarkKey, val, width, height );
+      cache.put( cacheKey, image );
+    }
 
-    String graphTitle = benchmarkKey + ", threads=" + benchmarkThreads + ", samples=" + benchmarkSamples + ", mode="
-                        + benchmarkMode;
+    response.setContentType( "image/png" );
+    response.setContentLength( image.length );
+    OutputStream out = response.getOutputStream();
+    out.write( image );
+    out.close();
+  }
 
-    final Graph graph = new GraphImpl( graphTitle, benchmarkUnit )
+  byte[] renderGraph( String benchmarkKey, BenchmarkTrend val, int width, int height ) throws IOException
+  {
+    final Map<Integer, Double> meanTrend = val.getMeanTrend();
+    final Map<Integer, Double> meanErrorTrend = val.getMeanErrorTrend();
+    final Map<String, Map<Integer, Double>> percentileTrends = val.getPercentileTrends();
+
+    String graphTitle = benchmarkKey + ", threads=" + val.getThreads() + ", samples=" + val.getSamples() + ", mode="
+                        + val.getMode();
+
+    final GraphImpl graph = new GraphImpl( graphTitle, val.getUnit(), val.getChangePoints().keySet() )
       {
 
-        protected DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> createDataSet()
+        protected DataSetBuilder<String, Integer> createDataSet()
         {
-          DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> dataSetBuilder = new DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel>();
+          DataSetBuilder<String, Integer> dataSetBuilder = new DataSetBuilder<String, Integer>();
 
-          for ( ChartUtil.NumberOnlyBuildLabel label : meanTrend.keySet() )
+          for ( Integer label : meanTrend.keySet() )
           {
             dataSetBuilder.add( meanTrend.get( label ), "Score", label );
           }
 
-          for ( ChartUtil.NumberOnlyBuildLabel label : meanErrorTrend.keySet() )
+          for ( Integer label : meanErrorTrend.keySet() )
           {
             dataSetBuilder.add( meanErrorTrend.get( label ), "Score Error (99.9%)", label );
           }
 
+          for ( Map.Entry<String, Map<Integer, Double>> percentileTrend : percentileTrends.entrySet() )
+          {
+            for ( Map.Entry<Integer, Double> entry : percentileTrend.getValue().entrySet() )
+            {
+              dataSetBuilder.add( entry.getValue(), percentileTrend.getKey(), entry.getKey() );
+            }
+          }
+
           return dataSetBuilder;
         }
       };
 
-    graph.doPng( request, response );
+    ByteArrayOutputStream out = new ByteArrayOutputStream( 32 * 1024 );
+    ChartUtilities.writeChartAsPNG( out, graph.createGraph(), width, height );
+    return out.toByteArray();
+  }
+
+  private static int getDimension( StaplerRequest request, String name, int defaultValue )
+  {
+    String value = request.getParameter( name );
+    if ( value == null )
+      return defaultValue;
+
+    try
+    {
+      // bound the size so that a request can't make the server render (and cache) huge images
+      return Math.max( 1, Math.min( MAX_GRAPH_DIMENSION, Integer.parseInt( value ) ) );
+    }
+    catch ( NumberFormatException ex )
+    {
+      return defaultValue;
+    }
+  }
+
+  private static int getBuildNumber( StaplerRequest request, String name )
+  {
+    String value = request.getParameter( name );
+    if ( value == null )
+      return 0;
+
+    try
+    {
+      return Math.max( 0, Integer.parseInt( value ) );
+    }
+    catch ( NumberFormatException ex )
+    {
+      return 0;
+    }
+  }
+
+  private static double getSignificanceLevel( StaplerRequest request )
+  {
+    String value = request.getParameter( "significanceLevel" );
+    if ( value == null )
+      return BuildComparison.DEFAULT_SIGNIFICANCE_LEVEL;
+
+    try
+    {
+      double significanceLevel = Double.parseDouble( value );
+      return significanceLevel > 0 && significanceLevel < 1 ? significanceLevel
+                                                             : BuildComparison.DEFAULT_SIGNIFICANCE_LEVEL;
+    }
+    catch ( NumberFormatException ex )
+    {
+      return BuildComparison.DEFAULT_SIGNIFICANCE_LEVEL;
+    }
   }
 
   private abstract class GraphImpl extends Graph
   {
     private final String _graphTitle;
     private final String _unit;
+    private final Collection<Integer> _changePoints;
 
-    protected GraphImpl( final String graphTitle, final String unit )
+    /**
+     * @param changePoints - the builds where a persistent shift of the score began, marked with a vertical line
+     */
+    protected GraphImpl( final String graphTitle, final String unit, final Collection<Integer> changePoints )
     {
-      super( -1, 300, 200 );
+      super( -1, DEFAULT_GRAPH_WIDTH, DEFAULT_GRAPH_HEIGHT );
       _graphTitle = graphTitle;
       _unit = unit;
+      _changePoints = changePoints;
     }
 
-    protected abstract DataSetBuilder<String, ChartUtil.NumberOnlyBuildLabel> createDataSet();
+    protected abstract DataSetBuilder<String, Integer> createDataSet();
 
     protected JFreeChart createGraph()
     {
@@ -215,6 +443,13 @@ public class BenchmarkProjectAction implements Action
       renderer.setBaseStroke( new BasicStroke( 3.0f ) );
       ColorPalette.apply( renderer );
 
+      for ( Integer changePoint : _changePoints )
+      {
+        CategoryMarker marker = new CategoryMarker( changePoint, Color.red, new BasicStroke( 1.0f ) );
+        marker.setDrawAsLine( true );
+        plot.addDomainMarker( marker );
+      }
+
       return chart;
     }
   }
@@ -0,0 +1,37 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Job;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import jenkins.model.TransientActionFactory;
+
+/**
+ * BenchmarkProjectActionFactory adds the {@link BenchmarkProjectAction} to the jobs that publish benchmark results
+ * without a configured {@link BenchmarkPublisher}, i.e. Pipeline jobs. Only a job with a trend gets the action, which
+ * is checked without loading any build.
+ */
+@Extension
+@SuppressWarnings( "rawtypes" )
+public class BenchmarkProjectActionFactory extends TransientActionFactory<Job>
+{
+  @Override
+  public Class<Job> type()
+  {
+    return Job.class;
+  }
+
+  @Override
+  public Collection<? extends Action> createFor( Job target )
+  {
+    // the publisher of a freestyle project adds the action itself
+    if ( target instanceof AbstractProject || !BenchmarkTrendStore.exists( target ) )
+      return Collections.emptyList();
+
+    return Collections.singletonList( new BenchmarkProjectAction( target ) );
+  }
+}
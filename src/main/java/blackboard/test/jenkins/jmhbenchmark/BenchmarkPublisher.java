@@ -2,45 +2,79 @@ package blackboard.test.jenkins.jmhbenchmark;
 
 import hudson.*;
 import hudson.model.*;
-import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.ParametersAction;
+import hudson.model.Run;
 import hudson.model.StringParameterValue;
+import hudson.remoting.RemoteOutputStream;
 import hudson.tasks.*;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 
 import java.io.*;
 import java.util.*;
 
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 /**
  * BenchmarkPublisher is the main class for this Jenkin's plugin that will be run as a post-build action in a CI build
  * process. As a build step, the JMH benchmark tests are run using build tools such as Gradle. The post-build action
- * triggers the execution of {@link BenchmarkPublisher#perform(AbstractBuild, Launcher, BuildListener)}, which currently
- * consumes JMH benchmark results in a CSV format. The post-build action first copies the raw benchmark result to the
- * master. It then parses the benchmark result and post the benchmark report ({@link BenchmarkReport}) to each build.
+ * triggers the execution of {@link BenchmarkPublisher#perform(Run, FilePath, Launcher, TaskListener)}, which consumes
+ * JMH benchmark results in a CSV or JSON format. The post-build action parses the benchmark results on the node that
+ * holds the workspace and, optionally, copies the raw benchmark results compressed to the master. It then posts the
+ * benchmark report ({@link BenchmarkReport}) to each build.
  * Based on a configurable performance degradation threshold, a build is marked as unstable if the benchmark's score is
  * degraded below this threshold.
  * <p/>
  * Configuration of the post-build action is performed from the job's configuration page. The configurable parameters
- * are: performance degradation threshold, performance gain threshold, baseline build number, number of decimal places
- * to use for the benchmark result.
+ * are: result file pattern, copy of the raw result files, gating mode, significance level, baseline build number,
+ * rolling baseline size, performance degradation threshold, performance gain threshold, per-benchmark threshold rules
+ * ({@link ThresholdRule}), thresholds of the secondary metrics ({@link MetricThreshold}), percentile gated in the
+ * sample mode, reference job and build whose report replaces the baseline, width of the band of the adaptive gating
+ * mode, number of decimal places to use for the benchmark result.
+ * <p/>
+ * The publisher is a {@link SimpleBuildStep}, so it also runs in Pipeline jobs, either with the generic
+ * <tt>step</tt> or with the <tt>jmhPublish</tt> step ({@link JmhPublishStep}), which returns the comparison.
  */
-public class BenchmarkPublisher extends Recorder
+public class BenchmarkPublisher extends Recorder implements SimpleBuildStep
 {
   private final int _performanceIncreaseThreshold;
   private final int _performanceDegradationThreshold;
   private final int _decimalPlaces;
   private final int _baselineBuildNumber;
-  private ReportParser _parser;
+  private String _reportFilePattern;
+  private Boolean _copyRawReports;
+  private String _gatingMode;
+  private double _significanceLevel;
+  private int _rollingBaselineBuilds;
+  private List<ThresholdRule> _thresholdRules;
+  private List<MetricThreshold> _metricThresholds;
+  private double _gatingPercentile;
+  private String _referenceJob;
+  private String _referenceBuild;
+  private double _adaptiveBandWidth;
   private static final String BENCHMARK_OUTPUT_FOLDER = "jmh_benchmark_result";
+  private static final String DEFAULT_REPORT_FILE_PATTERN = "*.csv";
+  private static final double DEFAULT_SIGNIFICANCE_LEVEL = 0.01;
   private static final String BENCHMARK_MODE_THRPT = "thrpt";
-  private static String BUILD_PROJECT_NAME;
+  private static final int ENVIRONMENT_LOOKBACK = 10;
+  private static final double DEFAULT_ADAPTIVE_BAND_WIDTH = 3;
+  private static final int ADAPTIVE_HISTORY_BUILDS = 20;
+  private static final int ADAPTIVE_MIN_BUILDS = 5;
+  private static final double MIN_ADAPTIVE_BAND = 0.005;
   // two decimal places are used to set changes from previous or baseline build
   private static final int MULTIPLIER = 100;
 
+  /**
+   * Creates a publisher with the thresholds and the baseline build. The other settings are optional and set through
+   * their {@link DataBoundSetter}s, so that configurations written before a setting existed keep its default.
+   */
   @DataBoundConstructor
   public BenchmarkPublisher( int performanceIncreaseThreshold, int performanceDegradationThreshold, int decimalPlaces,
                              int baselineBuildNumber )
@@ -71,116 +105,490 @@ public class BenchmarkPublisher extends Recorder
     return _baselineBuildNumber;
   }
 
+  /**
+   * Returns the Ant-style pattern (e.g. <tt>**&#47;build/jmh/*.json</tt>) of the result files, relative to the workspace.
+   * Several patterns can be separated by commas.
+   */
+  public String getReportFilePattern()
+  {
+    if ( _reportFilePattern == null || _reportFilePattern.trim().length() == 0 )
+      return DEFAULT_REPORT_FILE_PATTERN;
+
+    return _reportFilePattern;
+  }
+
+  @DataBoundSetter
+  public void setReportFilePattern( String reportFilePattern )
+  {
+    _reportFilePattern = reportFilePattern;
+  }
+
+  /**
+   * Returns whether the raw result files are kept (gzipped) in the build directory. Jobs configured before this could
+   * be set keep them.
+   */
+  public boolean isCopyRawReports()
+  {
+    return _copyRawReports == null || _copyRawReports;
+  }
+
+  @DataBoundSetter
+  public void setCopyRawReports( boolean copyRawReports )
+  {
+    _copyRawReports = copyRawReports;
+  }
+
+  /**
+   * Returns the number of latest builds the rolling baseline is computed from, 0 if the baseline build number is used
+   * instead.
+   */
+  public int getRollingBaselineBuilds()
+  {
+    return Math.max( 0, _rollingBaselineBuilds );
+  }
+
+  @DataBoundSetter
+  public void setRollingBaselineBuilds( int rollingBaselineBuilds )
+  {
+    _rollingBaselineBuilds = rollingBaselineBuilds;
+  }
+
+  /**
+   * Returns the number of latest builds the band of the {@link GatingMode#ADAPTIVE} gating mode is computed from: the
+   * rolling baseline builds if set, 20 otherwise. The band doesn't replace the baseline the changes are reported from.
+   */
+  int getAdaptiveBuilds()
+  {
+    return getRollingBaselineBuilds() > 0 ? getRollingBaselineBuilds() : ADAPTIVE_HISTORY_BUILDS;
+  }
+
+  /**
+   * Returns the half width k of the band of the {@link GatingMode#ADAPTIVE} gating mode, in scaled median absolute
+   * deviations from the rolling median. The default is 3.
+   */
+  public double getAdaptiveBandWidth()
+  {
+    return _adaptiveBandWidth > 0 ? _adaptiveBandWidth : DEFAULT_ADAPTIVE_BAND_WIDTH;
+  }
+
+  @DataBoundSetter
+  public void setAdaptiveBandWidth( double adaptiveBandWidth )
+  {
+    _adaptiveBandWidth = adaptiveBandWidth;
+  }
+
+  /**
+   * Returns the rules that override the thresholds for some benchmarks, in the order they are tried.
+   */
+  public List<ThresholdRule> getThresholdRules()
+  {
+    if ( _thresholdRules == null )
+      return Collections.emptyList();
+
+    return Collections.unmodifiableList( _thresholdRules );
+  }
+
+  @DataBoundSetter
+  public void setThresholdRules( List<ThresholdRule> thresholdRules )
+  {
+    _thresholdRules = thresholdRules == null ? null : new ArrayList<ThresholdRule>( thresholdRules );
+  }
+
+  /**
+   * Returns the thresholds of the secondary metrics, e.g. <tt>gc.alloc.rate.norm</tt>.
+   */
+  public List<MetricThreshold> getMetricThresholds()
+  {
+    if ( _metricThresholds == null )
+      return Collections.emptyList();
+
+    return Collections.unmodifiableList( _metricThresholds );
+  }
+
+  @DataBoundSetter
+  public void setMetricThresholds( List<MetricThreshold> metricThresholds )
+  {
+    _metricThresholds = metricThresholds == null ? null : new ArrayList<MetricThreshold>( metricThresholds );
+  }
+
+  /**
+   * Returns the percentile the sample mode benchmarks are gated on (e.g. 99 for p99), or 0 if they are gated on their
+   * mean score like the other modes.
+   */
+  public double getGatingPercentile()
+  {
+    for ( double percentile : BenchmarkResult.TRACKED_PERCENTILES )
+    {
+      if ( percentile == _gatingPercentile )
+        return percentile;
+    }
+    return 0;
+  }
+
+  @DataBoundSetter
+  public void setGatingPercentile( double gatingPercentile )
+  {
+    _gatingPercentile = gatingPercentile;
+  }
+
+  /**
+   * Returns the name of the job whose report the benchmarks are compared with instead of the baseline of this job, e.g.
+   * the job of the main branch, or an empty string if there is none.
+   */
+  public String getReferenceJob()
+  {
+    return _referenceJob == null ? "" : _referenceJob.trim();
+  }
+
+  @DataBoundSetter
+  public void setReferenceJob( String referenceJob )
+  {
+    _referenceJob = referenceJob;
+  }
+
+  public String getReferenceBuild()
+  {
+    return getReferenceBuildSelector().name();
+  }
+
+  @DataBoundSetter
+  public void setReferenceBuild( String referenceBuild )
+  {
+    _referenceBuild = referenceBuild;
+  }
+
+  ReferenceBuild getReferenceBuildSelector()
+  {
+    if ( _referenceBuild != null )
+    {
+      for ( ReferenceBuild selector : ReferenceBuild.values() )
+      {
+        if ( selector.name().equals( _referenceBuild ) )
+          return selector;
+      }
+    }
+    return ReferenceBuild.LAST_SUCCESSFUL;
+  }
+
+  private Map<String, MetricThreshold> getMetricThresholdsByMetric()
+  {
+    Map<String, MetricThreshold> thresholds = new HashMap<String, MetricThreshold>();
+    for ( MetricThreshold threshold : getMetricThresholds() )
+    {
+      if ( !thresholds.containsKey( threshold.getMetric() ) )
+      {
+        thresholds.put( threshold.getMetric(), threshold );
+      }
+    }
+    return thresholds;
+  }
+
+  public String getGatingMode()
+  {
+    return getGating().name();
+  }
+
+  @DataBoundSetter
+  public void setGatingMode( String gatingMode )
+  {
+    _gatingMode = gatingMode;
+  }
+
+  GatingMode getGating()
+  {
+    if ( _gatingMode != null )
+    {
+      for ( GatingMode mode : GatingMode.values() )
+      {
+        if ( mode.name().equals( _gatingMode ) )
+          return mode;
+      }
+    }
+    return GatingMode.THRESHOLD;
+  }
+
+  /**
+   * Returns the p-value below which a change is significant in the {@link GatingMode#STATISTICAL} gating mode.
+   */
+  public double getSignificanceLevel()
+  {
+    if ( _significanceLevel <= 0 || _significanceLevel >= 1 )
+      return DEFAULT_SIGNIFICANCE_LEVEL;
+
+    return _significanceLevel;
+  }
+
+  @DataBoundSetter
+  public void setSignificanceLevel( double significanceLevel )
+  {
+    _significanceLevel = significanceLevel;
+  }
+
   @Override
-  public boolean perform( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener )
+  public void perform( Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener )
     throws IOException, InterruptedException
   {
-    BUILD_PROJECT_NAME = build.getProject().getName();
-    boolean buildStable = true;
-    Set<String> failedBenchmarks = new HashSet<String>();
-    
-    PrintStream logger = listener.getLogger();
-    if ( build.getResult().isWorseThan( Result.UNSTABLE ) )
+    // a Pipeline build has no result until it completes or a step sets one
+    if ( build.getResult() != null && build.getResult().isWorseThan( Result.UNSTABLE ) )
     {
       build.setResult( Result.FAILURE );
-      return true;
+      return;
     }
 
-    FilePath[] files = build.getWorkspace().list( "*.csv" );
-    if ( files.length <= 0 )
+    if ( publish( build, workspace, listener ) == null )
     {
       build.setResult( Result.FAILURE );
+    }
+  }
+
+  /**
+   * Parses the result files of a build, compares them with the previous and baseline builds, marks the build as
+   * unstable if a benchmark degraded and posts the report to the build.
+   *
+   * @return the report of the build, with the changes and change indicators of each benchmark, or null if no result
+   *         file was found
+   */
+  BenchmarkReport publish( Run<?, ?> build, FilePath workspace, TaskListener listener )
+    throws IOException, InterruptedException
+  {
+    boolean buildStable = true;
+    Set<String> failedBenchmarks = new HashSet<String>();
+    
+    PrintStream logger = listener.getLogger();
+
+    // the result files are parsed on the node that holds the workspace, only the parsed report is sent to the master.
+    // Jobs configured before the pattern could be set also picked JMH results written with -rf json.
+    ReportIngestCallable.IngestedReport ingested =
+      workspace.act( new ReportIngestCallable( getReportFilePattern(), _reportFilePattern == null ? "*.json" : null,
+                                               listener ) );
+    if ( ingested.getFiles().isEmpty() )
+    {
       logger.println( "JMH Benchmark: benchmark file could not be found." );
-      return true;
+      return null;
     }
 
-    File localReports = copyBenchmarkOutputToMaster( build, files[ 0 ], BUILD_PROJECT_NAME );
+    BenchmarkReport parsedReport = ingested.getReport();
+    for ( String duplicate : ingested.getDuplicates() )
+    {
+      logger.println( "JMH Benchmark: duplicate benchmark " + duplicate );
+    }
 
-    // currently only a CSV parser is supported
-    _parser = new CsvParser();
-    BenchmarkReport parsedReport = _parser.parse( build, localReports, listener );
+    if ( isCopyRawReports() )
+    {
+      for ( String file : ingested.getFiles() )
+      {
+        copyBenchmarkOutputToMaster( build, workspace.child( file ), file, build.getParent().getName() );
+      }
+    }
 
     // get previous successful build (i.e. not failed build) report to calculate the increase in mean value for each benchmark and set an indicator (i.e. 
     // green or red for each benchmark) depending on threshold set in the configuration. If there is at least a red for 
     // one benchmark, the build status will be unstable
 
-    AbstractBuild<?, ?> prevSuccessfulBuild = build.getPreviousNotFailedBuild();
+    // only builds of the same environment are compared like-for-like, the changes from other environments are reported
+    // but don't flag the benchmarks
+    EnvironmentFingerprint environment = parsedReport.getEnvironment();
+    if ( environment != null )
+    {
+      logger.println( "JMH Benchmark: environment " + environment.getDescription() );
+    }
+    List<String> environmentWarnings = new ArrayList<String>();
+    Run<?, ?> prevSuccessfulBuild = getPreviousBuild( build, environment );
 
-    // if there is no previous successful build, there is no baseline build
-    if ( prevSuccessfulBuild != null )
+    // without a previous successful build there is no baseline build, but the reference job may have a build
+    Run<?, ?> referenceBuild = getReferenceBuild( build, logger );
+    if ( prevSuccessfulBuild != null || referenceBuild != null )
     {
       Map<String, BenchmarkResult> currentApiTestReport = parsedReport.getReport();
-      BenchmarkBuildAction prevBuildAction = prevSuccessfulBuild.getAction( BenchmarkBuildAction.class );
+      BenchmarkBuildAction prevBuildAction =
+        prevSuccessfulBuild == null ? null : prevSuccessfulBuild.getAction( BenchmarkBuildAction.class );
       BenchmarkReport prevPerfReport = null;
       Map<String, BenchmarkResult> prevApiTestReport = null;
 
+      boolean likeForLikePrev = true;
       if ( prevBuildAction != null )
       {
-        prevPerfReport = prevBuildAction.getBuildActionDisplay().getJmhPerfReport();
+        prevPerfReport = prevBuildAction.getPerformanceReport();
         prevApiTestReport = prevPerfReport.getReport();
+        likeForLikePrev = isLikeForLike( environment, prevSuccessfulBuild, environmentWarnings, logger );
       }
 
-      AbstractBuild<?, ?> baselineBuild = getBaselineBuild( build );
-      Map<String, BenchmarkResult> baselineApiTestReport = null;
-      if ( baselineBuild != null )
+      // a rolling baseline is read from the project's trend, without loading any build. The trend keeps it up to date
+      // as builds are added, so the cost of gating doesn't grow with the history.
+      BenchmarkTrendStore trendStore = BenchmarkTrendStore.forProject( build.getParent() );
+      // the trend keeps the builds of each environment apart
+      String environmentId = environment == null ? null : environment.getId();
+      Map<String, RollingBaseline> rollingBaselines = null;
+      Map<String, RollingBaseline> percentileBaselines = null;
+      double gatingPercentile = getGatingPercentile();
+      if ( getRollingBaselineBuilds() > 0 && referenceBuild == null )
       {
-        BenchmarkBuildAction baselineBuildAction = baselineBuild.getAction( BenchmarkBuildAction.class );
-        BenchmarkReport baselinePerfReport = null;
+        rollingBaselines = trendStore.getRollingBaselines( getRollingBaselineBuilds(), environmentId );
+        if ( gatingPercentile > 0 )
+        {
+          percentileBaselines =
+            trendStore.getRollingBaselines( getRollingBaselineBuilds(), gatingPercentile, environmentId );
+        }
+      }
 
-        if ( baselineBuildAction != null )
+      // the adaptive band is learnt from this job's history, also when the baseline is a build or a reference build
+      boolean adaptive = getGating() == GatingMode.ADAPTIVE;
+      Map<String, RollingBaseline> bands = null;
+      Map<String, RollingBaseline> percentileBands = null;
+      if ( adaptive && rollingBaselines != null )
+      {
+        bands = rollingBaselines;
+        percentileBands = percentileBaselines;
+      }
+      else if ( adaptive )
+      {
+        bands = trendStore.getRollingBaselines( getAdaptiveBuilds(), environmentId );
+        if ( gatingPercentile > 0 )
         {
-          baselinePerfReport = baselineBuildAction.getBuildActionDisplay().getJmhPerfReport();
-          baselineApiTestReport = baselinePerfReport.getReport();
+          percentileBands = trendStore.getRollingBaselines( getAdaptiveBuilds(), gatingPercentile, environmentId );
         }
       }
 
-      double decreaseInMeanFromPrev = 0;
-      double decreaseInMeanFromBaseline = 0;
+      // the report of the reference build replaces the baseline of this job
+      Map<String, BenchmarkResult> baselineApiTestReport;
+      if ( referenceBuild != null )
+      {
+        baselineApiTestReport = ReferenceReportCache.getInstance().get( referenceBuild );
+        if ( baselineApiTestReport == null )
+        {
+          logger.println( "JMH Benchmark: the reference build " + referenceBuild.getFullDisplayName()
+                          + " has no benchmark report" );
+        }
+      }
+      else
+      {
+        baselineApiTestReport = rollingBaselines == null ? getBaselineReport( build ) : null;
+      }
+      boolean likeForLikeBaseline = true;
+      if ( baselineApiTestReport != null )
+      {
+        Run<?, ?> baselineBuild = referenceBuild != null ? referenceBuild : getBaselineBuild( build );
+        likeForLikeBaseline = isLikeForLike( environment, baselineBuild, environmentWarnings, logger );
+      }
 
-      if ( prevApiTestReport != null )
+      if ( prevApiTestReport != null || baselineApiTestReport != null || bands != null )
       {
+        ThresholdRuleMatcher ruleMatcher =
+          ThresholdRuleMatcher.forJob( build.getParent().getFullName(), getThresholdRules() );
+        for ( String invalidRule : ruleMatcher.getInvalidRules() )
+        {
+          logger.println( "JMH Benchmark: skipped the threshold rule " + invalidRule
+                          + ", its benchmark pattern is not a valid regular expression" );
+        }
+        Map<String, MetricThreshold> metricThresholds = getMetricThresholdsByMetric();
         for ( Map.Entry<String, BenchmarkResult> entry : currentApiTestReport.entrySet() )
         {
           String key = entry.getKey();
           BenchmarkResult currVal = entry.getValue();
-          BenchmarkResult prevVal = prevApiTestReport.get( key );
+          BenchmarkResult prevVal = prevApiTestReport == null ? null : prevApiTestReport.get( key );
+          double decreaseInMeanFromPrev = 0;
+          double decreaseInMeanFromBaseline = 0;
+          double increaseFromPrev = 0;
+          double increaseFromBaseline = 0;
+          boolean significantFromPrev = false;
+          boolean significantFromBaseline = false;
+
+          // a sample mode benchmark is compared on the gating percentile instead of its mean score. The significance
+          // tests are about the mean, so only the thresholds and the rolling baseline apply to a percentile.
+          double percentile =
+            gatingPercentile > 0 && !currVal.isSecondary() && !Double.isNaN( currVal.getPercentile( gatingPercentile ) )
+              ? gatingPercentile : 0;
+          double currScore = getScore( currVal, percentile );
+
+          if ( prevVal != null && !Double.isNaN( getScore( prevVal, percentile ) ) )
+          {
+            double prevScore = getScore( prevVal, percentile );
+            decreaseInMeanFromPrev = getImprovementInPercent( currVal, currScore, prevScore );
+            increaseFromPrev = currScore - prevScore;
+            currVal.setMeanChangeFromPrev( decreaseInMeanFromPrev );
+            currVal.setPValueFromPrev( percentile > 0 ? Double.NaN : Statistics.compare( currVal, prevVal ) );
+            significantFromPrev = likeForLikePrev && isSignificant( currVal.getPValueFromPrev() );
+          }
 
-          if ( prevVal != null )
+          Map<String, RollingBaseline> baselines = percentile > 0 ? percentileBaselines : rollingBaselines;
+          RollingBaseline rollingBaseline = baselines == null ? null : baselines.get( key );
+          if ( rollingBaseline != null )
           {
-            // decrease in mean from previous is calculated as ((prev - curr)/prev) * 100%
-            decreaseInMeanFromPrev = ( 1 - currVal.getMean() / prevVal.getMean() ) * 100.0;
-            decreaseInMeanFromPrev = (double) Math.round( decreaseInMeanFromPrev * MULTIPLIER ) / MULTIPLIER;
-            if ( currVal.getMode().equalsIgnoreCase( BENCHMARK_MODE_THRPT ) )
+            decreaseInMeanFromBaseline = getImprovementInPercent( currVal, currScore, rollingBaseline.getMedian() );
+            increaseFromBaseline = currScore - rollingBaseline.getMedian();
+            currVal.setMeanChangeFromBaseline( decreaseInMeanFromBaseline );
+            currVal.setPValueFromBaseline( rollingBaseline.getPValue( currScore ) );
+            significantFromBaseline = isSignificant( currVal.getPValueFromBaseline() );
+          }
+          else if ( baselineApiTestReport != null )
+          {
+            BenchmarkResult baselineVal = baselineApiTestReport.get( key );
+
+            if ( baselineVal != null && !Double.isNaN( getScore( baselineVal, percentile ) ) )
             {
-              decreaseInMeanFromPrev = -1 * decreaseInMeanFromPrev;
+              double baselineScore = getScore( baselineVal, percentile );
+              decreaseInMeanFromBaseline = getImprovementInPercent( currVal, currScore, baselineScore );
+              increaseFromBaseline = currScore - baselineScore;
+              currVal.setMeanChangeFromBaseline( decreaseInMeanFromBaseline );
+              currVal.setPValueFromBaseline( percentile > 0 ? Double.NaN : Statistics.compare( currVal, baselineVal ) );
+              significantFromBaseline = likeForLikeBaseline && isSignificant( currVal.getPValueFromBaseline() );
             }
-            currVal.setMeanChangeFromPrev( decreaseInMeanFromPrev );
           }
 
-          if ( baselineApiTestReport != null )
+          // a secondary metric is only gated by the threshold of that metric, on its absolute growth
+          if ( currVal.isSecondary() )
           {
-            BenchmarkResult baselineVal = baselineApiTestReport.get( key );
+            MetricThreshold metricThreshold = metricThresholds.get( currVal.getSecondaryMetric() );
+            if ( metricThreshold != null
+                 && ( ( increaseFromBaseline > metricThreshold.getMaxIncrease() && significantFromBaseline )
+                      || ( increaseFromPrev > metricThreshold.getMaxIncrease() && significantFromPrev ) ) )
+            {
+              currVal.setChangeIndicator( "red" );
+              failedBenchmarks.add( currVal.getBenchmarkName() );
+              buildStable = false;
+            }
+            continue;
+          }
 
-            if ( baselineVal != null )
+          // the first matching rule overrides the thresholds or leaves the benchmark out of gating
+          ThresholdRule rule = ruleMatcher.isEmpty() ? null : ruleMatcher.match( currVal );
+          if ( rule != null && rule.isExclude() )
+            continue;
+
+          // the adaptive band replaces the thresholds once the benchmark has enough history on this environment
+          if ( adaptive )
+          {
+            Map<String, RollingBaseline> benchmarkBands = percentile > 0 ? percentileBands : bands;
+            RollingBaseline band = benchmarkBands == null ? null : benchmarkBands.get( key );
+            if ( band != null && band.getBuilds() >= ADAPTIVE_MIN_BUILDS )
             {
-              // decrease in mean from baseline is calculated as ((baseline - curr)/baseline) * 100%
-              decreaseInMeanFromBaseline = ( 1 - currVal.getMean() / baselineVal.getMean() ) * 100.0;
-              decreaseInMeanFromBaseline = (double) Math.round( decreaseInMeanFromBaseline * MULTIPLIER ) / MULTIPLIER;
-              if ( currVal.getMode().equalsIgnoreCase( BENCHMARK_MODE_THRPT ) )
+              int position = getBandPosition( currVal, currScore, band );
+              if ( position > 0 )
               {
-                decreaseInMeanFromBaseline = -1 * decreaseInMeanFromBaseline;
+                currVal.setChangeIndicator( "green" );
               }
-              currVal.setMeanChangeFromBaseline( decreaseInMeanFromBaseline );
+              else if ( position < 0 )
+              {
+                currVal.setChangeIndicator( "red" );
+                failedBenchmarks.add( currVal.getBenchmarkName() );
+                buildStable = false;
+              }
+              continue;
             }
           }
 
-          if ( decreaseInMeanFromBaseline >= _performanceIncreaseThreshold
-               || decreaseInMeanFromPrev >= _performanceIncreaseThreshold )
+          int increaseThreshold = rule == null ? _performanceIncreaseThreshold : rule.getPerformanceIncreaseThreshold();
+          int degradationThreshold =
+            rule == null ? _performanceDegradationThreshold : rule.getPerformanceDegradationThreshold();
+
+          // the thresholds are the minimum effect size, a change is only flagged if it is also significant
+          if ( ( decreaseInMeanFromBaseline >= increaseThreshold && significantFromBaseline )
+               || ( decreaseInMeanFromPrev >= increaseThreshold && significantFromPrev ) )
           {
             currVal.setChangeIndicator( "green" );
           }
-          else if ( decreaseInMeanFromBaseline <= _performanceDegradationThreshold
-                    || decreaseInMeanFromPrev <= _performanceDegradationThreshold )
+          else if ( ( decreaseInMeanFromBaseline <= degradationThreshold && significantFromBaseline )
+                    || ( decreaseInMeanFromPrev <= degradationThreshold && significantFromPrev ) )
           {
             currVal.setChangeIndicator( "red" );
             failedBenchmarks.add( currVal.getBenchmarkName() );
@@ -191,8 +599,23 @@ public class BenchmarkPublisher extends Recorder
     }
     
     BenchmarkBuildAction buildAction = new BenchmarkBuildAction( build, parsedReport, _decimalPlaces );
+    if ( referenceBuild != null )
+    {
+      buildAction.setReferenceBuild( referenceBuild.getFullDisplayName() );
+    }
+    buildAction.setEnvironmentWarnings( environmentWarnings );
     build.addAction( buildAction );
 
+    // record the scores in the project's trend so that the trend page doesn't need to load this build
+    Map<String, Integer> changePoints =
+      BenchmarkTrendStore.forProject( build.getParent() ).append( build.getNumber(), parsedReport );
+    TrendGraphCache.getInstance().invalidate( build.getParent().getFullName() );
+    for ( Map.Entry<String, Integer> changePoint : changePoints.entrySet() )
+    {
+      logger.println( "JMH Benchmark: the score of " + changePoint.getKey()
+                      + " shifted persistently, starting with build #" + changePoint.getValue() );
+    }
+
     if ( !buildStable )
     {
       StringBuilder sb = new StringBuilder();
@@ -204,42 +627,191 @@ public class BenchmarkPublisher extends Recorder
       build.setResult( Result.UNSTABLE );
     }
 
-    return true;
+    return parsedReport;
   }
 
-  private AbstractBuild<?, ?> getBaselineBuild( AbstractBuild<?, ?> build )
+  /**
+   * Returns the score of a result at the given percentile, or its mean score if the percentile is 0.
+   */
+  private static double getScore( BenchmarkResult result, double percentile )
   {
-    if ( _baselineBuildNumber == 0 )
-      return null;
+    return percentile > 0 ? result.getPercentile( percentile ) : result.getMean();
+  }
+
+  /**
+   * Returns the improvement of a score of a result over a reference score in percent, rounded to two decimal places:
+   * the decrease of the score, calculated as ((reference - curr)/reference) * 100%, or its increase in the throughput
+   * mode. The secondary metrics of the profilers, e.g. the allocation rate, are better when lower whatever the mode.
+   */
+  static double getImprovementInPercent( BenchmarkResult result, double score, double reference )
+  {
+    if ( reference == 0 )
+      return 0;
 
-    AbstractBuild<?, ?> nthBuild = build;
+    double improvement = ( 1 - score / reference ) * 100.0;
+    improvement = (double) Math.round( improvement * MULTIPLIER ) / MULTIPLIER;
+    if ( !result.isSecondary() && result.getMode().equalsIgnoreCase( BENCHMARK_MODE_THRPT ) )
+    {
+      improvement = -1 * improvement;
+    }
+    return improvement;
+  }
+
+  /**
+   * Returns 1 if a score is better than the adaptive band of its benchmark, -1 if it is worse and 0 if it is inside.
+   * The band is the rolling median &#177; k scaled MADs, but at least &#177;0.5% of the median, so that a benchmark
+   * whose latest scores were all the same isn't flagged for every change.
+   */
+  private int getBandPosition( BenchmarkResult result, double score, RollingBaseline band )
+  {
+    double median = band.getMedian();
+    double halfWidth = Math.max( getAdaptiveBandWidth() * RollingBaseline.MAD_SCALE * band.getMad(),
+                                 MIN_ADAPTIVE_BAND * Math.abs( median ) );
+    if ( Double.isNaN( score ) || Double.isNaN( halfWidth ) || Math.abs( score - median ) <= halfWidth )
+      return 0;
+
+    boolean higherIsBetter = !result.isSecondary() && result.getMode().equalsIgnoreCase( BENCHMARK_MODE_THRPT );
+    return ( score > median ) == higherIsBetter ? 1 : -1;
+  }
+
+  /**
+   * Returns whether a change with the given p-value counts in the current gating mode. A change that couldn't be
+   * tested, e.g. because JMH reported a single sample, falls back to the thresholds alone.
+   */
+  private boolean isSignificant( double pValue )
+  {
+    if ( getGating() != GatingMode.STATISTICAL || Double.isNaN( pValue ) )
+      return true;
+
+    return pValue < getSignificanceLevel();
+  }
 
-    int nextBuildNumber = build.number - _baselineBuildNumber;
+  /**
+   * Returns the latest previous build that didn't fail and published benchmark results from the same environment,
+   * looking back at most {@link #ENVIRONMENT_LOOKBACK} builds, or the previous build that didn't fail if none did.
+   */
+  private static Run<?, ?> getPreviousBuild( Run<?, ?> build, EnvironmentFingerprint environment )
+  {
+    Run<?, ?> previous = build.getPreviousNotFailedBuild();
+    if ( environment == null )
+      return previous;
+
+    Run<?, ?> candidate = previous;
+    for ( int i = 0; i < ENVIRONMENT_LOOKBACK && candidate != null; i++ )
+    {
+      BenchmarkBuildAction buildAction = candidate.getAction( BenchmarkBuildAction.class );
+      if ( buildAction != null && EnvironmentFingerprint.isLikeForLike( environment, buildAction.getEnvironment() ) )
+        return candidate;
+
+      candidate = candidate.getPreviousNotFailedBuild();
+    }
+    return previous;
+  }
+
+  /**
+   * Returns whether a build published its benchmark results from the given environment, or from an unknown one. If
+   * not, the differences are logged and added to the warnings of the build.
+   */
+  private static boolean isLikeForLike( EnvironmentFingerprint environment, Run<?, ?> other, List<String> warnings,
+                                        PrintStream logger )
+  {
+    BenchmarkBuildAction otherAction = other == null ? null : other.getAction( BenchmarkBuildAction.class );
+    EnvironmentFingerprint otherEnvironment = otherAction == null ? null : otherAction.getEnvironment();
+    if ( EnvironmentFingerprint.isLikeForLike( environment, otherEnvironment ) )
+      return true;
+
+    StringBuilder sb = new StringBuilder( 200 );
+    sb.append( other.getFullDisplayName() ).append( " ran on another environment (" );
+    List<String> differences = environment.getDifferences( otherEnvironment );
+    for ( int i = 0; i < differences.size(); i++ )
+    {
+      sb.append( i == 0 ? "" : ", " ).append( differences.get( i ) );
+    }
+    sb.append( "), the changes from it are not gated" );
+    warnings.add( sb.toString() );
+    logger.println( "JMH Benchmark: " + sb );
+    return false;
+  }
+
+  /**
+   * Returns the selected build of the reference job, or null if no reference job is configured or it has no such build.
+   */
+  private Run<?, ?> getReferenceBuild( Run<?, ?> build, PrintStream logger )
+  {
+    if ( getReferenceJob().length() == 0 )
+      return null;
+
+    // a relative name, e.g. the name of another branch of a multibranch project, is resolved in the job's folder
+    Job<?, ?> referenceJob =
+      Jenkins.getInstance().getItem( getReferenceJob(), build.getParent().getParent(), Job.class );
+    if ( referenceJob == null )
+    {
+      logger.println( "JMH Benchmark: reference job " + getReferenceJob() + " not found" );
+      return null;
+    }
 
-    for ( int i = 1; i <= nextBuildNumber; i++ )
+    Run<?, ?> referenceBuild = getReferenceBuildSelector().select( referenceJob );
+    if ( referenceBuild == null )
     {
-      nthBuild = nthBuild.getPreviousBuild();
-      if ( nthBuild == null )
-        return null;
-      // this is required since old builds can be cleaned or the baseline builds are old builds that have been kept forever.
-      if ( nthBuild.number == _baselineBuildNumber )
-        return nthBuild;
+      logger.println( "JMH Benchmark: reference job " + getReferenceJob() + " has no "
+                      + getReferenceBuildSelector().getDisplayName().toLowerCase( Locale.ENGLISH ) );
+      return null;
     }
-    return nthBuild;
+    logger.println( "JMH Benchmark: comparing with the reference build " + referenceBuild.getFullDisplayName() );
+    return referenceBuild;
+  }
+
+  /**
+   * Returns the benchmark results of the baseline build. The report is kept per job by
+   * {@link ReferenceReportCache#getBaselineInstance()}, which outlives the publisher that Pipeline creates for every
+   * build, and read again only when the baseline build changed, i.e. it was deleted or another build now has its
+   * number.
+   */
+  private Map<String, BenchmarkResult> getBaselineReport( Run<?, ?> build )
+  {
+    Run<?, ?> baselineBuild = getBaselineBuild( build );
+    if ( baselineBuild == null )
+      return null;
+
+    return ReferenceReportCache.getBaselineInstance().get( baselineBuild );
   }
 
-  private File copyBenchmarkOutputToMaster( AbstractBuild<?, ?> build, FilePath output, String projectFolderName )
+  private Run<?, ?> getBaselineBuild( Run<?, ?> build )
+  {
+    if ( _baselineBuildNumber <= 0 || _baselineBuildNumber >= build.getNumber() )
+      return null;
+
+    // the baseline build is looked up by number instead of walking back from the current build, which would load every
+    // build in between. If the baseline build has been cleaned, the nearest older build is used.
+    return build.getParent().getNearestOldBuild( _baselineBuildNumber );
+  }
+
+  /**
+   * Copies a result file gzipped to the build directory, keeping its path relative to the workspace so that result
+   * files with the same name in different directories don't overwrite each other. The file is compressed on the node
+   * that holds the workspace.
+   */
+  private File copyBenchmarkOutputToMaster( Run<?, ?> build, FilePath output, String relativePath,
+                                            String projectFolderName )
     throws IOException, InterruptedException
   {
-    File localReport = getPerformanceReport( build, projectFolderName, output.getName() );
-    output.copyTo( new FilePath( localReport ) );
+    File localReport = getPerformanceReport( build, projectFolderName, relativePath + ".gz" );
+    localReport.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream( localReport );
+    try
+    {
+      output.act( new CompressedCopyCallable( new RemoteOutputStream( out ) ) );
+    }
+    finally
+    {
+      out.close();
+    }
     return localReport;
   }
 
-  public static File getPerformanceReport( AbstractBuild<?, ?> build, String projectFolderName,
-                                           String benchmarkOutputFileName )
+  public static File getPerformanceReport( Run<?, ?> build, String... suffixes )
   {
-    return new File( build.getRootDir(), getRelativePath( projectFolderName, benchmarkOutputFileName ) );
+    return new File( build.getRootDir(), getRelativePath( suffixes ) );
   }
 
   private static String getRelativePath( String... suffixes )
@@ -259,6 +831,33 @@ public class BenchmarkPublisher extends Recorder
     return new BenchmarkProjectAction( project );
   }
 
+  /**
+   * The benchmark results of a baseline or reference build, with what identifies that build.
+   */
+  static final class BaselineReport
+  {
+    private final int _buildNumber;
+    private final long _timestamp;
+    private final Map<String, BenchmarkResult> _report;
+
+    BaselineReport( Run<?, ?> build, Map<String, BenchmarkResult> report )
+    {
+      _buildNumber = build.getNumber();
+      _timestamp = build.getTimeInMillis();
+      _report = report;
+    }
+
+    boolean isReportOf( Run<?, ?> build )
+    {
+      return build.getNumber() == _buildNumber && build.getTimeInMillis() == _timestamp;
+    }
+
+    Map<String, BenchmarkResult> getReport()
+    {
+      return _report;
+    }
+  }
+
   @Override
   public DescriptorImpl getDescriptor()
   {
@@ -324,6 +923,77 @@ public class BenchmarkPublisher extends Recorder
       return FormValidation.ok();
     }
 
+    public ListBoxModel doFillGatingModeItems()
+    {
+      ListBoxModel items = new ListBoxModel();
+      for ( GatingMode mode : GatingMode.values() )
+      {
+        items.add( mode.getDisplayName(), mode.name() );
+      }
+      return items;
+    }
+
+    public ListBoxModel doFillReferenceBuildItems()
+    {
+      ListBoxModel items = new ListBoxModel();
+      for ( ReferenceBuild selector : ReferenceBuild.values() )
+      {
+        items.add( selector.getDisplayName(), selector.name() );
+      }
+      return items;
+    }
+
+    public FormValidation doCheckReferenceJob( @AncestorInPath Item project, @QueryParameter String referenceJob )
+    {
+      if ( referenceJob.trim().length() == 0 || project == null )
+        return FormValidation.ok();
+
+      if ( Jenkins.getInstance().getItem( referenceJob.trim(), project.getParent(), Job.class ) == null )
+        return FormValidation.warning( "No such job" );
+
+      return FormValidation.ok();
+    }
+
+    public ListBoxModel doFillGatingPercentileItems()
+    {
+      ListBoxModel items = new ListBoxModel();
+      items.add( "Mean score", Double.toString( 0 ) );
+      for ( double percentile : BenchmarkResult.TRACKED_PERCENTILES )
+      {
+        items.add( BenchmarkResult.getPercentileLabel( percentile ), Double.toString( percentile ) );
+      }
+      return items;
+    }
+
+    public FormValidation doCheckSignificanceLevel( @QueryParameter String significanceLevel )
+    {
+      try
+      {
+        double value = Double.parseDouble( significanceLevel );
+        if ( value <= 0 || value >= 1 )
+          return FormValidation.error( "Must be between 0 and 1" );
+      }
+      catch ( NumberFormatException ex )
+      {
+        return FormValidation.error( "Not a valid number" );
+      }
+      return FormValidation.ok();
+    }
+
+    public FormValidation doCheckRollingBaselineBuilds( @QueryParameter String rollingBaselineBuilds )
+    {
+      try
+      {
+        if ( Integer.parseInt( rollingBaselineBuilds ) < 0 )
+          return FormValidation.error( "Must not be negative" );
+      }
+      catch ( NumberFormatException ex )
+      {
+        return FormValidation.error( "Not a valid number" );
+      }
+      return FormValidation.ok();
+    }
+
     public FormValidation doCheckBaselineBuildNumber( @QueryParameter String baselineBuildNumber )
     {
       try
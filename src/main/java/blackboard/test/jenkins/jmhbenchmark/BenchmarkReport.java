@@ -1,19 +1,25 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
-import hudson.model.AbstractBuild;
+import hudson.model.Run;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
 /**
  * BenchmarkReport contains one or more {@link BenchmarkResult} objects for all the benchmarks
- * run in the build.
+ * run in the build. It is exported through the remote API of the build report.
  *
  */
+@ExportedBean( defaultVisibility = 2 )
 public class BenchmarkReport implements Serializable
 {
   private static final long serialVersionUID = 7490376469570293188L;
@@ -21,10 +27,44 @@ public class BenchmarkReport implements Serializable
   private transient BenchmarkBuildAction _buildAction;
   private List<String> _header = new ArrayList<String>();
   private final Map<String, BenchmarkResult> _report = new TreeMap<String, BenchmarkResult>();
+  private EnvironmentFingerprint _environment;
+  private transient List<String> _duplicates;
 
+  /**
+   * Adds a result to the report. If a result with the same key was already added, e.g. a benchmark run twice or two
+   * benchmarks whose names shorten alike (<tt>org.apache.Foo.test</tt> and <tt>org.acme.Foo.test</tt>), the first one
+   * is kept and the other is reported by {@link #getDuplicates()}.
+   */
   public void addBenchmarkResult( String benchmarkName, BenchmarkResult data )
   {
-    _report.put( benchmarkName, data );
+    BenchmarkResult existing = _report.get( benchmarkName );
+    if ( existing == null )
+    {
+      _report.put( benchmarkName, data );
+      return;
+    }
+
+    if ( _duplicates == null )
+    {
+      _duplicates = new ArrayList<String>();
+    }
+    if ( data.getBenchmarkName() != null && !data.getBenchmarkName().equals( existing.getBenchmarkName() ) )
+    {
+      _duplicates.add( benchmarkName + " of " + data.getBenchmarkName() + " (already added for "
+                       + existing.getBenchmarkName() + ")" );
+    }
+    else
+    {
+      _duplicates.add( benchmarkName + " (already added)" );
+    }
+  }
+
+  /**
+   * Returns a description of each result that wasn't added because its key was already taken.
+   */
+  public List<String> getDuplicates()
+  {
+    return _duplicates == null ? Collections.<String>emptyList() : _duplicates;
   }
 
   public Map<String, BenchmarkResult> getReport()
@@ -32,6 +72,57 @@ public class BenchmarkReport implements Serializable
     return _report;
   }
 
+  /**
+   * Returns the results in display order: each primary result followed by the secondary metrics of the same benchmark
+   * (e.g. <tt>gc.alloc.rate.norm</tt>), which the key order alone doesn't guarantee once parameters are involved.
+   */
+  public Map<String, BenchmarkResult> getGroupedReport()
+  {
+    Map<String, List<String>> secondaryKeys = new HashMap<String, List<String>>();
+    for ( Map.Entry<String, BenchmarkResult> entry : _report.entrySet() )
+    {
+      BenchmarkResult result = entry.getValue();
+      if ( result.isSecondary() && _report.containsKey( result.getPrimaryKey() ) )
+      {
+        List<String> keys = secondaryKeys.get( result.getPrimaryKey() );
+        if ( keys == null )
+        {
+          keys = new ArrayList<String>();
+          secondaryKeys.put( result.getPrimaryKey(), keys );
+        }
+        keys.add( entry.getKey() );
+      }
+    }
+
+    Map<String, BenchmarkResult> grouped = new LinkedHashMap<String, BenchmarkResult>();
+    for ( Map.Entry<String, BenchmarkResult> entry : _report.entrySet() )
+    {
+      BenchmarkResult result = entry.getValue();
+      if ( result.isSecondary() && _report.containsKey( result.getPrimaryKey() ) )
+        continue;
+
+      grouped.put( entry.getKey(), result );
+      List<String> keys = secondaryKeys.get( entry.getKey() );
+      if ( keys != null )
+      {
+        for ( String key : keys )
+        {
+          grouped.put( key, _report.get( key ) );
+        }
+      }
+    }
+    return grouped;
+  }
+
+  /**
+   * Returns the results in the display order of {@link #getGroupedReport()}, for the remote API.
+   */
+  @Exported( name = "benchmarks" )
+  public List<BenchmarkResult> getResults()
+  {
+    return new ArrayList<BenchmarkResult>( getGroupedReport().values() );
+  }
+
   public List<String> getHeader()
   {
     return _header;
@@ -73,7 +164,22 @@ public class BenchmarkReport implements Serializable
     return headerParams;
   }
 
-  public AbstractBuild<?, ?> getBuild()
+  /**
+   * Returns the environment the benchmarks ran on, or null if the report was recorded before environments were
+   * fingerprinted.
+   */
+  @Exported
+  public EnvironmentFingerprint getEnvironment()
+  {
+    return _environment;
+  }
+
+  public void setEnvironment( EnvironmentFingerprint environment )
+  {
+    _environment = environment;
+  }
+
+  public Run<?, ?> getBuild()
   {
     return _buildAction.getBuild();
   }
@@ -0,0 +1,317 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BenchmarkReportCodec writes a {@link BenchmarkReport} in a compact, gzip compressed binary form. Strings that repeat
+ * across benchmarks (modes, units, param names and values) are written once and then referred to by index. Strings
+ * are written as UTF-8 prefixed with their length in bytes, since a param value (e.g. a JSON document) can exceed the
+ * 64 KB limit of {@link DataOutputStream#writeUTF(String)} used by version 5 and older. Version 7 writes the version
+ * of the operating system apart from its name and architecture.
+ */
+public final class BenchmarkReportCodec
+{
+  private static final int MAGIC = 0x4a4d4852;
+  private static final int VERSION = 7;
+  private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+  private static final int NULL_STRING = -1;
+  private static final int NEW_STRING = -2;
+
+  private BenchmarkReportCodec()
+  {
+  }
+
+  public static byte[] encode( BenchmarkReport report ) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( 8 * 1024 );
+    encode( report, bytes );
+    return bytes.toByteArray();
+  }
+
+  public static BenchmarkReport decode( byte[] bytes ) throws IOException
+  {
+    return decode( new ByteArrayInputStream( bytes ) );
+  }
+
+  /**
+   * Writes the report to the given stream and closes it.
+   */
+  public static void encode( BenchmarkReport report, OutputStream stream ) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( stream ) ) );
+    try
+    {
+      Map<String, Integer> strings = new HashMap<String, Integer>();
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+
+      List<String> header = report.getHeader();
+      out.writeInt( header.size() );
+      for ( String column : header )
+      {
+        writeString( out, column, strings );
+      }
+
+      Map<String, BenchmarkResult> results = report.getReport();
+      out.writeInt( results.size() );
+      for ( Map.Entry<String, BenchmarkResult> entry : results.entrySet() )
+      {
+        writeString( out, entry.getKey(), strings );
+        writeResult( out, entry.getValue(), strings );
+      }
+      writeEnvironment( out, report.getEnvironment(), strings );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads a report from the given stream and closes it.
+   */
+  public static BenchmarkReport decode( InputStream stream ) throws IOException
+  {
+    DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( stream ) ) );
+    try
+    {
+      List<String> strings = new ArrayList<String>();
+      if ( in.readInt() != MAGIC )
+        throw new IOException( "Not a benchmark report" );
+      int version = in.readInt();
+      if ( version > VERSION )
+        throw new IOException( "Unsupported benchmark report version " + version );
+
+      BenchmarkReport report = new BenchmarkReport();
+      int columns = in.readInt();
+      List<String> header = new ArrayList<String>( columns );
+      for ( int i = 0; i < columns; i++ )
+      {
+        header.add( readString( in, version, strings ) );
+      }
+      report.setHeader( header );
+
+      int count = in.readInt();
+      for ( int i = 0; i < count; i++ )
+      {
+        String key = readString( in, version, strings );
+        report.addBenchmarkResult( key, readResult( in, version, strings ) );
+      }
+      if ( version >= 5 )
+      {
+        report.setEnvironment( readEnvironment( in, version, strings ) );
+      }
+      return report;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  private static void writeResult( DataOutputStream out, BenchmarkResult result, Map<String, Integer> strings )
+    throws IOException
+  {
+    writeString( out, result.getBenchmarkName(), strings );
+    writeString( out, result.getShortBenchmarkName(), strings );
+    writeString( out, result.getMode(), strings );
+    out.writeInt( result.getThreads() );
+    out.writeInt( result.getSamples() );
+    out.writeDouble( result.getMean() );
+    out.writeDouble( result.getMeanError() );
+    writeString( out, result.getUnit(), strings );
+    writeSamples( out, result.getRawSamples() );
+    SortedMap<Double, Double> percentiles = result.getPercentiles();
+    out.writeInt( percentiles.size() );
+    for ( Map.Entry<Double, Double> percentile : percentiles.entrySet() )
+    {
+      out.writeDouble( percentile.getKey() );
+      out.writeDouble( percentile.getValue() );
+    }
+
+    Map<String, String> params = result.getParams();
+    out.writeInt( params.size() );
+    for ( Map.Entry<String, String> param : params.entrySet() )
+    {
+      writeString( out, param.getKey(), strings );
+      writeString( out, param.getValue(), strings );
+    }
+
+    out.writeDouble( result.getMeanChangeFromPrev() );
+    out.writeDouble( result.getMeanChangeFromBaseline() );
+    out.writeDouble( result.getPValueFromPrev() );
+    out.writeDouble( result.getPValueFromBaseline() );
+    writeString( out, result.getChangeIndicator(), strings );
+  }
+
+  private static BenchmarkResult readResult( DataInputStream in, int version, List<String> strings )
+    throws IOException
+  {
+    BenchmarkResult result = new BenchmarkResult();
+    result.setBenchmarkName( readString( in, version, strings ) );
+    result.setShortBenchmarkName( readString( in, version, strings ) );
+    result.setMode( readString( in, version, strings ) );
+    result.setThreads( in.readInt() );
+    result.setSamples( in.readInt() );
+    result.setMean( in.readDouble() );
+    result.setMeanError( in.readDouble() );
+    result.setUnit( readString( in, version, strings ) );
+    if ( version >= 3 )
+    {
+      result.setRawSamples( readSamples( in ) );
+    }
+    if ( version >= 4 )
+    {
+      int percentiles = in.readInt();
+      for ( int i = 0; i < percentiles; i++ )
+      {
+        result.addPercentile( in.readDouble(), in.readDouble() );
+      }
+    }
+
+    int params = in.readInt();
+    for ( int i = 0; i < params; i++ )
+    {
+      result.addParams( readString( in, version, strings ), readString( in, version, strings ) );
+    }
+
+    result.setMeanChangeFromPrev( in.readDouble() );
+    result.setMeanChangeFromBaseline( in.readDouble() );
+    if ( version >= 2 )
+    {
+      result.setPValueFromPrev( in.readDouble() );
+      result.setPValueFromBaseline( in.readDouble() );
+    }
+    result.setChangeIndicator( readString( in, version, strings ) );
+    return result;
+  }
+
+  private static void writeEnvironment( DataOutputStream out, EnvironmentFingerprint environment,
+                                        Map<String, Integer> strings )
+    throws IOException
+  {
+    out.writeBoolean( environment != null );
+    if ( environment == null )
+      return;
+
+    writeString( out, environment.getJvmVersion(), strings );
+    writeString( out, environment.getJvmName(), strings );
+    writeString( out, environment.getJvmArgs(), strings );
+    writeString( out, environment.getCpuModel(), strings );
+    out.writeInt( environment.getProcessors() );
+    writeString( out, environment.getOs(), strings );
+    writeString( out, environment.getOsVersion(), strings );
+  }
+
+  private static EnvironmentFingerprint readEnvironment( DataInputStream in, int version, List<String> strings )
+    throws IOException
+  {
+    if ( !in.readBoolean() )
+      return null;
+
+    String jvmVersion = readString( in, version, strings );
+    String jvmName = readString( in, version, strings );
+    String jvmArgs = readString( in, version, strings );
+    String cpuModel = readString( in, version, strings );
+    int processors = in.readInt();
+    String os = readString( in, version, strings );
+    if ( version < 7 )
+      return EnvironmentFingerprint.ofLegacyOs( jvmVersion, jvmName, jvmArgs, cpuModel, processors, os );
+
+    return new EnvironmentFingerprint( jvmVersion, jvmName, jvmArgs, cpuModel, processors, os,
+                                       readString( in, version, strings ) );
+  }
+
+  private static void writeSamples( DataOutputStream out, double[] samples ) throws IOException
+  {
+    if ( samples == null )
+    {
+      out.writeInt( -1 );
+      return;
+    }
+
+    out.writeInt( samples.length );
+    for ( double sample : samples )
+    {
+      out.writeDouble( sample );
+    }
+  }
+
+  private static double[] readSamples( DataInputStream in ) throws IOException
+  {
+    int count = in.readInt();
+    if ( count < 0 )
+      return null;
+
+    double[] samples = new double[ count ];
+    for ( int i = 0; i < count; i++ )
+    {
+      samples[ i ] = in.readDouble();
+    }
+    return samples;
+  }
+
+  private static void writeString( DataOutputStream out, String value, Map<String, Integer> strings )
+    throws IOException
+  {
+    if ( value == null )
+    {
+      out.writeInt( NULL_STRING );
+      return;
+    }
+
+    Integer index = strings.get( value );
+    if ( index != null )
+    {
+      out.writeInt( index );
+      return;
+    }
+
+    strings.put( value, strings.size() );
+    out.writeInt( NEW_STRING );
+    byte[] bytes = value.getBytes( UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readString( DataInputStream in, int version, List<String> strings ) throws IOException
+  {
+    int index = in.readInt();
+    if ( index == NULL_STRING )
+      return null;
+
+    if ( index == NEW_STRING )
+    {
+      String value;
+      if ( version >= 6 )
+      {
+        byte[] bytes = new byte[ in.readInt() ];
+        in.readFully( bytes );
+        value = new String( bytes, UTF_8 );
+      }
+      else
+      {
+        value = in.readUTF();
+      }
+      strings.add( value );
+      return value;
+    }
+    return strings.get( index );
+  }
+}
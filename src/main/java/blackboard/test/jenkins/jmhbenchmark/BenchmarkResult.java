@@ -1,17 +1,54 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 /**
  * BenchmarkResult contains properties associated with a JMH benchmark such as name of the benchmark, mode the benchmark is run, 
  * number of threads, samples, mean, mean error, unit, list of parameters if any. Since the benchmark is also expected to run in 
  * a Continuous Integration, BenchmarkResult also contains data on the percentage change of the benchmark score from previous 
  * builds and from a baseline build.
+ * <p/>
+ * Profilers such as <tt>-prof gc</tt> add secondary metrics to a benchmark. JMH names them after the benchmark, e.g.
+ * <tt>org.sample.MyBenchmark.test:&#183;gc.alloc.rate.norm</tt>; such a result is keyed next to its primary result
+ * (see {@link #getKey()}).
+ * <p/>
+ * In the sample mode, JMH also reports the distribution of the samples as percentiles (p50, p90, p99, ..., max), which
+ * are kept with the result.
+ * <p/>
+ * Results are exported through the remote API of the build report; scores that aren't known (NaN) are left out. The
+ * params are exported as a list of {@link Param}s, since their names (e.g. <tt>Param: size</tt>) aren't valid XML
+ * element names.
  *
  */
+@ExportedBean( defaultVisibility = 3 )
 public class BenchmarkResult
 {
+  private static final char SECONDARY_METRIC_SEPARATOR = ':';
+  // JMH starts the names of the metrics of its profilers with a middle dot
+  private static final char PROFILER_METRIC_PREFIX = '\u00b7';
+  // the CSV output has a row per percentile, e.g. "test:test\u00b7p0.99" or "test:\u00b7p0.99"
+  private static final Pattern PERCENTILE_METRIC = Pattern.compile( "(?:.*\u00b7)?p([01](?:\\.\\d+)?)" );
+  private static final SortedMap<Double, Double> NO_PERCENTILES =
+    Collections.unmodifiableSortedMap( new TreeMap<Double, Double>() );
+
+  /**
+   * The percentiles kept in the project's trend and that can be gated on.
+   */
+  static final double[] TRACKED_PERCENTILES = { 50, 90, 99, 99.9, 99.99, 100 };
+
   private String _benchmarkName;
   private String _shortBenchmarkName;
   private String _mode;
@@ -23,6 +60,10 @@ public class BenchmarkResult
   private Map<String, String> _params;
   private double _meanChangeFromPrev;
   private double _meanChangeFromBaseline;
+  private double[] _rawSamples;
+  private SortedMap<Double, Double> _percentiles;
+  private Double _pValueFromPrev;
+  private Double _pValueFromBaseline;
   private String _changeIndicator;
 
   public BenchmarkResult()
@@ -31,6 +72,7 @@ public class BenchmarkResult
     _changeIndicator = "";
   }
 
+  @Exported
   public String getBenchmarkName()
   {
     return _benchmarkName;
@@ -41,6 +83,7 @@ public class BenchmarkResult
     _benchmarkName = benchmarkName;
   }
 
+  @Exported
   public String getShortBenchmarkName()
   {
     return _shortBenchmarkName;
@@ -51,6 +94,7 @@ public class BenchmarkResult
     _shortBenchmarkName = shortBenchmarkName;
   }
 
+  @Exported
   public String getMode()
   {
     return _mode;
@@ -61,6 +105,7 @@ public class BenchmarkResult
     _mode = mode;
   }
 
+  @Exported
   public int getThreads()
   {
     return _threads;
@@ -71,6 +116,7 @@ public class BenchmarkResult
     _threads = threads;
   }
 
+  @Exported
   public int getSamples()
   {
     return _samples;
@@ -101,6 +147,55 @@ public class BenchmarkResult
     _meanError = meanError;
   }
 
+  /**
+   * Returns the score of each measurement iteration, or null if the result file didn't include them (e.g. CSV).
+   */
+  public double[] getRawSamples()
+  {
+    return _rawSamples;
+  }
+
+  public void setRawSamples( double[] rawSamples )
+  {
+    _rawSamples = rawSamples;
+  }
+
+  /**
+   * Returns the score at each percentile of the samples (e.g. 99.9 for p99.9, 100 for the maximum) in ascending order
+   * of percentile. Only the sample mode reports percentiles, the map is empty otherwise.
+   */
+  public SortedMap<Double, Double> getPercentiles()
+  {
+    if ( _percentiles == null )
+      return NO_PERCENTILES;
+
+    return Collections.unmodifiableSortedMap( _percentiles );
+  }
+
+  /**
+   * Returns the score at the given percentile, or NaN if it wasn't reported.
+   */
+  public double getPercentile( double percentile )
+  {
+    Double score = _percentiles == null ? null : _percentiles.get( percentile );
+    return score == null ? Double.NaN : score;
+  }
+
+  void clearPercentiles()
+  {
+    _percentiles = null;
+  }
+
+  public void addPercentile( double percentile, double score )
+  {
+    if ( _percentiles == null )
+    {
+      _percentiles = new TreeMap<Double, Double>();
+    }
+    _percentiles.put( percentile, score );
+  }
+
+  @Exported
   public String getUnit()
   {
     return _unit;
@@ -121,6 +216,7 @@ public class BenchmarkResult
     _params.put( paramName, paramValue );
   }
 
+  @Exported
   public double getMeanChangeFromPrev()
   {
     return _meanChangeFromPrev;
@@ -131,6 +227,7 @@ public class BenchmarkResult
     _meanChangeFromPrev = meanChangeFromPrev;
   }
 
+  @Exported
   public double getMeanChangeFromBaseline()
   {
     return _meanChangeFromBaseline;
@@ -141,6 +238,33 @@ public class BenchmarkResult
     _meanChangeFromBaseline = meanChangeFromBaseline;
   }
   
+  /**
+   * Returns the p-value of the significance test against the previous build, or NaN if it wasn't computed.
+   */
+  public double getPValueFromPrev()
+  {
+    return _pValueFromPrev == null ? Double.NaN : _pValueFromPrev;
+  }
+
+  public void setPValueFromPrev( double pValueFromPrev )
+  {
+    _pValueFromPrev = pValueFromPrev;
+  }
+
+  /**
+   * Returns the p-value of the significance test against the baseline build, or NaN if it wasn't computed.
+   */
+  public double getPValueFromBaseline()
+  {
+    return _pValueFromBaseline == null ? Double.NaN : _pValueFromBaseline;
+  }
+
+  public void setPValueFromBaseline( double pValueFromBaseline )
+  {
+    _pValueFromBaseline = pValueFromBaseline;
+  }
+
+  @Exported
   public String getChangeIndicator()
   {
     return _changeIndicator;
@@ -151,10 +275,39 @@ public class BenchmarkResult
     _changeIndicator = changeIndicator;
   }
 
-  public String getKey()
+  /**
+   * Returns the name of the secondary metric of this result without the leading middle dot (e.g.
+   * <tt>gc.alloc.rate.norm</tt>), or null if this is the primary result of the benchmark.
+   */
+  @Exported
+  public String getSecondaryMetric()
+  {
+    int separator = _benchmarkName == null ? -1 : _benchmarkName.indexOf( SECONDARY_METRIC_SEPARATOR );
+    if ( separator < 0 )
+      return null;
+
+    return getMetricName( _benchmarkName.substring( separator + 1 ) );
+  }
+
+  public boolean isSecondary()
   {
+    return getSecondaryMetric() != null;
+  }
+
+  /**
+   * Returns the key of the primary result of the benchmark: the short name followed by the parameter values.
+   */
+  public String getPrimaryKey()
+  {
+    String shortName = _shortBenchmarkName;
+    int separator = shortName == null ? -1 : shortName.indexOf( SECONDARY_METRIC_SEPARATOR );
+    if ( separator >= 0 )
+    {
+      shortName = shortName.substring( 0, separator );
+    }
+
     StringBuilder sb = new StringBuilder( 100 );
-    sb.append( _shortBenchmarkName );
+    sb.append( shortName );
     for ( Map.Entry<String, String> entry : _params.entrySet() )
     {
       if ( !entry.getValue().equals( "" ) )
@@ -165,4 +318,147 @@ public class BenchmarkResult
     }
     return sb.toString();
   }
+
+  /**
+   * Returns the key of this result: the key of the primary result, followed by the name of the secondary metric for a
+   * secondary result, so that secondary results sort right after their primary result.
+   */
+  @Exported
+  public String getKey()
+  {
+    String metric = getSecondaryMetric();
+    if ( metric == null )
+      return getPrimaryKey();
+
+    return getPrimaryKey() + SECONDARY_METRIC_SEPARATOR + metric;
+  }
+
+  @Exported( name = "mean" )
+  public Double getExportedMean()
+  {
+    return toExported( _mean );
+  }
+
+  @Exported( name = "meanError" )
+  public Double getExportedMeanError()
+  {
+    return toExported( _meanError );
+  }
+
+  @Exported( name = "pValueFromPrev" )
+  public Double getExportedPValueFromPrev()
+  {
+    return toExported( getPValueFromPrev() );
+  }
+
+  @Exported( name = "pValueFromBaseline" )
+  public Double getExportedPValueFromBaseline()
+  {
+    return toExported( getPValueFromBaseline() );
+  }
+
+  @Exported( name = "params" )
+  public List<Param> getExportedParams()
+  {
+    return toExported( _params );
+  }
+
+  /**
+   * Returns the params sorted by name, for the remote API.
+   */
+  static List<Param> toExported( Map<String, String> params )
+  {
+    List<Param> exported = new ArrayList<Param>( params.size() );
+    for ( Map.Entry<String, String> entry : new TreeMap<String, String>( params ).entrySet() )
+    {
+      exported.add( new Param( entry.getKey(), entry.getValue() ) );
+    }
+    return exported;
+  }
+
+  /**
+   * Returns the score at each percentile keyed by label (e.g. <tt>p99.9</tt>), for the remote API.
+   */
+  @Exported( name = "percentiles" )
+  public Map<String, Double> getExportedPercentiles()
+  {
+    Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+    for ( Map.Entry<Double, Double> entry : getPercentiles().entrySet() )
+    {
+      percentiles.put( getPercentileLabel( entry.getKey() ), toExported( entry.getValue() ) );
+    }
+    return percentiles;
+  }
+
+  /**
+   * Returns null for NaN and infinities, which the JSON of the remote API can't represent, so that they are left out.
+   */
+  static Double toExported( double value )
+  {
+    return Double.isNaN( value ) || Double.isInfinite( value ) ? null : value;
+  }
+
+  /**
+   * Returns the label of a percentile, e.g. <tt>p99.9</tt>.
+   */
+  static String getPercentileLabel( double percentile )
+  {
+    if ( percentile == Math.rint( percentile ) )
+      return "p" + (long) percentile;
+
+    return "p" + BigDecimal.valueOf( percentile ).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Returns the percentile a secondary metric of the CSV output stands for, e.g. 99.9 for <tt>test&#183;p0.999</tt>, or
+   * NaN if the metric isn't a percentile.
+   */
+  static double getPercentileOfMetric( String metric )
+  {
+    Matcher matcher = PERCENTILE_METRIC.matcher( metric );
+    if ( !matcher.matches() )
+      return Double.NaN;
+
+    // 0.999 * 100 isn't exactly 99.9 in floating point
+    return new BigDecimal( matcher.group( 1 ) ).movePointRight( 2 ).doubleValue();
+  }
+
+  /**
+   * Strips the middle dot JMH puts in front of the metrics of its profilers.
+   */
+  static String getMetricName( String metric )
+  {
+    if ( metric.length() > 0 && metric.charAt( 0 ) == PROFILER_METRIC_PREFIX )
+      return metric.substring( 1 );
+
+    return metric;
+  }
+
+  /**
+   * A param of a benchmark, as named in the header of the result file, for the remote API.
+   */
+  @ExportedBean( defaultVisibility = 4 )
+  public static final class Param
+  {
+    private final String _name;
+    private final String _value;
+
+    Param( String name, String value )
+    {
+      _name = name;
+      _value = value;
+    }
+
+    @Exported
+    public String getName()
+    {
+      return _name;
+    }
+
+    @Exported
+    public String getValue()
+    {
+      return _value;
+    }
+  }
 }
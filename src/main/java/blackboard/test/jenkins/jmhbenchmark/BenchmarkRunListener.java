@@ -0,0 +1,37 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BenchmarkRunListener removes deleted builds from the project's {@link BenchmarkTrendStore} so that the trend only
+ * shows the retained builds.
+ */
+@Extension
+public class BenchmarkRunListener extends RunListener<Run<?, ?>>
+{
+  private static final Logger LOGGER = Logger.getLogger( BenchmarkRunListener.class.getName() );
+
+  @Override
+  public void onDeleted( Run<?, ?> build )
+  {
+    // projects that never published a benchmark report don't have a trend
+    if ( build.getAction( BenchmarkBuildAction.class ) == null || !BenchmarkTrendStore.exists( build.getParent() ) )
+      return;
+
+    try
+    {
+      BenchmarkTrendStore.forProject( build.getParent() ).remove( build.getNumber() );
+      TrendGraphCache.getInstance().invalidate( build.getParent().getFullName() );
+    }
+    catch ( IOException ex )
+    {
+      LOGGER.log( Level.WARNING, "Failed to remove " + build + " from the benchmark trend", ex );
+    }
+  }
+}
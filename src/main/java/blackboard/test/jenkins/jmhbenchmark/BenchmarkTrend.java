@@ -1,83 +1,268 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
-import hudson.util.ChartUtil.NumberOnlyBuildLabel;
-
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 /**
- *  BenchmarkTrend contains the score and score error of a benchmark over a set of past builds.
+ *  BenchmarkTrend contains the score and score error of a benchmark over a set of past builds, in sorted maps keyed by
+ *  build number.
+ *  A BenchmarkTrend is immutable so that it can be shared between concurrent requests. It is exported through the
+ *  remote API of the project's trend, without the builds whose score is unknown (NaN). The maps keyed by build number
+ *  are exported as lists of {@link Point}s, since a build number isn't a valid XML element name.
  *
  */
-public class BenchmarkTrend
+@ExportedBean( defaultVisibility = 2 )
+public final class BenchmarkTrend
 {
-  private String _benchmarkName;
-  private String _mode;
-  private int _threads;
-  private int _samples;
-  private String _unit;
-  private Map<NumberOnlyBuildLabel, Double> _meanTrend;
-  private Map<NumberOnlyBuildLabel, Double> _meanErrorTrend;
-
-  public BenchmarkTrend()
-  {
-    _meanTrend = new HashMap<NumberOnlyBuildLabel, Double>();
-    _meanErrorTrend = new HashMap<NumberOnlyBuildLabel, Double>();
-  }
+  private final String _key;
+  private final String _benchmarkName;
+  private final String _mode;
+  private final int _threads;
+  private final int _samples;
+  private final String _unit;
+  private final int _lastBuildNumber;
+  private final Map<Integer, Double> _meanTrend;
+  private final Map<Integer, Double> _meanErrorTrend;
+  private final Map<Integer, Double> _changePoints;
+  private final Map<String, Map<Integer, Double>> _percentileTrends;
 
-  public BenchmarkTrend( String benchmarkName, String mode, int threads, int samples, String unit )
+  /**
+   * Creates the trend of the first <tt>size</tt> builds of the given columns. The build numbers are expected in 
+   * ascending order, with the score and score error of each build at the same index. The change points are the builds
+   * where a persistent shift of the score began, with the shift in percent at the same index. The percentiles, if not
+   * null, hold a column per percentile of {@link BenchmarkResult#TRACKED_PERCENTILES}, NaN for the builds that didn't
+   * report it.
+   */
+  public BenchmarkTrend( String key, String benchmarkName, String mode, int threads, int samples, String unit,
+                         int[] buildNumbers, double[] means, double[] meanErrors, int size, int[] changePoints,
+                         double[] shifts, double[][] percentiles )
   {
+    _key = key;
     _benchmarkName = benchmarkName;
     _mode = mode;
     _threads = threads;
     _samples = samples;
     _unit = unit;
-    _meanTrend = new HashMap<NumberOnlyBuildLabel, Double>();
-    _meanErrorTrend = new HashMap<NumberOnlyBuildLabel, Double>();
+    _lastBuildNumber = size == 0 ? 0 : buildNumbers[ size - 1 ];
+
+    SortedMap<Integer, Double> meanTrend = new TreeMap<Integer, Double>();
+    SortedMap<Integer, Double> meanErrorTrend = new TreeMap<Integer, Double>();
+    for ( int i = 0; i < size; i++ )
+    {
+      meanTrend.put( buildNumbers[ i ], means[ i ] );
+      meanErrorTrend.put( buildNumbers[ i ], meanErrors[ i ] );
+    }
+    _meanTrend = Collections.unmodifiableSortedMap( meanTrend );
+    _meanErrorTrend = Collections.unmodifiableSortedMap( meanErrorTrend );
+
+    SortedMap<Integer, Double> changePointShifts = new TreeMap<Integer, Double>();
+    for ( int i = 0; i < changePoints.length; i++ )
+    {
+      changePointShifts.put( changePoints[ i ], shifts[ i ] );
+    }
+    _changePoints = Collections.unmodifiableSortedMap( changePointShifts );
+
+    Map<String, Map<Integer, Double>> percentileTrends = new LinkedHashMap<String, Map<Integer, Double>>();
+    for ( int column = 0; percentiles != null && column < percentiles.length; column++ )
+    {
+      SortedMap<Integer, Double> percentileTrend = new TreeMap<Integer, Double>();
+      for ( int i = 0; i < size; i++ )
+      {
+        if ( !Double.isNaN( percentiles[ column ][ i ] ) )
+        {
+          percentileTrend.put( buildNumbers[ i ], percentiles[ column ][ i ] );
+        }
+      }
+      if ( !percentileTrend.isEmpty() )
+      {
+        String label = BenchmarkResult.getPercentileLabel( BenchmarkResult.TRACKED_PERCENTILES[ column ] );
+        percentileTrends.put( label, Collections.unmodifiableSortedMap( percentileTrend ) );
+      }
+    }
+    _percentileTrends = Collections.unmodifiableMap( percentileTrends );
+  }
+
+  /**
+   * Returns the key of the benchmark in the report, e.g. <tt>o.o.j.MyBenchmark.test:100</tt>.
+   */
+  @Exported
+  public String getKey()
+  {
+    return _key;
   }
 
+  @Exported
   public String getBenchmarkName()
   {
     return _benchmarkName;
   }
 
+  @Exported
   public String getMode()
   {
     return _mode;
   }
 
+  @Exported
   public int getThreads()
   {
     return _threads;
   }
 
+  @Exported
   public int getSamples()
   {
     return _samples;
   }
 
+  @Exported
   public String getUnit()
   {
     return _unit;
   }
 
-  public Map<NumberOnlyBuildLabel, Double> getMeanTrend()
+  /**
+   * Returns the number of the latest build in this trend or 0 if the trend is empty.
+   */
+  @Exported
+  public int getLastBuildNumber()
+  {
+    return _lastBuildNumber;
+  }
+
+  public Map<Integer, Double> getMeanTrend()
   {
     return _meanTrend;
   }
 
-  public Map<NumberOnlyBuildLabel, Double> getMeanErrorTrend()
+  public Map<Integer, Double> getMeanErrorTrend()
   {
     return _meanErrorTrend;
   }
 
-  public void addMeanTrend( NumberOnlyBuildLabel buildNo, Double value )
+  /**
+   * Returns the trend of each tracked percentile of a sample mode benchmark, keyed by label (e.g. <tt>p99</tt>) in
+   * ascending order of percentile. Empty for the other modes.
+   */
+  public Map<String, Map<Integer, Double>> getPercentileTrends()
+  {
+    return _percentileTrends;
+  }
+
+  /**
+   * Returns the builds where a persistent shift of the score began, with the shift in percent of the score before it.
+   */
+  public Map<Integer, Double> getChangePoints()
   {
-    _meanTrend.put( buildNo, value );
+    return _changePoints;
   }
 
-  public void addMeanErrorTrend( NumberOnlyBuildLabel buildNo, Double value )
+  @Exported( name = "scores" )
+  public List<Point> getExportedMeanTrend()
   {
-    _meanErrorTrend.put( buildNo, value );
+    return toPoints( _meanTrend );
+  }
+
+  @Exported( name = "errors" )
+  public List<Point> getExportedMeanErrorTrend()
+  {
+    return toPoints( _meanErrorTrend );
+  }
+
+  /**
+   * Returns the change points, with the shift in percent as the value of each point.
+   */
+  @Exported( name = "changePoints" )
+  public List<Point> getExportedChangePoints()
+  {
+    return toPoints( _changePoints );
+  }
+
+  @Exported( name = "percentiles" )
+  public List<PercentileTrend> getExportedPercentileTrends()
+  {
+    List<PercentileTrend> trends = new ArrayList<PercentileTrend>( _percentileTrends.size() );
+    for ( Map.Entry<String, Map<Integer, Double>> entry : _percentileTrends.entrySet() )
+    {
+      trends.add( new PercentileTrend( entry.getKey(), toPoints( entry.getValue() ) ) );
+    }
+    return trends;
+  }
+
+  private static List<Point> toPoints( Map<Integer, Double> trend )
+  {
+    List<Point> points = new ArrayList<Point>( trend.size() );
+    for ( Map.Entry<Integer, Double> entry : trend.entrySet() )
+    {
+      if ( !entry.getValue().isNaN() && !entry.getValue().isInfinite() )
+      {
+        points.add( new Point( entry.getKey(), entry.getValue() ) );
+      }
+    }
+    return points;
+  }
+
+  /**
+   * The value of a trend at a build, for the remote API.
+   */
+  @ExportedBean( defaultVisibility = 4 )
+  public static final class Point
+  {
+    private final int _build;
+    private final double _value;
+
+    Point( int build, double value )
+    {
+      _build = build;
+      _value = value;
+    }
+
+    @Exported
+    public int getBuild()
+    {
+      return _build;
+    }
+
+    @Exported
+    public double getValue()
+    {
+      return _value;
+    }
+  }
+
+  /**
+   * The trend of a percentile (e.g. <tt>p99</tt>) of a sample mode benchmark, for the remote API.
+   */
+  @ExportedBean( defaultVisibility = 3 )
+  public static final class PercentileTrend
+  {
+    private final String _percentile;
+    private final List<Point> _points;
+
+    PercentileTrend( String percentile, List<Point> points )
+    {
+      _percentile = percentile;
+      _points = points;
+    }
+
+    @Exported
+    public String getPercentile()
+    {
+      return _percentile;
+    }
+
+    @Exported
+    public List<Point> getPoints()
+    {
+      return _points;
+    }
   }
 }
@@ -0,0 +1,1013 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BenchmarkTrendStore keeps the score and score error of every benchmark published in a project so that the trend
+ * page never has to load the build records. The data is kept in a file under the job directory and mirrored in memory
+ * as one column of build numbers, scores and score errors per benchmark.
+ * <p/>
+ * The file is an append-only log of records: a series record defines a benchmark configuration (key, mode, threads,
+ * samples, unit), a build record holds the scores of every series published by one build and a delete record removes
+ * a build. {@link BenchmarkPublisher} appends a build record after each build and {@link BenchmarkRunListener} appends
+ * a delete record when a build is deleted. The log is compacted once deleted builds outnumber the retained ones.
+ * <p/>
+ * If the file does not exist yet (i.e. the project was built with an older version of the plugin), it is rebuilt once
+ * from the build history.
+ * <p/>
+ * Each series runs a {@link ChangePointDetector} over its scores as they are added. Change points are not stored in the
+ * file: they are found again while the file is read, since the builds are replayed in order. A {@link RollingBaseline}
+ * is computed on request from the latest scores of each series, so callers asking for different numbers of builds
+ * don't affect each other.
+ * <p/>
+ * The series of a sample mode benchmark also hold a column per tracked percentile
+ * ({@link BenchmarkResult#TRACKED_PERCENTILES}). Files written before percentiles were tracked (version 1) are read
+ * and rewritten in the current format.
+ * <p/>
+ * A series is also bound to the {@link EnvironmentFingerprint} of its builds, so that the trend, the change points
+ * and the rolling baseline of a benchmark only span builds run on the same environment. The series of builds recorded
+ * before environments were fingerprinted (version 2 and older) is continued by the first environment that publishes
+ * the benchmark, and is redefined with that environment in the file. The environments of files written by versions 3
+ * and 4 included the version of the operating system, so that every kernel patch started new series: these files are
+ * rebuilt from the build history.
+ * <p/>
+ * The strings of a series record are written as UTF-8 prefixed with their length in bytes, since the key of a
+ * benchmark holds its param values, which can exceed the 64 KB limit of {@link DataOutputStream#writeUTF(String)} used
+ * by version 3 and older.
+ * <p/>
+ * The loaded stores are softly referenced per trend file: a store nobody uses is dropped when memory runs low and read
+ * again from its file when it is next requested. {@link BenchmarkItemListener} evicts the store of a project when the
+ * project, or a folder holding it, is deleted, renamed or moved.
+ */
+public class BenchmarkTrendStore
+{
+  private static final Logger LOGGER = Logger.getLogger( BenchmarkTrendStore.class.getName() );
+
+  private static final String TREND_FILE_NAME = "jmh_benchmark_trend.dat";
+  private static final int MAGIC = 0x4a4d4854;
+  private static final int VERSION = 5;
+  private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+  private static final byte SERIES_RECORD = 'S';
+  private static final byte BUILD_RECORD = 'B';
+  private static final byte DELETE_RECORD = 'D';
+
+  private static final Map<File, SoftReference<BenchmarkTrendStore>> STORES =
+    new HashMap<File, SoftReference<BenchmarkTrendStore>>();
+
+  private final File _file;
+  private final List<Series> _series = new ArrayList<Series>();
+  private final Map<String, Series> _seriesByConfig = new HashMap<String, Series>();
+  private final TreeSet<Integer> _builds = new TreeSet<Integer>();
+  private final List<Series> _redefinedSeries = new ArrayList<Series>();
+  private final AtomicReference<TrendSnapshot> _snapshot = new AtomicReference<TrendSnapshot>();
+  private final ReentrantLock _snapshotLock = new ReentrantLock();
+  private int _deletedBuilds;
+  private volatile boolean _loaded;
+  private volatile long _version;
+  private long _lastModified;
+
+  BenchmarkTrendStore( File file )
+  {
+    _file = file;
+  }
+
+  /**
+   * Returns the trend store of the given project, rebuilding it from the build history if it doesn't exist yet.
+   */
+  public static BenchmarkTrendStore forProject( Job<?, ?> project )
+  {
+    File file = getTrendFile( project );
+    BenchmarkTrendStore store;
+    synchronized ( STORES )
+    {
+      SoftReference<BenchmarkTrendStore> reference = STORES.get( file );
+      store = reference == null ? null : reference.get();
+      if ( store == null )
+      {
+        // a store is only collected once nobody uses it, so there is never more than one store per file
+        purgeCollected();
+        store = new BenchmarkTrendStore( file );
+        STORES.put( file, new SoftReference<BenchmarkTrendStore>( store ) );
+      }
+    }
+    store.ensureLoaded( project );
+    return store;
+  }
+
+  /**
+   * Forgets the stores of the projects in the given directory, i.e. of a deleted project or of the projects of a
+   * deleted folder.
+   */
+  static void evict( File directory )
+  {
+    String prefix = directory.getPath() + File.separator;
+    synchronized ( STORES )
+    {
+      for ( Iterator<File> files = STORES.keySet().iterator(); files.hasNext(); )
+      {
+        if ( files.next().getPath().startsWith( prefix ) )
+        {
+          files.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets the stores of the projects whose directory is gone, i.e. of the projects renamed or moved away. Their new
+   * location gets a store of its own when it is first requested.
+   */
+  static void evictMissing()
+  {
+    synchronized ( STORES )
+    {
+      for ( Iterator<File> files = STORES.keySet().iterator(); files.hasNext(); )
+      {
+        if ( !files.next().getParentFile().isDirectory() )
+        {
+          files.remove();
+        }
+      }
+    }
+  }
+
+  private static void purgeCollected()
+  {
+    for ( Iterator<SoftReference<BenchmarkTrendStore>> stores = STORES.values().iterator(); stores.hasNext(); )
+    {
+      if ( stores.next().get() == null )
+      {
+        stores.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns whether a trend store has been created for the given project.
+   */
+  public static boolean exists( Job<?, ?> project )
+  {
+    return getTrendFile( project ).exists();
+  }
+
+  private static File getTrendFile( Job<?, ?> project )
+  {
+    return new File( project.getRootDir(), TREND_FILE_NAME );
+  }
+
+  private void ensureLoaded( Job<?, ?> project )
+  {
+    if ( _loaded )
+      return;
+
+    synchronized ( this )
+    {
+      if ( _loaded )
+        return;
+
+      if ( _file.exists() )
+      {
+        try
+        {
+          if ( load() )
+          {
+            _lastModified = _file.lastModified();
+            _loaded = true;
+            return;
+          }
+        }
+        catch ( IOException ex )
+        {
+          LOGGER.log( Level.WARNING, "Failed to read the benchmark trend " + _file + ", rebuilding it", ex );
+        }
+      }
+      rebuild( project );
+      _lastModified = System.currentTimeMillis();
+      _loaded = true;
+    }
+  }
+
+  /**
+   * Reads the trend file into memory. A truncated last record (e.g. after a crash in the middle of an append) is
+   * dropped by compacting the file.
+   *
+   * @return false if the file was written in an unknown format, or in one that is rebuilt
+   */
+  boolean load() throws IOException
+  {
+    clear();
+    boolean truncated = false;
+    boolean outdated = false;
+    DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( _file ) ) );
+    try
+    {
+      if ( in.readInt() != MAGIC )
+        return false;
+
+      int version = in.readInt();
+      if ( version < 1 || version > VERSION )
+        return false;
+      if ( version == 3 || version == 4 )
+      {
+        LOGGER.info( "Benchmark trend " + _file + " identifies environments by their OS version, rebuilding it" );
+        return false;
+      }
+
+      outdated = version < VERSION;
+
+      while ( true )
+      {
+        int recordType = in.read();
+        if ( recordType == -1 )
+          break;
+
+        if ( recordType == SERIES_RECORD )
+        {
+          Series series = new Series( in.readInt(), readString( in, version ), readString( in, version ),
+                                      readString( in, version ), in.readInt(), in.readInt(),
+                                      readString( in, version ), version >= 3 ? readString( in, version ) : "" );
+          if ( series._id < _series.size() )
+          {
+            // a series continued by another environment
+            setEnvironment( _series.get( series._id ), series._environment );
+          }
+          else
+          {
+            addSeries( series );
+          }
+        }
+        else if ( recordType == BUILD_RECORD )
+        {
+          int buildNumber = in.readInt();
+          int count = in.readInt();
+          int[] ids = new int[ count ];
+          double[] means = new double[ count ];
+          double[] errors = new double[ count ];
+          double[][] percentiles = new double[ count ][];
+          for ( int i = 0; i < count; i++ )
+          {
+            ids[ i ] = in.readInt();
+            means[ i ] = in.readDouble();
+            errors[ i ] = in.readDouble();
+            if ( version >= 2 )
+            {
+              percentiles[ i ] = readPercentiles( in );
+            }
+          }
+          removeBuild( buildNumber );
+          for ( int i = 0; i < count; i++ )
+          {
+            _series.get( ids[ i ] ).put( buildNumber, means[ i ], errors[ i ], percentiles[ i ] );
+          }
+          _builds.add( buildNumber );
+        }
+        else if ( recordType == DELETE_RECORD )
+        {
+          removeBuild( in.readInt() );
+          _deletedBuilds++;
+        }
+        else
+        {
+          throw new IOException( "Unknown record type " + recordType + " in " + _file );
+        }
+      }
+    }
+    catch ( EOFException ex )
+    {
+      truncated = true;
+    }
+    finally
+    {
+      in.close();
+    }
+
+    if ( truncated )
+    {
+      LOGGER.warning( "Benchmark trend " + _file + " ends with an incomplete record, compacting it" );
+      compact();
+    }
+    else if ( outdated )
+    {
+      // builds are appended in the current format only
+      compact();
+    }
+    return true;
+  }
+
+  /**
+   * Recreates the trend from the benchmark reports attached to the builds of the project. This is done once per
+   * project, when the trend file is missing or unreadable. The reports are only read: builds recorded by older versions
+   * of the plugin are neither migrated nor saved.
+   */
+  private void rebuild( Job<?, ?> project )
+  {
+    clear();
+    List<? extends Run<?, ?>> builds = project.getBuilds();
+    for ( int i = builds.size() - 1; i >= 0; i-- )
+    {
+      Run<?, ?> build = builds.get( i );
+      BenchmarkBuildAction buildAction = build.getAction( BenchmarkBuildAction.class );
+      if ( buildAction == null )
+        continue;
+
+      BenchmarkReport report = buildAction.readPerformanceReport();
+      if ( report != null )
+      {
+        putBuild( build.getNumber(), report.getReport(), getEnvironmentId( report.getEnvironment() ), null );
+      }
+    }
+
+    try
+    {
+      compact();
+    }
+    catch ( IOException ex )
+    {
+      LOGGER.log( Level.WARNING, "Failed to write the benchmark trend " + _file, ex );
+    }
+  }
+
+  /**
+   * Adds the benchmark results of a build to the trend. If the build was already recorded, its results are replaced.
+   *
+   * @return the build where a persistent shift began, keyed by benchmark, for each shift detected with this build
+   */
+  public synchronized Map<String, Integer> append( int buildNumber, BenchmarkReport report ) throws IOException
+  {
+    int firstNewSeries = _series.size();
+    Map<String, Integer> changePoints = new TreeMap<String, Integer>();
+    List<Series> buildSeries =
+      putBuild( buildNumber, report.getReport(), getEnvironmentId( report.getEnvironment() ), changePoints );
+    modified();
+    if ( !_file.exists() )
+    {
+      compact();
+      return changePoints;
+    }
+
+    DataOutputStream out = openForAppend();
+    try
+    {
+      for ( int i = firstNewSeries; i < _series.size(); i++ )
+      {
+        writeSeries( out, _series.get( i ) );
+      }
+      for ( Series series : _redefinedSeries )
+      {
+        if ( series._id < firstNewSeries )
+        {
+          writeSeries( out, series );
+        }
+      }
+      writeBuild( out, buildNumber, buildSeries );
+    }
+    finally
+    {
+      out.close();
+      _redefinedSeries.clear();
+    }
+    return changePoints;
+  }
+
+  /**
+   * Removes a deleted build from the trend.
+   */
+  public synchronized void remove( int buildNumber ) throws IOException
+  {
+    if ( !removeBuild( buildNumber ) )
+      return;
+
+    modified();
+    _deletedBuilds++;
+    if ( _deletedBuilds > _builds.size() || !_file.exists() )
+    {
+      compact();
+      return;
+    }
+
+    DataOutputStream out = openForAppend();
+    try
+    {
+      out.writeByte( DELETE_RECORD );
+      out.writeInt( buildNumber );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the current trend of the project. Snapshots are immutable and replaced atomically once a build was added
+   * or removed; while a new snapshot is being computed, other requests keep getting the previous one instead of
+   * waiting or computing it as well.
+   */
+  public TrendSnapshot getSnapshot()
+  {
+    TrendSnapshot snapshot = _snapshot.get();
+    if ( snapshot != null && snapshot.getVersion() == _version )
+      return snapshot;
+
+    if ( snapshot == null )
+    {
+      // nothing to serve yet, wait for the first snapshot
+      _snapshotLock.lock();
+    }
+    else if ( !_snapshotLock.tryLock() )
+    {
+      return snapshot;
+    }
+
+    try
+    {
+      snapshot = _snapshot.get();
+      if ( snapshot == null || snapshot.getVersion() != _version )
+      {
+        snapshot = computeSnapshot();
+        _snapshot.set( snapshot );
+      }
+      return snapshot;
+    }
+    finally
+    {
+      _snapshotLock.unlock();
+    }
+  }
+
+  /**
+   * Computes the trend of every benchmark sorted by benchmark key. When the configuration of a benchmark (mode,
+   * threads, samples or unit) or its environment changed over time, only the builds run with the latest configuration
+   * on the latest environment are part of the trend.
+   */
+  synchronized TrendSnapshot computeSnapshot()
+  {
+    Map<String, Series> latestSeries = new TreeMap<String, Series>();
+    for ( Series series : _series )
+    {
+      if ( series._size == 0 )
+        continue;
+
+      Series current = latestSeries.get( series._key );
+      if ( current == null || current.getLastBuild() < series.getLastBuild() )
+      {
+        latestSeries.put( series._key, series );
+      }
+    }
+
+    Map<String, BenchmarkTrend> trend = new TreeMap<String, BenchmarkTrend>();
+    for ( Map.Entry<String, Series> entry : latestSeries.entrySet() )
+    {
+      trend.put( entry.getKey(), entry.getValue().toTrend() );
+    }
+    return new TrendSnapshot( _version, _lastModified, _builds.isEmpty() ? 0 : _builds.last(), trend );
+  }
+
+  /**
+   * Returns the rolling baseline of every benchmark over its latest builds, computed from the builds run with the
+   * latest configuration of the benchmark on the given environment.
+   *
+   * @param builds - the number of latest builds the baseline is computed from
+   * @param environment - the {@link EnvironmentFingerprint#getId() id} of the environment, null for any environment
+   */
+  public synchronized Map<String, RollingBaseline> getRollingBaselines( int builds, String environment )
+  {
+    return getRollingBaselines( builds, 0, environment );
+  }
+
+  /**
+   * Returns the rolling baseline of a percentile of every sample mode benchmark over its latest builds, or of the score
+   * if the percentile is 0.
+   *
+   * @param builds - the number of latest builds the baseline is computed from
+   * @param percentile - one of {@link BenchmarkResult#TRACKED_PERCENTILES}, or 0 for the score
+   * @param environment - the {@link EnvironmentFingerprint#getId() id} of the environment, null for any environment
+   */
+  public synchronized Map<String, RollingBaseline> getRollingBaselines( int builds, double percentile,
+                                                                        String environment )
+  {
+    int column = percentile == 0 ? -1 : getPercentileColumn( percentile );
+
+    Map<String, Series> latestSeries = new HashMap<String, Series>();
+    for ( Series series : _series )
+    {
+      // the series of an unknown environment will be continued by this environment
+      if ( series._size == 0 || ( environment != null && series._environment.length() > 0
+                                  && !series._environment.equals( environment ) ) )
+        continue;
+
+      Series current = latestSeries.get( series._key );
+      if ( current == null || current.getLastBuild() < series.getLastBuild() )
+      {
+        latestSeries.put( series._key, series );
+      }
+    }
+
+    Map<String, RollingBaseline> baselines = new HashMap<String, RollingBaseline>();
+    for ( Map.Entry<String, Series> entry : latestSeries.entrySet() )
+    {
+      Series series = entry.getValue();
+      double[] window = null;
+      if ( percentile == 0 )
+      {
+        window = series.getLatest( series._means, builds );
+      }
+      else if ( column >= 0 && series._percentiles != null )
+      {
+        window = series.getLatest( series._percentiles[ column ], builds );
+      }
+      if ( window != null && window.length > 0 )
+      {
+        baselines.put( entry.getKey(), RollingBaseline.fromSorted( window, window.length ) );
+      }
+    }
+    return baselines;
+  }
+
+  private void modified()
+  {
+    _lastModified = System.currentTimeMillis();
+    _version++;
+  }
+
+  /**
+   * @param environment - the id of the environment of the build, empty if unknown
+   * @param changePoints - receives the change points detected with this build, may be null
+   */
+  private List<Series> putBuild( int buildNumber, Map<String, BenchmarkResult> results, String environment,
+                                 Map<String, Integer> changePoints )
+  {
+    removeBuild( buildNumber );
+
+    List<Series> buildSeries = new ArrayList<Series>( results.size() );
+    for ( Map.Entry<String, BenchmarkResult> entry : results.entrySet() )
+    {
+      BenchmarkResult result = entry.getValue();
+      Series series = getOrCreateSeries( entry.getKey(), result, environment );
+      double[] percentiles = getTrackedPercentiles( result );
+      if ( series.put( buildNumber, result.getMean(), result.getMeanError(), percentiles ) > 0 && changePoints != null )
+      {
+        ChangePointDetector detector = series._detector;
+        changePoints.put( entry.getKey(), detector.getChangePoint( detector.getChangePointCount() - 1 ) );
+      }
+      buildSeries.add( series );
+    }
+    _builds.add( buildNumber );
+    return buildSeries;
+  }
+
+  /**
+   * Returns the scores of the result at the tracked percentiles, NaN for the ones it doesn't have, or null if it has
+   * none of them.
+   */
+  private static double[] getTrackedPercentiles( BenchmarkResult result )
+  {
+    if ( result.getPercentiles().isEmpty() )
+      return null;
+
+    double[] percentiles = new double[ BenchmarkResult.TRACKED_PERCENTILES.length ];
+    boolean tracked = false;
+    for ( int i = 0; i < percentiles.length; i++ )
+    {
+      percentiles[ i ] = result.getPercentile( BenchmarkResult.TRACKED_PERCENTILES[ i ] );
+      tracked |= !Double.isNaN( percentiles[ i ] );
+    }
+    return tracked ? percentiles : null;
+  }
+
+  private static int getPercentileColumn( double percentile )
+  {
+    for ( int i = 0; i < BenchmarkResult.TRACKED_PERCENTILES.length; i++ )
+    {
+      if ( BenchmarkResult.TRACKED_PERCENTILES[ i ] == percentile )
+        return i;
+    }
+    return -1;
+  }
+
+  private boolean removeBuild( int buildNumber )
+  {
+    if ( !_builds.remove( buildNumber ) )
+      return false;
+
+    for ( Series series : _series )
+    {
+      series.remove( buildNumber );
+    }
+    return true;
+  }
+
+  private Series getOrCreateSeries( String key, BenchmarkResult result, String environment )
+  {
+    String config = getConfigKey( key, result.getMode(), result.getThreads(), result.getSamples(), result.getUnit(),
+                                  environment );
+    Series series = _seriesByConfig.get( config );
+    if ( series == null && environment.length() > 0 )
+    {
+      series = _seriesByConfig.get( getConfigKey( key, result.getMode(), result.getThreads(), result.getSamples(),
+                                                  result.getUnit(), "" ) );
+      if ( series != null )
+      {
+        setEnvironment( series, environment );
+        _redefinedSeries.add( series );
+      }
+    }
+    if ( series == null )
+    {
+      series = new Series( _series.size(), key, result.getShortBenchmarkName(), result.getMode(),
+                           result.getThreads(), result.getSamples(), result.getUnit(), environment );
+      addSeries( series );
+    }
+    return series;
+  }
+
+  private void addSeries( Series series )
+  {
+    _series.add( series );
+    _seriesByConfig.put( getConfigKey( series ), series );
+  }
+
+  private void setEnvironment( Series series, String environment )
+  {
+    _seriesByConfig.remove( getConfigKey( series ) );
+    series._environment = environment;
+    _seriesByConfig.put( getConfigKey( series ), series );
+  }
+
+  private static String getConfigKey( Series series )
+  {
+    return getConfigKey( series._key, series._mode, series._threads, series._samples, series._unit,
+                         series._environment );
+  }
+
+  private static String getConfigKey( String key, String mode, int threads, int samples, String unit,
+                                      String environment )
+  {
+    StringBuilder sb = new StringBuilder( 100 );
+    sb.append( key ).append( '\0' ).append( mode ).append( '\0' ).append( threads ).append( '\0' ).append( samples );
+    sb.append( '\0' ).append( unit ).append( '\0' ).append( environment );
+    return sb.toString();
+  }
+
+  private static String getEnvironmentId( EnvironmentFingerprint environment )
+  {
+    return environment == null ? "" : environment.getId();
+  }
+
+  private void clear()
+  {
+    _series.clear();
+    _seriesByConfig.clear();
+    _builds.clear();
+    _redefinedSeries.clear();
+    _deletedBuilds = 0;
+  }
+
+  /**
+   * Rewrites the trend file from memory, dropping deleted builds and series without data. The new file is written
+   * next to the current one and renamed over it.
+   */
+  private void compact() throws IOException
+  {
+    List<Series> retained = new ArrayList<Series>();
+    for ( Series series : _series )
+    {
+      if ( series._size > 0 )
+      {
+        retained.add( series );
+      }
+    }
+
+    _series.clear();
+    _seriesByConfig.clear();
+    for ( Series series : retained )
+    {
+      series._id = _series.size();
+      addSeries( series );
+    }
+
+    File parent = _file.getParentFile();
+    if ( parent != null && !parent.exists() )
+    {
+      parent.mkdirs();
+    }
+    File tmp = new File( _file.getPath() + ".tmp" );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+    try
+    {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      for ( Series series : _series )
+      {
+        writeSeries( out, series );
+      }
+      for ( int buildNumber : _builds )
+      {
+        List<Series> buildSeries = new ArrayList<Series>();
+        for ( Series series : _series )
+        {
+          if ( series.indexOf( buildNumber ) >= 0 )
+          {
+            buildSeries.add( series );
+          }
+        }
+        writeBuild( out, buildNumber, buildSeries );
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+
+    if ( !tmp.renameTo( _file ) )
+    {
+      // renameTo doesn't replace an existing file on every platform
+      _file.delete();
+      if ( !tmp.renameTo( _file ) )
+        throw new IOException( "Failed to replace " + _file );
+    }
+    _deletedBuilds = 0;
+  }
+
+  private DataOutputStream openForAppend() throws IOException
+  {
+    return new DataOutputStream( new BufferedOutputStream( new FileOutputStream( _file, true ) ) );
+  }
+
+  private static void writeSeries( DataOutputStream out, Series series ) throws IOException
+  {
+    out.writeByte( SERIES_RECORD );
+    out.writeInt( series._id );
+    writeString( out, series._key );
+    writeString( out, series._name );
+    writeString( out, series._mode );
+    out.writeInt( series._threads );
+    out.writeInt( series._samples );
+    writeString( out, series._unit );
+    writeString( out, series._environment );
+  }
+
+  private static void writeString( DataOutputStream out, String value ) throws IOException
+  {
+    byte[] bytes = value.getBytes( UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readString( DataInputStream in, int version ) throws IOException
+  {
+    if ( version < 4 )
+      return in.readUTF();
+
+    byte[] bytes = new byte[ in.readInt() ];
+    in.readFully( bytes );
+    return new String( bytes, UTF_8 );
+  }
+
+  private static void writeBuild( DataOutputStream out, int buildNumber, List<Series> buildSeries ) throws IOException
+  {
+    out.writeByte( BUILD_RECORD );
+    out.writeInt( buildNumber );
+    out.writeInt( buildSeries.size() );
+    for ( Series series : buildSeries )
+    {
+      int index = series.indexOf( buildNumber );
+      out.writeInt( series._id );
+      out.writeDouble( series._means[ index ] );
+      out.writeDouble( series._errors[ index ] );
+      if ( series._percentiles == null )
+      {
+        out.writeByte( 0 );
+        continue;
+      }
+
+      out.writeByte( series._percentiles.length );
+      for ( double[] column : series._percentiles )
+      {
+        out.writeDouble( column[ index ] );
+      }
+    }
+  }
+
+  /**
+   * Reads the scores at the tracked percentiles written by {@link #writeBuild}, or returns null if there are none.
+   */
+  private static double[] readPercentiles( DataInputStream in ) throws IOException
+  {
+    int count = in.readUnsignedByte();
+    if ( count == 0 )
+      return null;
+
+    double[] percentiles = new double[ BenchmarkResult.TRACKED_PERCENTILES.length ];
+    Arrays.fill( percentiles, Double.NaN );
+    for ( int i = 0; i < count; i++ )
+    {
+      double score = in.readDouble();
+      if ( i < percentiles.length )
+      {
+        percentiles[ i ] = score;
+      }
+    }
+    return percentiles;
+  }
+
+  /**
+   * The columns of one benchmark configuration: build numbers in ascending order with the score, score error and, for
+   * the sample mode, the tracked percentiles of each build at the same index.
+   */
+  private static final class Series
+  {
+    private int _id;
+    private final String _key;
+    private final String _name;
+    private final String _mode;
+    private final int _threads;
+    private final int _samples;
+    private final String _unit;
+    // the id of the environment of the builds, empty if unknown
+    private String _environment;
+    private final ChangePointDetector _detector = new ChangePointDetector();
+    private int[] _buildNumbers = new int[ 8 ];
+    private double[] _means = new double[ 8 ];
+    private double[] _errors = new double[ 8 ];
+    // a column per tracked percentile, null until the series has percentiles
+    private double[][] _percentiles;
+    private int _size;
+
+    Series( int id, String key, String name, String mode, int threads, int samples, String unit,
+            String environment )
+    {
+      _id = id;
+      _key = key;
+      _name = name;
+      _mode = mode;
+      _threads = threads;
+      _samples = samples;
+      _unit = unit;
+      _environment = environment;
+    }
+
+    int indexOf( int buildNumber )
+    {
+      return Arrays.binarySearch( _buildNumbers, 0, _size, buildNumber );
+    }
+
+    int getLastBuild()
+    {
+      return _buildNumbers[ _size - 1 ];
+    }
+
+    /**
+     * Adds or replaces the score of a build.
+     *
+     * @param percentiles - the scores at the tracked percentiles, may be null
+     * @return the number of change points detected with this score
+     */
+    int put( int buildNumber, double mean, double error, double[] percentiles )
+    {
+      if ( percentiles != null && _percentiles == null )
+      {
+        _percentiles = new double[ percentiles.length ][];
+        for ( int i = 0; i < percentiles.length; i++ )
+        {
+          _percentiles[ i ] = new double[ _buildNumbers.length ];
+          Arrays.fill( _percentiles[ i ], Double.NaN );
+        }
+      }
+
+      int index = indexOf( buildNumber );
+      boolean appended = index == -_size - 1;
+      if ( index < 0 )
+      {
+        index = -index - 1;
+        if ( _size == _buildNumbers.length )
+        {
+          int capacity = _size * 2;
+          _buildNumbers = Arrays.copyOf( _buildNumbers, capacity );
+          _means = Arrays.copyOf( _means, capacity );
+          _errors = Arrays.copyOf( _errors, capacity );
+          if ( _percentiles != null )
+          {
+            for ( int i = 0; i < _percentiles.length; i++ )
+            {
+              _percentiles[ i ] = Arrays.copyOf( _percentiles[ i ], capacity );
+            }
+          }
+        }
+        System.arraycopy( _buildNumbers, index, _buildNumbers, index + 1, _size - index );
+        System.arraycopy( _means, index, _means, index + 1, _size - index );
+        System.arraycopy( _errors, index, _errors, index + 1, _size - index );
+        if ( _percentiles != null )
+        {
+          for ( double[] column : _percentiles )
+          {
+            System.arraycopy( column, index, column, index + 1, _size - index );
+          }
+        }
+        _size++;
+      }
+      _buildNumbers[ index ] = buildNumber;
+      _means[ index ] = mean;
+      _errors[ index ] = error;
+      if ( _percentiles != null )
+      {
+        for ( int i = 0; i < _percentiles.length; i++ )
+        {
+          _percentiles[ i ][ index ] = percentiles == null ? Double.NaN : percentiles[ i ];
+        }
+      }
+
+      if ( !appended )
+      {
+        // the scores after this one were already processed
+        _detector.reset();
+      }
+      return _detector.update( _buildNumbers, _means, _size );
+    }
+
+    void remove( int buildNumber )
+    {
+      int index = indexOf( buildNumber );
+      if ( index < 0 )
+        return;
+
+      int moved = _size - index - 1;
+      System.arraycopy( _buildNumbers, index + 1, _buildNumbers, index, moved );
+      System.arraycopy( _means, index + 1, _means, index, moved );
+      System.arraycopy( _errors, index + 1, _errors, index, moved );
+      if ( _percentiles != null )
+      {
+        for ( double[] column : _percentiles )
+        {
+          System.arraycopy( column, index + 1, column, index, moved );
+        }
+      }
+      _size--;
+
+      if ( !_detector.remove( index, buildNumber ) )
+      {
+        _detector.reset();
+        _detector.update( _buildNumbers, _means, _size );
+      }
+    }
+
+    /**
+     * Returns the values of a column among the latest builds, sorted in ascending order. Builds without a value (e.g.
+     * without percentiles) are skipped.
+     */
+    double[] getLatest( double[] column, int builds )
+    {
+      double[] values = new double[ Math.min( builds, _size ) ];
+      int count = 0;
+      for ( int i = _size - values.length; i < _size; i++ )
+      {
+        double value = column[ i ];
+        if ( !Double.isNaN( value ) )
+        {
+          values[ count++ ] = value;
+        }
+      }
+      values = Arrays.copyOf( values, count );
+      Arrays.sort( values );
+      return values;
+    }
+
+    BenchmarkTrend toTrend()
+    {
+      int changePointCount = _detector.getChangePointCount();
+      int[] changePoints = new int[ changePointCount ];
+      double[] shifts = new double[ changePointCount ];
+      for ( int i = 0; i < changePointCount; i++ )
+      {
+        changePoints[ i ] = _detector.getChangePoint( i );
+        shifts[ i ] = _detector.getShift( i );
+      }
+      return new BenchmarkTrend( _key, _name, _mode, _threads, _samples, _unit, _buildNumbers, _means, _errors,
+                                 _size, changePoints, shifts, _percentiles );
+    }
+  }
+}
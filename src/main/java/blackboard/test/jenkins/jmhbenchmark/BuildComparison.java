@@ -0,0 +1,357 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.Api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * BuildComparison compares the benchmark reports of any two builds of a project, e.g. the last builds before and after
+ * a release, at <tt>&lt;job&gt;/jmhbenchmark/compare?from=&lt;build&gt;&amp;to=&lt;build&gt;</tt> (and
+ * <tt>.../compare/api/json?from=...&amp;to=...</tt>). Each benchmark gets the change of its score from the first build
+ * to the second, in percent with improvements positive as in the build report, and the p-value of the change.
+ * <p/>
+ * The benchmarks are sorted by impact: the significant changes come first, the largest first, followed by the changes
+ * that are not significant and by the benchmarks that only one of the builds ran. A comparison is immutable and kept in
+ * the {@link BuildComparisonCache}, since the reports of finished builds don't change.
+ * <p/>
+ * If the builds ran on different environments ({@link EnvironmentFingerprint}), the comparison lists the differences,
+ * as its changes are then not like-for-like.
+ */
+@ExportedBean( defaultVisibility = 2 )
+public final class BuildComparison
+{
+  public static final String SORT_IMPACT = "impact";
+  public static final String SORT_NAME = "name";
+  public static final String SORT_P_VALUE = "pValue";
+  static final double DEFAULT_SIGNIFICANCE_LEVEL = 0.01;
+
+  private final int _fromBuild;
+  private final int _toBuild;
+  private final double _significanceLevel;
+  private final int _decimalPlaces;
+  private final List<String> _environmentDifferences;
+  private final List<Delta> _deltas;
+
+  private BuildComparison( int fromBuild, int toBuild, double significanceLevel, int decimalPlaces,
+                           List<String> environmentDifferences, List<Delta> deltas )
+  {
+    _fromBuild = fromBuild;
+    _toBuild = toBuild;
+    _significanceLevel = significanceLevel;
+    _decimalPlaces = decimalPlaces;
+    _environmentDifferences = Collections.unmodifiableList( environmentDifferences );
+    _deltas = Collections.unmodifiableList( deltas );
+  }
+
+  /**
+   * Compares the results of two builds, keyed by benchmark key. The p-values are computed once here, with the
+   * Mann-Whitney U test for the benchmarks with raw iteration scores in both builds and Welch's t-test otherwise.
+   */
+  static BuildComparison compare( int fromBuild, BenchmarkReport fromReport, int toBuild, BenchmarkReport toReport,
+                                  double significanceLevel, int decimalPlaces )
+  {
+    List<String> environmentDifferences = new ArrayList<String>();
+    if ( !EnvironmentFingerprint.isLikeForLike( fromReport.getEnvironment(), toReport.getEnvironment() ) )
+    {
+      environmentDifferences = toReport.getEnvironment().getDifferences( fromReport.getEnvironment() );
+    }
+    return compare( fromBuild, fromReport.getReport(), toBuild, toReport.getReport(), significanceLevel,
+                    decimalPlaces, environmentDifferences );
+  }
+
+  static BuildComparison compare( int fromBuild, Map<String, BenchmarkResult> fromReport, int toBuild,
+                                  Map<String, BenchmarkResult> toReport, double significanceLevel, int decimalPlaces,
+                                  List<String> environmentDifferences )
+  {
+    List<Delta> deltas = new ArrayList<Delta>( toReport.size() );
+    for ( Map.Entry<String, BenchmarkResult> entry : toReport.entrySet() )
+    {
+      BenchmarkResult from = fromReport.get( entry.getKey() );
+      deltas.add( new Delta( entry.getKey(), from, entry.getValue(), significanceLevel ) );
+    }
+    for ( Map.Entry<String, BenchmarkResult> entry : fromReport.entrySet() )
+    {
+      if ( !toReport.containsKey( entry.getKey() ) )
+      {
+        deltas.add( new Delta( entry.getKey(), entry.getValue(), null, significanceLevel ) );
+      }
+    }
+    Collections.sort( deltas, IMPACT_ORDER );
+    return new BuildComparison( fromBuild, toBuild, significanceLevel, decimalPlaces, environmentDifferences,
+                                deltas );
+  }
+
+  public Api getApi()
+  {
+    return new Api( this );
+  }
+
+  @Exported
+  public int getFromBuild()
+  {
+    return _fromBuild;
+  }
+
+  @Exported
+  public int getToBuild()
+  {
+    return _toBuild;
+  }
+
+  @Exported
+  public double getSignificanceLevel()
+  {
+    return _significanceLevel;
+  }
+
+  /**
+   * Returns the differences between the environments of the builds, e.g. <tt>JDK: 11.0.2 -&gt; 17.0.2</tt>, empty if
+   * they ran on the same environment or if one of them is unknown.
+   */
+  @Exported
+  public List<String> getEnvironmentDifferences()
+  {
+    return _environmentDifferences;
+  }
+
+  /**
+   * Returns the benchmarks sorted by impact.
+   */
+  @Exported( name = "benchmarks" )
+  public List<Delta> getDeltas()
+  {
+    return _deltas;
+  }
+
+  /**
+   * Returns the benchmarks in the given order: {@link #SORT_IMPACT} (the default), {@link #SORT_NAME} or
+   * {@link #SORT_P_VALUE}.
+   */
+  public List<Delta> getDeltas( String sort )
+  {
+    Comparator<Delta> order =
+      SORT_NAME.equals( sort ) ? NAME_ORDER : SORT_P_VALUE.equals( sort ) ? P_VALUE_ORDER : null;
+    if ( order == null )
+      return _deltas;
+
+    List<Delta> deltas = new ArrayList<Delta>( _deltas );
+    Collections.sort( deltas, order );
+    return deltas;
+  }
+
+  /**
+   * Formats a score with the decimal places of the build report, "-" for the score of a build that didn't run the
+   * benchmark.
+   */
+  public String getFormattedNumber( double num )
+  {
+    if ( Double.isNaN( num ) )
+      return "-";
+
+    int multiplier = (int) Math.pow( 10, _decimalPlaces );
+    return String.valueOf( (double) Math.round( num * multiplier ) / multiplier );
+  }
+
+  public String getFormattedPValue( double pValue )
+  {
+    return BenchmarkBuildActionDisplay.formatPValue( pValue );
+  }
+
+  /**
+   * The change of one benchmark between the two builds. The score of a build that didn't run the benchmark is NaN, and
+   * exported as null.
+   */
+  @ExportedBean( defaultVisibility = 3 )
+  public static final class Delta
+  {
+    private final String _key;
+    private final BenchmarkResult _result;
+    private final double _fromMean;
+    private final double _toMean;
+    private final double _change;
+    private final double _pValue;
+    private final boolean _significant;
+
+    Delta( String key, BenchmarkResult from, BenchmarkResult to, double significanceLevel )
+    {
+      _key = key;
+      _result = to == null ? from : to;
+      _fromMean = from == null ? Double.NaN : from.getMean();
+      _toMean = to == null ? Double.NaN : to.getMean();
+      if ( from != null && to != null && !Double.isNaN( _fromMean ) && !Double.isNaN( _toMean ) )
+      {
+        _change = BenchmarkPublisher.getImprovementInPercent( to, _toMean, _fromMean );
+        _pValue = Statistics.compare( to, from );
+        // a change that couldn't be tested, e.g. because JMH reported a single sample, counts as significant
+        _significant = Double.isNaN( _pValue ) || _pValue < significanceLevel;
+      }
+      else
+      {
+        _change = Double.NaN;
+        _pValue = Double.NaN;
+        _significant = false;
+      }
+    }
+
+    @Exported
+    public String getKey()
+    {
+      return _key;
+    }
+
+    @Exported
+    public String getBenchmarkName()
+    {
+      return _result.getBenchmarkName();
+    }
+
+    public String getShortBenchmarkName()
+    {
+      return _result.getShortBenchmarkName();
+    }
+
+    @Exported
+    public String getSecondaryMetric()
+    {
+      return _result.getSecondaryMetric();
+    }
+
+    @Exported
+    public String getMode()
+    {
+      return _result.getMode();
+    }
+
+    @Exported
+    public String getUnit()
+    {
+      return _result.getUnit();
+    }
+
+    public Map<String, String> getParams()
+    {
+      return _result.getParams();
+    }
+
+    @Exported( name = "params" )
+    public List<BenchmarkResult.Param> getExportedParams()
+    {
+      return _result.getExportedParams();
+    }
+
+    public double getFromMean()
+    {
+      return _fromMean;
+    }
+
+    public double getToMean()
+    {
+      return _toMean;
+    }
+
+    /**
+     * Returns the change of the score in percent, positive for an improvement, or NaN if one of the builds didn't run
+     * the benchmark.
+     */
+    public double getChange()
+    {
+      return _change;
+    }
+
+    public double getPValue()
+    {
+      return _pValue;
+    }
+
+    @Exported
+    public boolean isSignificant()
+    {
+      return _significant;
+    }
+
+    @Exported( name = "fromMean" )
+    public Double getExportedFromMean()
+    {
+      return BenchmarkResult.toExported( _fromMean );
+    }
+
+    @Exported( name = "toMean" )
+    public Double getExportedToMean()
+    {
+      return BenchmarkResult.toExported( _toMean );
+    }
+
+    @Exported( name = "change" )
+    public Double getExportedChange()
+    {
+      return BenchmarkResult.toExported( _change );
+    }
+
+    @Exported( name = "pValue" )
+    public Double getExportedPValue()
+    {
+      return BenchmarkResult.toExported( _pValue );
+    }
+
+    /**
+     * Returns the indicator of the report pages: green for a significant improvement, red for a significant
+     * regression, empty otherwise. Secondary metrics are better when lower, as in the build report.
+     */
+    public String getChangeIndicator()
+    {
+      if ( !_significant || _change == 0 )
+        return "";
+      return _change > 0 ? "green" : "red";
+    }
+  }
+
+  private static final Comparator<Delta> IMPACT_ORDER = new Comparator<Delta>()
+    {
+      public int compare( Delta d1, Delta d2 )
+      {
+        int rank = getRank( d1 ) - getRank( d2 );
+        if ( rank != 0 )
+          return rank;
+
+        if ( !Double.isNaN( d1.getChange() ) )
+        {
+          int impact = Double.compare( Math.abs( d2.getChange() ), Math.abs( d1.getChange() ) );
+          if ( impact != 0 )
+            return impact;
+        }
+        return d1.getKey().compareTo( d2.getKey() );
+      }
+
+      private int getRank( Delta delta )
+      {
+        if ( Double.isNaN( delta.getChange() ) )
+          return 2;
+        return delta.isSignificant() ? 0 : 1;
+      }
+    };
+
+  private static final Comparator<Delta> NAME_ORDER = new Comparator<Delta>()
+    {
+      public int compare( Delta d1, Delta d2 )
+      {
+        return d1.getKey().compareTo( d2.getKey() );
+      }
+    };
+
+  private static final Comparator<Delta> P_VALUE_ORDER = new Comparator<Delta>()
+    {
+      public int compare( Delta d1, Delta d2 )
+      {
+        // untested changes (NaN) sort last
+        int order = Double.compare( d1.getPValue(), d2.getPValue() );
+        return order != 0 ? order : IMPACT_ORDER.compare( d1, d2 );
+      }
+    };
+}
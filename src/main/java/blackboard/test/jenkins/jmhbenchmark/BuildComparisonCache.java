@@ -0,0 +1,63 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.Run;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BuildComparisonCache keeps the most recently requested {@link BuildComparison}s, so that the pairs of builds compared
+ * again and again during a release review are computed once. The cache is shared by all projects and holds at most 32
+ * comparisons, evicting the least recently used first. The limit can be changed with the
+ * <tt>blackboard.test.jenkins.jmhbenchmark.BuildComparisonCache.maxEntries</tt> system property.
+ */
+final class BuildComparisonCache
+{
+  private static final int MAX_ENTRIES = Integer.getInteger( BuildComparisonCache.class.getName() + ".maxEntries", 32 );
+  private static final BuildComparisonCache INSTANCE = new BuildComparisonCache( MAX_ENTRIES );
+
+  private final LinkedHashMap<String, BuildComparison> _comparisons;
+
+  BuildComparisonCache( final int maxEntries )
+  {
+    _comparisons = new LinkedHashMap<String, BuildComparison>( 16, 0.75f, true )
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, BuildComparison> eldest )
+        {
+          return size() > maxEntries;
+        }
+      };
+  }
+
+  static BuildComparisonCache getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the key of the comparison of two builds of a project at a significance level. The start time of each build
+   * is part of the key, since a build number is reused when a project is deleted and recreated with the same name.
+   */
+  static String getKey( String projectName, Run<?, ?> fromBuild, Run<?, ?> toBuild, double significanceLevel )
+  {
+    StringBuilder sb = new StringBuilder( 100 );
+    sb.append( projectName ).append( '\0' );
+    sb.append( fromBuild.getNumber() ).append( '/' ).append( fromBuild.getTimeInMillis() ).append( "..." );
+    sb.append( toBuild.getNumber() ).append( '/' ).append( toBuild.getTimeInMillis() );
+    sb.append( '@' ).append( significanceLevel );
+    return sb.toString();
+  }
+
+  synchronized BuildComparison get( String key )
+  {
+    return _comparisons.get( key );
+  }
+
+  synchronized void put( String key, BuildComparison comparison )
+  {
+    _comparisons.put( key, comparison );
+  }
+}
@@ -0,0 +1,201 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.util.Arrays;
+
+/**
+ * ChangePointDetector finds the builds where the score of a benchmark shifted persistently, with a two-sided CUSUM
+ * over the scores in build order. It catches a slow drift (e.g. 3% worse in each build) that never crosses the
+ * degradation threshold between two consecutive builds, and dates the shift to the build where it began rather than
+ * to the build where it was detected.
+ * <p/>
+ * The scores are split in segments. The first {@link #WARM_UP} scores of a segment estimate its level and noise, the
+ * following ones are accumulated as standardized deviations from that level. Once a cumulative sum exceeds
+ * {@link #THRESHOLD}, the build where that sum last left zero is a change point and starts a new segment. The detector
+ * works incrementally on the columns of a series: each new score costs O(1), plus a replay of the few scores between
+ * the change point and its detection.
+ */
+final class ChangePointDetector
+{
+  /**
+   * The number of scores used to estimate the level and noise of a segment.
+   */
+  static final int WARM_UP = 5;
+  /**
+   * The allowance, in standard deviations, subtracted from each deviation: smaller shifts are ignored.
+   */
+  private static final double SLACK = 0.5;
+  /**
+   * The cumulative deviation, in standard deviations, at which a shift is reported.
+   */
+  private static final double THRESHOLD = 5;
+  /**
+   * The lowest noise assumed, relative to the level, so that very stable benchmarks don't report tiny shifts.
+   */
+  private static final double MIN_RELATIVE_SIGMA = 0.01;
+
+  private int _segmentStart;
+  private int _next;
+  private int _count;
+  private double _mean;
+  private double _m2;
+  private double _sigma;
+  private double _high;
+  private double _low;
+  private int _highStart;
+  private int _lowStart;
+
+  private int[] _changePoints = new int[ 2 ];
+  private double[] _shifts = new double[ 2 ];
+  private int _changePointCount;
+
+  /**
+   * Processes the scores of the series that weren't seen yet.
+   *
+   * @return the number of change points found
+   */
+  int update( int[] buildNumbers, double[] values, int size )
+  {
+    int found = 0;
+    while ( _next < size )
+    {
+      int index = _next++;
+      if ( step( buildNumbers, values, index ) )
+      {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Forgets every score and change point, e.g. before processing a series again after a build was inserted in the
+   * middle of it.
+   */
+  void reset()
+  {
+    startSegment( 0 );
+    _changePointCount = 0;
+  }
+
+  /**
+   * Adjusts the detector to the removal of the score at the given index. Removing a score before the current segment
+   * only shifts the indexes; removing one inside it requires processing the series again.
+   *
+   * @return false if the series must be processed again, after {@link #reset()}
+   */
+  boolean remove( int index, int buildNumber )
+  {
+    int changePoint = Arrays.binarySearch( _changePoints, 0, _changePointCount, buildNumber );
+    if ( changePoint >= 0 )
+    {
+      int moved = _changePointCount - changePoint - 1;
+      System.arraycopy( _changePoints, changePoint + 1, _changePoints, changePoint, moved );
+      System.arraycopy( _shifts, changePoint + 1, _shifts, changePoint, moved );
+      _changePointCount--;
+    }
+
+    if ( index >= _segmentStart )
+      return false;
+
+    _segmentStart--;
+    _next--;
+    _highStart--;
+    _lowStart--;
+    return true;
+  }
+
+  int getChangePointCount()
+  {
+    return _changePointCount;
+  }
+
+  /**
+   * Returns the build where the i-th shift began, in ascending order.
+   */
+  int getChangePoint( int i )
+  {
+    return _changePoints[ i ];
+  }
+
+  /**
+   * Returns the i-th shift as a percentage of the score level before it.
+   */
+  double getShift( int i )
+  {
+    return _shifts[ i ];
+  }
+
+  private boolean step( int[] buildNumbers, double[] values, int index )
+  {
+    double value = values[ index ];
+    if ( _count < WARM_UP )
+    {
+      // Welford's running mean and variance
+      _count++;
+      double delta = value - _mean;
+      _mean += delta / _count;
+      _m2 += delta * ( value - _mean );
+      if ( _count == WARM_UP )
+      {
+        _sigma = Math.max( Math.sqrt( _m2 / ( _count - 1 ) ), MIN_RELATIVE_SIGMA * Math.abs( _mean ) );
+        _sigma = Math.max( _sigma, Double.MIN_NORMAL );
+        _highStart = index + 1;
+        _lowStart = index + 1;
+      }
+      return false;
+    }
+
+    double deviation = ( value - _mean ) / _sigma;
+    _high = Math.max( 0, _high + deviation - SLACK );
+    _low = Math.max( 0, _low - deviation - SLACK );
+    if ( _high == 0 )
+    {
+      _highStart = index + 1;
+    }
+    if ( _low == 0 )
+    {
+      _lowStart = index + 1;
+    }
+    if ( _high <= THRESHOLD && _low <= THRESHOLD )
+      return false;
+
+    int start = _high > THRESHOLD ? _highStart : _lowStart;
+    double sum = 0;
+    for ( int i = start; i <= index; i++ )
+    {
+      sum += values[ i ];
+    }
+    double shift = _mean == 0 ? 0 : ( sum / ( index - start + 1 ) / _mean - 1 ) * 100;
+    addChangePoint( buildNumbers[ start ], shift );
+
+    // the new segment begins at the change point, the scores since then are processed again
+    startSegment( start );
+    return true;
+  }
+
+  private void startSegment( int start )
+  {
+    _segmentStart = start;
+    _next = start;
+    _count = 0;
+    _mean = 0;
+    _m2 = 0;
+    _sigma = 0;
+    _high = 0;
+    _low = 0;
+    _highStart = start;
+    _lowStart = start;
+  }
+
+  private void addChangePoint( int buildNumber, double shift )
+  {
+    if ( _changePointCount == _changePoints.length )
+    {
+      _changePoints = Arrays.copyOf( _changePoints, _changePointCount * 2 );
+      _shifts = Arrays.copyOf( _shifts, _changePointCount * 2 );
+    }
+    _changePoints[ _changePointCount ] = buildNumber;
+    _shifts[ _changePointCount ] = shift;
+    _changePointCount++;
+  }
+}
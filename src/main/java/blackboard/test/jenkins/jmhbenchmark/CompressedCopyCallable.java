@@ -0,0 +1,57 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CompressedCopyCallable gzips a file on the node that holds it and streams the compressed bytes to the given
+ * (remote) output stream, so that raw result files are compressed before they are sent to the master.
+ */
+public class CompressedCopyCallable implements FilePath.FileCallable<Void>
+{
+  private static final long serialVersionUID = 6311957826218504907L;
+
+  private final OutputStream _out;
+
+  /**
+   * @param out - the stream to write to, typically a {@link hudson.remoting.RemoteOutputStream}
+   */
+  public CompressedCopyCallable( OutputStream out )
+  {
+    _out = out;
+  }
+
+  public Void invoke( File file, VirtualChannel channel ) throws IOException, InterruptedException
+  {
+    InputStream in = new FileInputStream( file );
+    try
+    {
+      OutputStream out = new GZIPOutputStream( _out, 64 * 1024 );
+      try
+      {
+        byte[] buffer = new byte[ 64 * 1024 ];
+        int count;
+        while ( ( count = in.read( buffer ) ) != -1 )
+        {
+          out.write( buffer, 0, count );
+        }
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+    return null;
+  }
+}
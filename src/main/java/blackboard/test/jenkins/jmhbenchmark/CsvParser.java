@@ -1,19 +1,25 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
 import hudson.model.TaskListener;
-import hudson.model.AbstractBuild;
+import hudson.model.Run;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * CsvParser reads the CSV output of JMH (<tt>-rf csv</tt>). In the sample mode, JMH writes a row per percentile after
+ * the row of the benchmark (e.g. <tt>test:test&#183;p0.99</tt>); these rows are folded into the percentiles of the
+ * benchmark's result.
+ */
 public class CsvParser extends ReportParser
 {
-  private static final String IMPROVEMENT_IN_MEAN_HEADER_NAME = "Score Improvement % (previous/baseline)";
   private static final int BENCHMARK_NAME = 0;  
   private static final int BENCHMARK_MODE = 1;
   private static final int THREADS = 2;
@@ -26,37 +32,47 @@ public class CsvParser extends ReportParser
   {
   }
 
-  public BenchmarkReport parse( AbstractBuild<?, ?> build, File reportFile, TaskListener listener ) throws IOException
+  public BenchmarkReport parse( Run<?, ?> build, File reportFile, TaskListener listener ) throws IOException
   {
     PrintStream logger = null;
     if ( listener != null )
     {
       logger = listener.getLogger();
+      logger.println( "Parsing the file : " + reportFile.getName() );
     }
 
     final BenchmarkReport report = new BenchmarkReport();
 
-    BufferedReader reader = null;
+    Reader reader = null;
     try
     {
-      List<String> headerColumns = null;
-      logger.println("Parsing the file : " + reportFile.getName());
-      reader = new BufferedReader( new FileReader( reportFile ) );
-      String line = reader.readLine();
-      if ( line != null )
+      List<String> headerColumns = new ArrayList<String>();
+      // JMH writes its result files in UTF-8, e.g. the middle dot of the secondary metrics
+      reader = new InputStreamReader( new FileInputStream( reportFile ), "UTF-8" );
+      CsvTokenizer tokenizer = new CsvTokenizer( reader );
+      if ( tokenizer.nextRecord() )
       {
-        // This is the first line. The CSV file has header at the first line.
-        headerColumns = getHeadersList( line );
+        // This is the first record. The CSV file has header at the first line.
+        while ( tokenizer.nextField() )
+        {
+          headerColumns.add( tokenizer.getField() );
+        }
         report.setHeader( headerColumns );
         report.addHeaderColumn( IMPROVEMENT_IN_MEAN_HEADER_NAME );
-        line = reader.readLine();
       }
-      while ( line != null )
+      List<BenchmarkResult> percentiles = new ArrayList<BenchmarkResult>();
+      while ( tokenizer.nextRecord() )
       {
-        BenchmarkResult sample = getIndividualBenchmark( line, headerColumns );
+        BenchmarkResult sample = getIndividualBenchmark( tokenizer, headerColumns );
+        String metric = sample.getSecondaryMetric();
+        if ( metric != null && !Double.isNaN( BenchmarkResult.getPercentileOfMetric( metric ) ) )
+        {
+          percentiles.add( sample );
+          continue;
+        }
         report.addBenchmarkResult( sample.getKey(), sample );
-        line = reader.readLine();
       }
+      addPercentiles( report, percentiles );
     }
     finally
     {
@@ -68,71 +84,84 @@ public class CsvParser extends ReportParser
     return report;
 
   }
-                     
+
+  /**
+   * Adds the percentile rows to the result of their benchmark. A percentile row without a benchmark row is kept as a
+   * result of its own.
+   */
+  private void addPercentiles( BenchmarkReport report, List<BenchmarkResult> percentiles )
+  {
+    Map<String, BenchmarkResult> results = report.getReport();
+    for ( BenchmarkResult percentile : percentiles )
+    {
+      BenchmarkResult primary = results.get( percentile.getPrimaryKey() );
+      if ( primary == null )
+      {
+        report.addBenchmarkResult( percentile.getKey(), percentile );
+        continue;
+      }
+      primary.addPercentile( BenchmarkResult.getPercentileOfMetric( percentile.getSecondaryMetric() ),
+                             percentile.getMean() );
+    }
+  }
+
   /**
    * If a benchmark hasn't used parameters, the output is in the order: 
    *    "Benchmark","Mode","Threads","Samples","Score","Score Error (99.9%)","Unit"
    * If a benchmark used parameters, the output is in the order:
    *    "Benchmark","Mode","Threads","Samples","Score","Score Error (99.9%)","Unit", "Param: paramName1","Param: paramName2" 
-   * @param line - a line of data from the csv file to which the benchmark result is written
+   * The fields of the record are converted as they are read from the tokenizer.
+   * @param tokenizer - the tokenizer positioned at the beginning of a record of the csv file
    * @param header - the header of the csv file
    * @return
    */
-  private BenchmarkResult getIndividualBenchmark( String line, List<String> header )
+  private BenchmarkResult getIndividualBenchmark( CsvTokenizer tokenizer, List<String> header ) throws IOException
   {
     BenchmarkResult sample = new BenchmarkResult();
 
-    String[] values = line.split( "," );
-    String benchmarkName = stripQuotes( values[ BENCHMARK_NAME ] );
-    sample.setBenchmarkName( benchmarkName );
-    sample.setShortBenchmarkName( getShortName(benchmarkName) );
-    sample.setMode( stripQuotes( values[ BENCHMARK_MODE ] ) );
-    sample.setThreads( Integer.valueOf( values[ THREADS ] ) );
-    sample.setSamples( Integer.valueOf( values[ SAMPLES ] ) );
-    sample.setMean( Double.valueOf( values[ MEAN ] ) );
-    if ( !values[ MEAN_ERROR_99_9 ].equals( "NaN" ) )
+    int column = 0;
+    while ( tokenizer.nextField() )
     {
-      sample.setMeanError( Double.valueOf( values[ MEAN_ERROR_99_9 ] ) );
+      switch ( column )
+      {
+        case BENCHMARK_NAME:
+          String benchmarkName = tokenizer.getField();
+          sample.setBenchmarkName( benchmarkName );
+          sample.setShortBenchmarkName( getShortName( benchmarkName ) );
+          break;
+        case BENCHMARK_MODE:
+          sample.setMode( tokenizer.getField() );
+          break;
+        case THREADS:
+          sample.setThreads( tokenizer.getInt() );
+          break;
+        case SAMPLES:
+          sample.setSamples( tokenizer.getInt() );
+          break;
+        case MEAN:
+          sample.setMean( tokenizer.getDouble() );
+          break;
+        case MEAN_ERROR_99_9:
+          if ( !tokenizer.fieldEquals( "NaN" ) )
+          {
+            sample.setMeanError( tokenizer.getDouble() );
+          }
+          break;
+        case UNIT:
+          sample.setUnit( tokenizer.getField() );
+          break;
+        default:
+          if ( column < header.size() )
+          {
+            sample.addParams( header.get( column ), tokenizer.getField() );
+          }
+      }
+      column++;
     }
-    sample.setUnit( stripQuotes( values[ UNIT ] ) );
 
-    for ( int i = 7; i < values.length; i++ )
-    {
-      sample.addParams( header.get( i ), stripQuotes( values[ i ] ) );
-    }
+    if ( column <= UNIT )
+      throw new IOException( "Incomplete benchmark record at line " + tokenizer.getLine() );
 
     return sample;
   }
-
-  private String stripQuotes( String quotedStr )
-  {
-    return quotedStr.replace( "\"", "" );
-  }
-
-  private String getShortName( String name )
-  {
-    String[] splitNames = name.split( "\\." );
-    StringBuilder sb = new StringBuilder( 100 );
-    for ( int i = 0; i < splitNames.length - 2; i++ )
-    {
-      sb.append( splitNames[i].charAt( 0 ) );
-      sb.append( "." );
-    }
-    sb.append( splitNames[splitNames.length - 2] );
-    sb.append( "." );
-    sb.append( splitNames[splitNames.length - 1] );
-
-    return sb.toString();
-  }
-  
-  private List<String> getHeadersList( String line )
-  {
-    List<String> headers = new ArrayList<String>();
-    String[] columns = line.split( "," );
-    for ( int i = 0; i < columns.length; i++ )
-    {
-      headers.add( stripQuotes( columns[ i ] ) );
-    }
-    return headers;
-  }
 }
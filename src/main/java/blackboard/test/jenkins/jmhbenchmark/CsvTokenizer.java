@@ -0,0 +1,341 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * CsvTokenizer reads RFC 4180 CSV records one field at a time. Fields may be quoted, in which case they can contain
+ * commas, line breaks and doubled quotes. Records end with LF or CRLF and empty lines are skipped.
+ * <p/>
+ * The text of the current field is kept in a char buffer that is reused for every field: numbers are converted
+ * straight from that buffer and a String is only created when the caller asks for one. Doubles with more than 15
+ * significant digits or a large exponent are the exception: they are left to {@link Double#parseDouble(String)}.
+ */
+final class CsvTokenizer
+{
+  // the powers of ten that are exact doubles
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+                                                  1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  private final Reader _reader;
+  private final char[] _buffer = new char[ 8192 ];
+  private int _pos;
+  private int _limit;
+
+  private char[] _field = new char[ 128 ];
+  private int _fieldLength;
+  private boolean _endOfRecord = true;
+  private int _line = 1;
+
+  CsvTokenizer( Reader reader )
+  {
+    _reader = reader;
+  }
+
+  /**
+   * Moves to the next record, skipping the remaining fields of the current one.
+   *
+   * @return false if there are no more records
+   */
+  boolean nextRecord() throws IOException
+  {
+    while ( nextField() )
+    {
+      // skip the rest of the current record
+    }
+
+    while ( true )
+    {
+      int c = peekChar();
+      if ( c == -1 )
+        return false;
+      if ( c != '\r' && c != '\n' )
+        break;
+
+      readEndOfLine();
+    }
+    _endOfRecord = false;
+    return true;
+  }
+
+  /**
+   * Reads the next field of the current record.
+   *
+   * @return false if the current record has no more fields
+   */
+  boolean nextField() throws IOException
+  {
+    if ( _endOfRecord )
+      return false;
+
+    _fieldLength = 0;
+    int startLine = _line;
+    boolean quoted = false;
+    if ( peekChar() == '"' )
+    {
+      _pos++;
+      quoted = true;
+    }
+
+    while ( true )
+    {
+      int c = peekChar();
+      if ( c == -1 )
+      {
+        if ( quoted )
+          throw new IOException( "Unterminated quoted field at line " + startLine );
+
+        _endOfRecord = true;
+        return true;
+      }
+
+      if ( quoted )
+      {
+        _pos++;
+        if ( c == '"' )
+        {
+          if ( peekChar() == '"' )
+          {
+            // "" is an escaped quote
+            _pos++;
+            append( '"' );
+          }
+          else
+          {
+            quoted = false;
+          }
+        }
+        else
+        {
+          if ( c == '\n' )
+          {
+            _line++;
+          }
+          append( (char) c );
+        }
+      }
+      else if ( c == ',' )
+      {
+        _pos++;
+        return true;
+      }
+      else if ( c == '\r' || c == '\n' )
+      {
+        // the line break is skipped by nextRecord(), so that getLine() is still the line of the record
+        _endOfRecord = true;
+        return true;
+      }
+      else
+      {
+        _pos++;
+        append( (char) c );
+      }
+    }
+  }
+
+  /**
+   * Returns the current field as a String.
+   */
+  String getField()
+  {
+    return new String( _field, 0, _fieldLength );
+  }
+
+  boolean fieldEquals( String value )
+  {
+    if ( value.length() != _fieldLength )
+      return false;
+
+    for ( int i = 0; i < _fieldLength; i++ )
+    {
+      if ( _field[ i ] != value.charAt( i ) )
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the current field as an int, converted without creating a String.
+   */
+  int getInt() throws IOException
+  {
+    int start = 0;
+    boolean negative = false;
+    if ( _fieldLength > 0 && ( _field[ 0 ] == '-' || _field[ 0 ] == '+' ) )
+    {
+      negative = _field[ 0 ] == '-';
+      start = 1;
+    }
+    if ( start == _fieldLength )
+      throw new IOException( "Not a valid number '" + getField() + "' at line " + _line );
+
+    long value = 0;
+    for ( int i = start; i < _fieldLength; i++ )
+    {
+      int digit = _field[ i ] - '0';
+      if ( digit < 0 || digit > 9 || value > Integer.MAX_VALUE )
+        throw new IOException( "Not a valid number '" + getField() + "' at line " + _line );
+
+      value = value * 10 + digit;
+    }
+    value = negative ? -value : value;
+    if ( value < Integer.MIN_VALUE || value > Integer.MAX_VALUE )
+      throw new IOException( "Not a valid number '" + getField() + "' at line " + _line );
+
+    return (int) value;
+  }
+
+  /**
+   * Returns the current field as a double. JMH writes <tt>NaN</tt> for undefined values, e.g. the score error of a
+   * single sample.
+   */
+  double getDouble() throws IOException
+  {
+    if ( fieldEquals( "NaN" ) )
+      return Double.NaN;
+
+    double value = parseExactDouble();
+    if ( value == value )
+      return value;
+
+    try
+    {
+      return Double.parseDouble( getField() );
+    }
+    catch ( NumberFormatException ex )
+    {
+      throw new IOException( "Not a valid number '" + getField() + "' at line " + _line );
+    }
+  }
+
+  /**
+   * Converts a decimal number such as <tt>1234.5678</tt> or <tt>1.5E-4</tt> without creating a String. The digits are
+   * read as a long and scaled by a power of ten: when both are exact doubles, the one division or multiplication rounds
+   * correctly, so the result is the one of {@link Double#parseDouble(String)}.
+   *
+   * @return NaN if the field isn't such a number, or has too many digits or too large an exponent to be converted
+   *         exactly
+   */
+  private double parseExactDouble()
+  {
+    int i = 0;
+    boolean negative = false;
+    if ( _fieldLength > 0 && ( _field[ 0 ] == '-' || _field[ 0 ] == '+' ) )
+    {
+      negative = _field[ 0 ] == '-';
+      i = 1;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int significantDigits = 0;
+    int scale = 0;
+    boolean fraction = false;
+    for ( ; i < _fieldLength; i++ )
+    {
+      char c = _field[ i ];
+      if ( c >= '0' && c <= '9' )
+      {
+        mantissa = mantissa * 10 + ( c - '0' );
+        digits++;
+        if ( mantissa != 0 && ++significantDigits > MAX_EXACT_DIGITS )
+          return Double.NaN;
+        if ( fraction )
+        {
+          scale--;
+        }
+      }
+      else if ( c == '.' && !fraction )
+      {
+        fraction = true;
+      }
+      else
+      {
+        break;
+      }
+    }
+    if ( digits == 0 )
+      return Double.NaN;
+
+    if ( i < _fieldLength )
+    {
+      if ( _field[ i ] != 'e' && _field[ i ] != 'E' )
+        return Double.NaN;
+
+      i++;
+      boolean negativeExponent = false;
+      if ( i < _fieldLength && ( _field[ i ] == '-' || _field[ i ] == '+' ) )
+      {
+        negativeExponent = _field[ i ] == '-';
+        i++;
+      }
+      if ( i == _fieldLength )
+        return Double.NaN;
+
+      int exponent = 0;
+      for ( ; i < _fieldLength; i++ )
+      {
+        char c = _field[ i ];
+        if ( c < '0' || c > '9' || exponent > 1000 )
+          return Double.NaN;
+
+        exponent = exponent * 10 + ( c - '0' );
+      }
+      scale += negativeExponent ? -exponent : exponent;
+    }
+
+    if ( scale < -22 || scale > 22 )
+      return Double.NaN;
+
+    double value = scale < 0 ? mantissa / POWERS_OF_TEN[ -scale ] : mantissa * POWERS_OF_TEN[ scale ];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Returns the line at which the current field ends, for error messages.
+   */
+  int getLine()
+  {
+    return _line;
+  }
+
+  private void append( char c )
+  {
+    if ( _fieldLength == _field.length )
+    {
+      char[] field = new char[ _fieldLength * 2 ];
+      System.arraycopy( _field, 0, field, 0, _fieldLength );
+      _field = field;
+    }
+    _field[ _fieldLength++ ] = c;
+  }
+
+  private void readEndOfLine() throws IOException
+  {
+    if ( peekChar() == '\r' )
+    {
+      _pos++;
+    }
+    if ( peekChar() == '\n' )
+    {
+      _pos++;
+    }
+    _line++;
+  }
+
+  private int peekChar() throws IOException
+  {
+    if ( _pos == _limit )
+    {
+      _pos = 0;
+      _limit = 0;
+      int count = _reader.read( _buffer, 0, _buffer.length );
+      if ( count <= 0 )
+        return -1;
+
+      _limit = count;
+    }
+    return _buffer[ _pos ];
+  }
+}
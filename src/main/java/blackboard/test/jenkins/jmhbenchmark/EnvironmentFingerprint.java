@@ -0,0 +1,293 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * EnvironmentFingerprint describes the environment a benchmark report was produced on: the JVM that ran the benchmarks
+ * (version, VM and the <tt>-X</tt> options of its arguments), taken from the metadata of the JMH JSON output, and the
+ * CPU model, number of available processors and operating system of the node that holds the workspace. A CSV result
+ * file has no JVM metadata, so only the node part is known: a JDK upgrade isn't detected for CSV results.
+ * <p/>
+ * The operating system is identified by its name and architecture. Its version (the kernel on Linux) is described but
+ * isn't part of the identifier, so that a kernel patch of the node doesn't start a new series in the trend.
+ * <p/>
+ * Only the <tt>-X</tt> and <tt>-XX:</tt> arguments of the JVM are part of the fingerprint: they change the heap, the
+ * garbage collector or the compiler, while the other arguments (e.g. agents and system properties) often hold paths
+ * that differ between the executors of the same node.
+ * <p/>
+ * Results of two environments are not compared like-for-like: the trend keeps a series per environment and the
+ * publisher doesn't flag the changes measured against a build of another environment.
+ */
+@ExportedBean( defaultVisibility = 3 )
+public final class EnvironmentFingerprint implements Serializable
+{
+  private static final long serialVersionUID = 5082365127746104928L;
+
+  private final String _jvmVersion;
+  private final String _jvmName;
+  private final String _jvmArgs;
+  private final String _cpuModel;
+  private final int _processors;
+  private final String _os;
+  private final String _osVersion;
+
+  EnvironmentFingerprint( String jvmVersion, String jvmName, String jvmArgs, String cpuModel, int processors,
+                          String os, String osVersion )
+  {
+    _jvmVersion = jvmVersion;
+    _jvmName = jvmName;
+    _jvmArgs = jvmArgs;
+    _cpuModel = cpuModel;
+    _processors = processors;
+    _os = os;
+    _osVersion = osVersion;
+  }
+
+  /**
+   * Returns a fingerprint recorded before the version of the operating system was kept apart, when <tt>os</tt> held
+   * its name, version and architecture separated by spaces.
+   */
+  static EnvironmentFingerprint ofLegacyOs( String jvmVersion, String jvmName, String jvmArgs, String cpuModel,
+                                            int processors, String os )
+  {
+    String osVersion = null;
+    if ( os != null )
+    {
+      int archStart = os.lastIndexOf( ' ' );
+      int versionStart = archStart <= 0 ? -1 : os.lastIndexOf( ' ', archStart - 1 );
+      if ( versionStart > 0 )
+      {
+        osVersion = os.substring( versionStart + 1, archStart );
+        os = os.substring( 0, versionStart ) + os.substring( archStart );
+      }
+    }
+    return new EnvironmentFingerprint( jvmVersion, jvmName, jvmArgs, cpuModel, processors, os, osVersion );
+  }
+
+  /**
+   * Splits the operating system of the fingerprints deserialized from builds recorded before its version was kept
+   * apart.
+   */
+  private Object readResolve()
+  {
+    if ( _osVersion == null && _os != null )
+      return ofLegacyOs( _jvmVersion, _jvmName, _jvmArgs, _cpuModel, _processors, _os );
+
+    return this;
+  }
+
+  /**
+   * Returns the JVM part of a fingerprint, from the metadata of a JMH JSON result.
+   *
+   * @param jvmArgs - the arguments of the benchmark JVM, of which the <tt>-X</tt> options are kept
+   */
+  static EnvironmentFingerprint ofJvm( String jdkVersion, String vmName, String vmVersion, List<String> jvmArgs )
+  {
+    StringBuilder args = new StringBuilder();
+    for ( String arg : jvmArgs )
+    {
+      if ( arg.startsWith( "-X" ) )
+      {
+        args.append( args.length() == 0 ? "" : " " ).append( arg );
+      }
+    }
+    String jvmName = vmName == null ? vmVersion : vmVersion == null ? vmName : vmName + " " + vmVersion;
+    return new EnvironmentFingerprint( jdkVersion, jvmName, args.toString(), null, 0, null, null );
+  }
+
+  /**
+   * Completes the JVM part of a fingerprint, which may be null, with the node this method runs on.
+   */
+  static EnvironmentFingerprint capture( EnvironmentFingerprint jvm )
+  {
+    String os = System.getProperty( "os.name" ) + " " + System.getProperty( "os.arch" );
+    return new EnvironmentFingerprint( jvm == null ? null : jvm._jvmVersion, jvm == null ? null : jvm._jvmName,
+                                       jvm == null ? null : jvm._jvmArgs, readCpuModel(),
+                                       Runtime.getRuntime().availableProcessors(), os,
+                                       System.getProperty( "os.version" ) );
+  }
+
+  /**
+   * Reads the CPU model from <tt>/proc/cpuinfo</tt> on Linux or from the environment on Windows, or returns the
+   * architecture if neither is available.
+   */
+  private static String readCpuModel()
+  {
+    File cpuInfo = new File( "/proc/cpuinfo" );
+    if ( cpuInfo.canRead() )
+    {
+      try
+      {
+        BufferedReader reader =
+          new BufferedReader( new InputStreamReader( new FileInputStream( cpuInfo ), "US-ASCII" ) );
+        try
+        {
+          String line;
+          while ( ( line = reader.readLine() ) != null )
+          {
+            if ( line.startsWith( "model name" ) && line.indexOf( ':' ) > 0 )
+              return line.substring( line.indexOf( ':' ) + 1 ).trim();
+          }
+        }
+        finally
+        {
+          reader.close();
+        }
+      }
+      catch ( IOException ex )
+      {
+        // fall back to the environment
+      }
+    }
+
+    String identifier = System.getenv( "PROCESSOR_IDENTIFIER" );
+    return identifier != null ? identifier : System.getProperty( "os.arch" );
+  }
+
+  /**
+   * Returns whether the results of two environments are comparable like-for-like. An unknown environment, e.g. of a
+   * build recorded before fingerprints were taken, is comparable with any environment.
+   */
+  static boolean isLikeForLike( EnvironmentFingerprint e1, EnvironmentFingerprint e2 )
+  {
+    return e1 == null || e2 == null || e1.getId().equals( e2.getId() );
+  }
+
+  /**
+   * Returns the identifier of the environment, equal for the environments that are comparable like-for-like. It is
+   * the description without the version of the operating system rather than a hash of it, so that two environments
+   * can't collide in the trend.
+   */
+  public String getId()
+  {
+    return describe( false );
+  }
+
+  @Exported
+  public String getJvmVersion()
+  {
+    return _jvmVersion;
+  }
+
+  @Exported
+  public String getJvmName()
+  {
+    return _jvmName;
+  }
+
+  @Exported
+  public String getJvmArgs()
+  {
+    return _jvmArgs;
+  }
+
+  @Exported
+  public String getCpuModel()
+  {
+    return _cpuModel;
+  }
+
+  @Exported
+  public int getProcessors()
+  {
+    return _processors;
+  }
+
+  /**
+   * Returns the name and architecture of the operating system, e.g. <tt>Linux amd64</tt>.
+   */
+  @Exported
+  public String getOs()
+  {
+    return _os;
+  }
+
+  /**
+   * Returns the version of the operating system, e.g. the kernel version on Linux.
+   */
+  @Exported
+  public String getOsVersion()
+  {
+    return _osVersion;
+  }
+
+  /**
+   * Returns a description of the environment, e.g. <tt>JDK 17.0.2 (OpenJDK 64-Bit Server VM 17.0.2+8) -Xmx2g,
+   * Intel(R) Xeon(R) CPU E5-2686 v4 x 8, Linux amd64 (5.15.0-91-generic)</tt>.
+   */
+  public String getDescription()
+  {
+    return describe( true );
+  }
+
+  private String describe( boolean withOsVersion )
+  {
+    StringBuilder sb = new StringBuilder( 150 );
+    if ( _jvmVersion != null || _jvmName != null )
+    {
+      sb.append( "JDK " ).append( _jvmVersion == null ? "?" : _jvmVersion );
+      if ( _jvmName != null )
+      {
+        sb.append( " (" ).append( _jvmName ).append( ')' );
+      }
+      if ( _jvmArgs != null && _jvmArgs.length() > 0 )
+      {
+        sb.append( ' ' ).append( _jvmArgs );
+      }
+    }
+    if ( _cpuModel != null || _os != null )
+    {
+      sb.append( sb.length() == 0 ? "" : ", " ).append( _cpuModel ).append( " x " ).append( _processors );
+      sb.append( ", " ).append( _os );
+      if ( withOsVersion && _osVersion != null )
+      {
+        sb.append( " (" ).append( _osVersion ).append( ')' );
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the differences from another environment, e.g. <tt>JDK: 11.0.2 -&gt; 17.0.2</tt>, empty if the
+   * environments are comparable like-for-like.
+   */
+  public List<String> getDifferences( EnvironmentFingerprint other )
+  {
+    List<String> differences = new ArrayList<String>();
+    if ( isLikeForLike( other, this ) )
+      return differences;
+
+    addDifference( differences, "JDK", other._jvmVersion, _jvmVersion );
+    addDifference( differences, "JVM", other._jvmName, _jvmName );
+    addDifference( differences, "JVM arguments", other._jvmArgs, _jvmArgs );
+    addDifference( differences, "CPU", other._cpuModel, _cpuModel );
+    addDifference( differences, "processors", String.valueOf( other._processors ), String.valueOf( _processors ) );
+    addDifference( differences, "OS", other._os, _os );
+    addDifference( differences, "OS version", other._osVersion, _osVersion );
+    return differences;
+  }
+
+  private static void addDifference( List<String> differences, String name, String from, String to )
+  {
+    if ( from == null ? to != null : !from.equals( to ) )
+    {
+      differences.add( name + ": " + from + " -> " + to );
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getDescription();
+  }
+}
@@ -0,0 +1,36 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+/**
+ * GatingMode decides when a change of a benchmark's score marks it as improved (green) or degraded (red).
+ */
+public enum GatingMode
+{
+  /**
+   * The change of the mean score exceeds the gain or degradation threshold.
+   */
+  THRESHOLD( "Percentage threshold" ),
+  /**
+   * The change of the mean score exceeds the gain or degradation threshold and a significance test finds it
+   * significant: the Mann-Whitney U test of the iteration scores if both builds have them, Welch's t-test computed
+   * from the score error and the number of samples otherwise.
+   */
+  STATISTICAL( "Percentage threshold and significance test" ),
+  /**
+   * The score falls outside the band of the benchmark's expected scores, learnt from its latest builds on the same
+   * environment: the rolling median &#177; k scaled median absolute deviations. The band replaces the thresholds, so
+   * that a noisy benchmark isn't flagged for its usual variation and a stable one is flagged for small changes.
+   */
+  ADAPTIVE( "Adaptive band from the benchmark's history" );
+
+  private final String _displayName;
+
+  private GatingMode( String displayName )
+  {
+    _displayName = displayName;
+  }
+
+  public String getDisplayName()
+  {
+    return _displayName;
+  }
+}
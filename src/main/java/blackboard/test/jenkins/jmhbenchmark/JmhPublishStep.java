@@ -0,0 +1,376 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import jenkins.model.Jenkins;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * JmhPublishStep is the <tt>jmhPublish</tt> Pipeline step. It takes the configuration of {@link BenchmarkPublisher}
+ * with the same defaults, publishes the results the same way and returns the comparison of the build, so that a
+ * pipeline can branch on it without reading the result files again:
+ * <pre>
+ * def jmh = jmhPublish reportFilePattern: '**&#47;build/jmh/*.json', gatingMode: 'STATISTICAL'
+ * if ( !jmh.stable ) {
+ *   echo "Regressed: ${jmh.regressions}"
+ *   echo "p-value: ${jmh.benchmarks[jmh.regressions[0]].pValueFromPrev}"
+ * }
+ * </pre>
+ * The returned map has <tt>buildNumber</tt>, <tt>stable</tt>, the keys of the <tt>regressions</tt> and
+ * <tt>improvements</tt>, and the <tt>benchmarks</tt> keyed by benchmark key, each with the fields of a benchmark in the
+ * remote API. Unknown scores and p-values are null. The step fails if no result file is found.
+ * <p/>
+ * The publisher, and so its state, is created again for every build; the compiled threshold rules and the report of
+ * the baseline build are kept per job by {@link ThresholdRuleMatcher} and {@link ReferenceReportCache} instead.
+ */
+public class JmhPublishStep extends AbstractStepImpl
+{
+  private final String _reportFilePattern;
+  private boolean _copyRawReports;
+  private String _gatingMode = GatingMode.THRESHOLD.name();
+  private double _significanceLevel = 0.01;
+  private int _baselineBuildNumber;
+  private int _rollingBaselineBuilds;
+  private int _performanceDegradationThreshold = -20;
+  private int _performanceIncreaseThreshold = 20;
+  private double _gatingPercentile;
+  private String _referenceJob = "";
+  private String _referenceBuild = ReferenceBuild.LAST_SUCCESSFUL.name();
+  private double _adaptiveBandWidth = 3;
+  private List<ThresholdRule> _thresholdRules = Collections.emptyList();
+  private List<MetricThreshold> _metricThresholds = Collections.emptyList();
+  private int _decimalPlaces = 4;
+
+  /**
+   * Creates a step publishing the result files matching the pattern. The other settings are optional, with the
+   * defaults of the post-build action.
+   */
+  @DataBoundConstructor
+  public JmhPublishStep( String reportFilePattern )
+  {
+    _reportFilePattern = reportFilePattern;
+  }
+
+  public String getReportFilePattern()
+  {
+    return _reportFilePattern;
+  }
+
+  public boolean isCopyRawReports()
+  {
+    return _copyRawReports;
+  }
+
+  @DataBoundSetter
+  public void setCopyRawReports( boolean copyRawReports )
+  {
+    _copyRawReports = copyRawReports;
+  }
+
+  public String getGatingMode()
+  {
+    return _gatingMode;
+  }
+
+  @DataBoundSetter
+  public void setGatingMode( String gatingMode )
+  {
+    _gatingMode = gatingMode;
+  }
+
+  public double getSignificanceLevel()
+  {
+    return _significanceLevel;
+  }
+
+  @DataBoundSetter
+  public void setSignificanceLevel( double significanceLevel )
+  {
+    _significanceLevel = significanceLevel;
+  }
+
+  public int getBaselineBuildNumber()
+  {
+    return _baselineBuildNumber;
+  }
+
+  @DataBoundSetter
+  public void setBaselineBuildNumber( int baselineBuildNumber )
+  {
+    _baselineBuildNumber = baselineBuildNumber;
+  }
+
+  public int getRollingBaselineBuilds()
+  {
+    return _rollingBaselineBuilds;
+  }
+
+  @DataBoundSetter
+  public void setRollingBaselineBuilds( int rollingBaselineBuilds )
+  {
+    _rollingBaselineBuilds = rollingBaselineBuilds;
+  }
+
+  public int getPerformanceDegradationThreshold()
+  {
+    return _performanceDegradationThreshold;
+  }
+
+  @DataBoundSetter
+  public void setPerformanceDegradationThreshold( int performanceDegradationThreshold )
+  {
+    _performanceDegradationThreshold = performanceDegradationThreshold;
+  }
+
+  public int getPerformanceIncreaseThreshold()
+  {
+    return _performanceIncreaseThreshold;
+  }
+
+  @DataBoundSetter
+  public void setPerformanceIncreaseThreshold( int performanceIncreaseThreshold )
+  {
+    _performanceIncreaseThreshold = performanceIncreaseThreshold;
+  }
+
+  public double getGatingPercentile()
+  {
+    return _gatingPercentile;
+  }
+
+  @DataBoundSetter
+  public void setGatingPercentile( double gatingPercentile )
+  {
+    _gatingPercentile = gatingPercentile;
+  }
+
+  public String getReferenceJob()
+  {
+    return _referenceJob;
+  }
+
+  @DataBoundSetter
+  public void setReferenceJob( String referenceJob )
+  {
+    _referenceJob = referenceJob;
+  }
+
+  public String getReferenceBuild()
+  {
+    return _referenceBuild;
+  }
+
+  @DataBoundSetter
+  public void setReferenceBuild( String referenceBuild )
+  {
+    _referenceBuild = referenceBuild;
+  }
+
+  public double getAdaptiveBandWidth()
+  {
+    return _adaptiveBandWidth;
+  }
+
+  @DataBoundSetter
+  public void setAdaptiveBandWidth( double adaptiveBandWidth )
+  {
+    _adaptiveBandWidth = adaptiveBandWidth;
+  }
+
+  public List<ThresholdRule> getThresholdRules()
+  {
+    return _thresholdRules;
+  }
+
+  @DataBoundSetter
+  public void setThresholdRules( List<ThresholdRule> thresholdRules )
+  {
+    _thresholdRules = thresholdRules == null ? Collections.<ThresholdRule>emptyList()
+                                             : new ArrayList<ThresholdRule>( thresholdRules );
+  }
+
+  public List<MetricThreshold> getMetricThresholds()
+  {
+    return _metricThresholds;
+  }
+
+  @DataBoundSetter
+  public void setMetricThresholds( List<MetricThreshold> metricThresholds )
+  {
+    _metricThresholds = metricThresholds == null ? Collections.<MetricThreshold>emptyList()
+                                                 : new ArrayList<MetricThreshold>( metricThresholds );
+  }
+
+  public int getDecimalPlaces()
+  {
+    return _decimalPlaces;
+  }
+
+  @DataBoundSetter
+  public void setDecimalPlaces( int decimalPlaces )
+  {
+    _decimalPlaces = decimalPlaces;
+  }
+
+  BenchmarkPublisher createPublisher()
+  {
+    BenchmarkPublisher publisher = new BenchmarkPublisher( _performanceIncreaseThreshold,
+                                                           _performanceDegradationThreshold, _decimalPlaces,
+                                                           _baselineBuildNumber );
+    publisher.setReportFilePattern( _reportFilePattern == null ? "" : _reportFilePattern );
+    publisher.setCopyRawReports( _copyRawReports );
+    publisher.setGatingMode( _gatingMode );
+    publisher.setSignificanceLevel( _significanceLevel );
+    publisher.setRollingBaselineBuilds( _rollingBaselineBuilds );
+    publisher.setThresholdRules( _thresholdRules );
+    publisher.setMetricThresholds( _metricThresholds );
+    publisher.setGatingPercentile( _gatingPercentile );
+    publisher.setReferenceJob( _referenceJob );
+    publisher.setReferenceBuild( _referenceBuild );
+    publisher.setAdaptiveBandWidth( _adaptiveBandWidth );
+    return publisher;
+  }
+
+  /**
+   * Returns the comparison of a build in the form returned by the step. Only serializable JDK types are used, so that
+   * the value can be kept in the pipeline's state and read from a sandboxed script.
+   */
+  static Map<String, Object> toStepResult( int buildNumber, BenchmarkReport report )
+  {
+    List<String> regressions = new ArrayList<String>();
+    List<String> improvements = new ArrayList<String>();
+    Map<String, Object> benchmarks = new LinkedHashMap<String, Object>();
+    for ( Map.Entry<String, BenchmarkResult> entry : report.getGroupedReport().entrySet() )
+    {
+      BenchmarkResult result = entry.getValue();
+      if ( "red".equals( result.getChangeIndicator() ) )
+      {
+        regressions.add( entry.getKey() );
+      }
+      else if ( "green".equals( result.getChangeIndicator() ) )
+      {
+        improvements.add( entry.getKey() );
+      }
+
+      Map<String, Object> benchmark = new HashMap<String, Object>();
+      benchmark.put( "benchmarkName", result.getBenchmarkName() );
+      benchmark.put( "secondaryMetric", result.getSecondaryMetric() );
+      benchmark.put( "mode", result.getMode() );
+      benchmark.put( "unit", result.getUnit() );
+      benchmark.put( "params", new HashMap<String, String>( result.getParams() ) );
+      benchmark.put( "mean", result.getExportedMean() );
+      benchmark.put( "meanError", result.getExportedMeanError() );
+      benchmark.put( "percentiles", new LinkedHashMap<String, Double>( result.getExportedPercentiles() ) );
+      benchmark.put( "meanChangeFromPrev", result.getMeanChangeFromPrev() );
+      benchmark.put( "meanChangeFromBaseline", result.getMeanChangeFromBaseline() );
+      benchmark.put( "pValueFromPrev", result.getExportedPValueFromPrev() );
+      benchmark.put( "pValueFromBaseline", result.getExportedPValueFromBaseline() );
+      benchmark.put( "changeIndicator", result.getChangeIndicator() );
+      benchmarks.put( entry.getKey(), benchmark );
+    }
+
+    Map<String, Object> stepResult = new HashMap<String, Object>();
+    stepResult.put( "buildNumber", buildNumber );
+    stepResult.put( "stable", regressions.isEmpty() );
+    stepResult.put( "regressions", regressions );
+    stepResult.put( "improvements", improvements );
+    stepResult.put( "benchmarks", benchmarks );
+    return stepResult;
+  }
+
+  public static class Execution extends AbstractSynchronousNonBlockingStepExecution<Map<String, Object>>
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    private transient JmhPublishStep _step;
+    @StepContextParameter
+    private transient Run<?, ?> _run;
+    @StepContextParameter
+    private transient FilePath _workspace;
+    @StepContextParameter
+    private transient TaskListener _listener;
+
+    @Override
+    protected Map<String, Object> run() throws Exception
+    {
+      BenchmarkReport report = _step.createPublisher().publish( _run, _workspace, _listener );
+      if ( report == null )
+        throw new AbortException( "JMH Benchmark: no result file matches " + _step.getReportFilePattern() );
+
+      return toStepResult( _run.getNumber(), report );
+    }
+  }
+
+  /**
+   * Only loaded when Pipeline is installed.
+   */
+  @Extension( optional = true )
+  public static class DescriptorImpl extends AbstractStepDescriptorImpl
+  {
+    public DescriptorImpl()
+    {
+      super( Execution.class );
+    }
+
+    @Override
+    public String getFunctionName()
+    {
+      return "jmhPublish";
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+      return "Publish JMH Test Result";
+    }
+
+    public ListBoxModel doFillGatingModeItems()
+    {
+      return getPublisherDescriptor().doFillGatingModeItems();
+    }
+
+    public ListBoxModel doFillGatingPercentileItems()
+    {
+      return getPublisherDescriptor().doFillGatingPercentileItems();
+    }
+
+    public ListBoxModel doFillReferenceBuildItems()
+    {
+      return getPublisherDescriptor().doFillReferenceBuildItems();
+    }
+
+    /**
+     * Returns the class whose configuration page the step's configuration page includes.
+     */
+    public Class<?> getPublisherClass()
+    {
+      return BenchmarkPublisher.class;
+    }
+
+    private static BenchmarkPublisher.DescriptorImpl getPublisherDescriptor()
+    {
+      return Jenkins.getInstance().getDescriptorByType( BenchmarkPublisher.DescriptorImpl.class );
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.TaskListener;
+import hudson.model.Run;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JsonParser reads the JSON output of JMH (<tt>-rf json</tt>). The file is read with a {@link JsonTokenizer}, one
+ * benchmark at a time, so the memory used doesn't depend on the size of the file. The per-iteration scores
+ * (<tt>rawData</tt>) are kept as a primitive array for the sample comparisons; the histograms of the sample mode are
+ * only counted. The percentiles of the sample mode (<tt>scorePercentiles</tt>) are kept with the result. JMH also
+ * writes percentiles of the iteration scores for the other modes; those are dropped, so that only the sample mode has
+ * percentile trends and gates.
+ * <p/>
+ * The benchmarks are reported with the same columns as the CSV output: each primary metric becomes a
+ * {@link BenchmarkResult} and each secondary metric (e.g. <tt>-prof gc</tt>) a result named
+ * <tt>benchmark:metric</tt>.
+ * <p/>
+ * The JVM of the first benchmark (<tt>jdkVersion</tt>, <tt>vmName</tt>, <tt>vmVersion</tt> and <tt>jvmArgs</tt>) is
+ * kept as the JVM part of the report's {@link EnvironmentFingerprint}.
+ */
+public class JsonParser extends ReportParser
+{
+  private static final String SAMPLE_MODE = "sample";
+  private static final String[] COLUMNS = { "Benchmark", "Mode", "Threads", "Samples", "Score",
+                                            "Score Error (99.9%)", "Unit" };
+
+  private EnvironmentFingerprint _jvm;
+
+  public JsonParser()
+  {
+  }
+
+  public BenchmarkReport parse( Run<?, ?> build, File reportFile, TaskListener listener ) throws IOException
+  {
+    PrintStream logger = null;
+    if ( listener != null )
+    {
+      logger = listener.getLogger();
+      logger.println( "Parsing the file : " + reportFile.getName() );
+    }
+
+    final BenchmarkReport report = new BenchmarkReport();
+    Set<String> paramColumns = new LinkedHashSet<String>();
+
+    BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( reportFile ), "UTF-8" ) );
+    try
+    {
+      JsonTokenizer tokenizer = new JsonTokenizer( reader );
+      if ( tokenizer.peek() != JsonTokenizer.Token.BEGIN_ARRAY )
+        throw new IOException( reportFile.getName() + " is not a JMH JSON result file" );
+
+      tokenizer.beginArray();
+      while ( tokenizer.hasNext() )
+      {
+        for ( BenchmarkResult result : getBenchmarks( tokenizer ) )
+        {
+          paramColumns.addAll( result.getParams().keySet() );
+          report.addBenchmarkResult( result.getKey(), result );
+        }
+      }
+      tokenizer.endArray();
+    }
+    finally
+    {
+      reader.close();
+    }
+
+    List<String> header = new ArrayList<String>();
+    for ( String column : COLUMNS )
+    {
+      header.add( column );
+    }
+    header.addAll( paramColumns );
+    header.add( IMPROVEMENT_IN_MEAN_HEADER_NAME );
+    report.setHeader( header );
+    report.setEnvironment( _jvm );
+
+    return report;
+  }
+
+  /**
+   * Reads one element of the JMH result array: the primary metric followed by the secondary metrics, if any.
+   */
+  private List<BenchmarkResult> getBenchmarks( JsonTokenizer tokenizer ) throws IOException
+  {
+    String benchmarkName = null;
+    String mode = null;
+    int threads = 0;
+    int forks = 0;
+    int measurementIterations = 0;
+    String jdkVersion = null;
+    String vmName = null;
+    String vmVersion = null;
+    List<String> jvmArgs = new ArrayList<String>();
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    BenchmarkResult primary = null;
+    Map<String, BenchmarkResult> secondaries = new LinkedHashMap<String, BenchmarkResult>();
+
+    tokenizer.beginObject();
+    while ( tokenizer.hasNext() )
+    {
+      String name = tokenizer.nextName();
+      if ( name.equals( "benchmark" ) )
+      {
+        benchmarkName = tokenizer.nextString();
+      }
+      else if ( name.equals( "mode" ) )
+      {
+        mode = tokenizer.nextString();
+      }
+      else if ( name.equals( "threads" ) )
+      {
+        threads = tokenizer.nextInt();
+      }
+      else if ( name.equals( "forks" ) )
+      {
+        forks = tokenizer.nextInt();
+      }
+      else if ( name.equals( "measurementIterations" ) )
+      {
+        measurementIterations = tokenizer.nextInt();
+      }
+      else if ( name.equals( "jdkVersion" ) )
+      {
+        jdkVersion = tokenizer.nextString();
+      }
+      else if ( name.equals( "vmName" ) )
+      {
+        vmName = tokenizer.nextString();
+      }
+      else if ( name.equals( "vmVersion" ) )
+      {
+        vmVersion = tokenizer.nextString();
+      }
+      else if ( name.equals( "jvmArgs" ) )
+      {
+        tokenizer.beginArray();
+        while ( tokenizer.hasNext() )
+        {
+          jvmArgs.add( tokenizer.nextString() );
+        }
+        tokenizer.endArray();
+      }
+      else if ( name.equals( "params" ) )
+      {
+        tokenizer.beginObject();
+        while ( tokenizer.hasNext() )
+        {
+          String paramName = tokenizer.nextName();
+          params.put( "Param: " + paramName, tokenizer.nextString() );
+        }
+        tokenizer.endObject();
+      }
+      else if ( name.equals( "primaryMetric" ) )
+      {
+        primary = getMetric( tokenizer );
+      }
+      else if ( name.equals( "secondaryMetrics" ) )
+      {
+        tokenizer.beginObject();
+        while ( tokenizer.hasNext() )
+        {
+          String metricName = tokenizer.nextName();
+          secondaries.put( metricName, getMetric( tokenizer ) );
+        }
+        tokenizer.endObject();
+      }
+      else
+      {
+        tokenizer.skipValue();
+      }
+    }
+    tokenizer.endObject();
+
+    if ( benchmarkName == null || primary == null )
+      throw new IOException( "Benchmark without a name or a primary metric" );
+
+    if ( _jvm == null && ( jdkVersion != null || vmName != null ) )
+    {
+      _jvm = EnvironmentFingerprint.ofJvm( jdkVersion, vmName, vmVersion, jvmArgs );
+    }
+
+    List<BenchmarkResult> results = new ArrayList<BenchmarkResult>( 1 + secondaries.size() );
+    primary.setBenchmarkName( benchmarkName );
+    results.add( primary );
+    for ( Map.Entry<String, BenchmarkResult> entry : secondaries.entrySet() )
+    {
+      BenchmarkResult secondary = entry.getValue();
+      secondary.setBenchmarkName( benchmarkName + ":" + entry.getKey() );
+      results.add( secondary );
+    }
+
+    for ( BenchmarkResult result : results )
+    {
+      result.setShortBenchmarkName( getShortName( result.getBenchmarkName() ) );
+      result.setMode( mode );
+      result.setThreads( threads );
+      if ( !SAMPLE_MODE.equals( mode ) )
+      {
+        result.clearPercentiles();
+      }
+      if ( result.getSamples() == 0 )
+      {
+        result.setSamples( forks * measurementIterations );
+      }
+      for ( Map.Entry<String, String> param : params.entrySet() )
+      {
+        result.addParams( param.getKey(), param.getValue() );
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Reads a primary or secondary metric: <tt>{"score": ..., "scoreError": ..., "scoreUnit": ..., "scorePercentiles":
+   * {"50.0": ..., ...}, "rawData": ...}</tt>.
+   * The number of samples is the number of raw data points, or the sum of the histogram counts in sample mode.
+   */
+  private BenchmarkResult getMetric( JsonTokenizer tokenizer ) throws IOException
+  {
+    BenchmarkResult result = new BenchmarkResult();
+
+    tokenizer.beginObject();
+    while ( tokenizer.hasNext() )
+    {
+      String name = tokenizer.nextName();
+      if ( name.equals( "score" ) )
+      {
+        result.setMean( tokenizer.nextDouble() );
+      }
+      else if ( name.equals( "scoreError" ) )
+      {
+        double scoreError = tokenizer.nextDouble();
+        if ( !Double.isNaN( scoreError ) )
+        {
+          result.setMeanError( scoreError );
+        }
+      }
+      else if ( name.equals( "scoreUnit" ) )
+      {
+        result.setUnit( tokenizer.nextString() );
+      }
+      else if ( name.equals( "scorePercentiles" ) )
+      {
+        tokenizer.beginObject();
+        while ( tokenizer.hasNext() )
+        {
+          double percentile = Double.parseDouble( tokenizer.nextName() );
+          result.addPercentile( percentile, tokenizer.nextDouble() );
+        }
+        tokenizer.endObject();
+      }
+      else if ( name.equals( "rawData" ) )
+      {
+        double[] rawSamples = getRawData( tokenizer );
+        result.setSamples( rawSamples.length );
+        result.setRawSamples( rawSamples );
+      }
+      else if ( name.equals( "rawDataHistogram" ) )
+      {
+        result.setSamples( countRawDataHistogram( tokenizer ) );
+      }
+      else
+      {
+        tokenizer.skipValue();
+      }
+    }
+    tokenizer.endObject();
+
+    return result;
+  }
+
+  /**
+   * Reads the values of <tt>[[fork 1 iteration 1, ...], [fork 2 iteration 1, ...]]</tt>.
+   */
+  private double[] getRawData( JsonTokenizer tokenizer ) throws IOException
+  {
+    double[] values = new double[ 16 ];
+    int count = 0;
+    tokenizer.beginArray();
+    while ( tokenizer.hasNext() )
+    {
+      tokenizer.beginArray();
+      while ( tokenizer.hasNext() )
+      {
+        if ( count == values.length )
+        {
+          values = Arrays.copyOf( values, count * 2 );
+        }
+        values[ count++ ] = tokenizer.nextDouble();
+      }
+      tokenizer.endArray();
+    }
+    tokenizer.endArray();
+    return Arrays.copyOf( values, count );
+  }
+
+  /**
+   * Sums the counts of <tt>[[[[value, count], ...] per iteration] per fork]</tt>.
+   */
+  private int countRawDataHistogram( JsonTokenizer tokenizer ) throws IOException
+  {
+    long count = 0;
+    tokenizer.beginArray();
+    while ( tokenizer.hasNext() )
+    {
+      tokenizer.beginArray();
+      while ( tokenizer.hasNext() )
+      {
+        tokenizer.beginArray();
+        while ( tokenizer.hasNext() )
+        {
+          tokenizer.beginArray();
+          tokenizer.skipValue();
+          count += (long) tokenizer.nextDouble();
+          tokenizer.endArray();
+        }
+        tokenizer.endArray();
+      }
+      tokenizer.endArray();
+    }
+    tokenizer.endArray();
+    return (int) Math.min( count, Integer.MAX_VALUE );
+  }
+}
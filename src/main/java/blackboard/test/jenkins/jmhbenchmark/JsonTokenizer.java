@@ -0,0 +1,374 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * JsonTokenizer is a pull tokenizer for JSON documents. It reads the document through a fixed size buffer and never
+ * holds more than the current token in memory, so large documents (e.g. JMH results with raw iteration data) can be
+ * read in constant memory. Values that are not needed are skipped with {@link #skipValue()} without being converted.
+ */
+final class JsonTokenizer
+{
+  enum Token
+  {
+    BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+  }
+
+  private final Reader _reader;
+  private final char[] _buffer = new char[ 8192 ];
+  private int _pos;
+  private int _limit;
+  private long _offset;
+
+  // the text of the current string, name, number or literal token; reused for every token
+  private final StringBuilder _text = new StringBuilder( 64 );
+  private Token _peeked;
+
+  // true for each enclosing object, false for each enclosing array
+  private boolean[] _scopes = new boolean[ 32 ];
+  private int _depth;
+  private boolean _expectName;
+
+  JsonTokenizer( Reader reader )
+  {
+    _reader = reader;
+  }
+
+  /**
+   * Returns the type of the next token without consuming it.
+   */
+  Token peek() throws IOException
+  {
+    if ( _peeked != null )
+      return _peeked;
+
+    int c = nextSignificantChar();
+    switch ( c )
+    {
+      case -1:
+        _peeked = Token.END_DOCUMENT;
+        break;
+      case '{':
+        push( true );
+        _expectName = true;
+        _peeked = Token.BEGIN_OBJECT;
+        break;
+      case '}':
+        pop( true );
+        _peeked = Token.END_OBJECT;
+        break;
+      case '[':
+        push( false );
+        _expectName = false;
+        _peeked = Token.BEGIN_ARRAY;
+        break;
+      case ']':
+        pop( false );
+        _peeked = Token.END_ARRAY;
+        break;
+      case '"':
+        readString();
+        if ( _depth > 0 && _scopes[ _depth - 1 ] && _expectName )
+        {
+          _expectName = false;
+          _peeked = Token.NAME;
+        }
+        else
+        {
+          _peeked = Token.STRING;
+        }
+        break;
+      default:
+        readLiteral( (char) c );
+        String literal = _text.toString();
+        if ( literal.equals( "true" ) || literal.equals( "false" ) )
+        {
+          _peeked = Token.BOOLEAN;
+        }
+        else if ( literal.equals( "null" ) )
+        {
+          _peeked = Token.NULL;
+        }
+        else
+        {
+          _peeked = Token.NUMBER;
+        }
+    }
+    return _peeked;
+  }
+
+  /**
+   * Returns whether the current array or object has another element.
+   */
+  boolean hasNext() throws IOException
+  {
+    Token token = peek();
+    return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+  }
+
+  void beginObject() throws IOException
+  {
+    expect( Token.BEGIN_OBJECT );
+  }
+
+  void endObject() throws IOException
+  {
+    expect( Token.END_OBJECT );
+  }
+
+  void beginArray() throws IOException
+  {
+    expect( Token.BEGIN_ARRAY );
+  }
+
+  void endArray() throws IOException
+  {
+    expect( Token.END_ARRAY );
+  }
+
+  String nextName() throws IOException
+  {
+    expect( Token.NAME );
+    return _text.toString();
+  }
+
+  /**
+   * Returns the next string value. Numbers, booleans and null are returned as their literal text.
+   */
+  String nextString() throws IOException
+  {
+    Token token = peek();
+    if ( token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN && token != Token.NULL )
+      throw syntaxError( "Expected a string but was " + token );
+
+    _peeked = null;
+    return _text.toString();
+  }
+
+  /**
+   * Returns the next number. Strings such as <tt>"NaN"</tt> or <tt>"Infinity"</tt>, used by JMH for non-finite
+   * values, are accepted as well.
+   */
+  double nextDouble() throws IOException
+  {
+    Token token = peek();
+    if ( token != Token.NUMBER && token != Token.STRING )
+      throw syntaxError( "Expected a number but was " + token );
+
+    _peeked = null;
+    try
+    {
+      return Double.parseDouble( _text.toString() );
+    }
+    catch ( NumberFormatException ex )
+    {
+      throw syntaxError( "Not a valid number: " + _text );
+    }
+  }
+
+  int nextInt() throws IOException
+  {
+    double value = nextDouble();
+    int intValue = (int) value;
+    if ( intValue != value )
+      throw syntaxError( "Not an integer: " + value );
+
+    return intValue;
+  }
+
+  /**
+   * Consumes the next value, including every nested array and object.
+   */
+  void skipValue() throws IOException
+  {
+    int depth = 0;
+    do
+    {
+      Token token = peek();
+      _peeked = null;
+      if ( token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY )
+      {
+        depth++;
+      }
+      else if ( token == Token.END_OBJECT || token == Token.END_ARRAY )
+      {
+        depth--;
+      }
+      else if ( token == Token.END_DOCUMENT )
+      {
+        throw syntaxError( "Unexpected end of document" );
+      }
+    }
+    while ( depth > 0 );
+  }
+
+  private void expect( Token expected ) throws IOException
+  {
+    Token token = peek();
+    if ( token != expected )
+      throw syntaxError( "Expected " + expected + " but was " + token );
+
+    _peeked = null;
+  }
+
+  private void push( boolean object )
+  {
+    if ( _depth == _scopes.length )
+    {
+      boolean[] scopes = new boolean[ _depth * 2 ];
+      System.arraycopy( _scopes, 0, scopes, 0, _depth );
+      _scopes = scopes;
+    }
+    _scopes[ _depth++ ] = object;
+  }
+
+  private void pop( boolean object ) throws IOException
+  {
+    if ( _depth == 0 || _scopes[ _depth - 1 ] != object )
+      throw syntaxError( "Unexpected " + ( object ? "'}'" : "']'" ) );
+
+    _depth--;
+    _expectName = false;
+  }
+
+  /**
+   * Returns the next character that starts a token. Separators only update the name/value state since the structure
+   * of the document is tracked by the scopes.
+   */
+  private int nextSignificantChar() throws IOException
+  {
+    while ( true )
+    {
+      int c = read();
+      switch ( c )
+      {
+        case ' ':
+        case '\t':
+        case '\r':
+        case '\n':
+          break;
+        case ',':
+          _expectName = _depth > 0 && _scopes[ _depth - 1 ];
+          break;
+        case ':':
+          _expectName = false;
+          break;
+        default:
+          return c;
+      }
+    }
+  }
+
+  private void readString() throws IOException
+  {
+    _text.setLength( 0 );
+    while ( true )
+    {
+      // copy unescaped runs straight from the buffer
+      int start = _pos;
+      while ( _pos < _limit )
+      {
+        char c = _buffer[ _pos ];
+        if ( c == '"' || c == '\\' )
+          break;
+        _pos++;
+      }
+      _text.append( _buffer, start, _pos - start );
+      if ( _pos == _limit )
+      {
+        if ( !fill() )
+          throw syntaxError( "Unterminated string" );
+        continue;
+      }
+
+      // a quote or a backslash
+      if ( _buffer[ _pos++ ] == '"' )
+        return;
+      readEscape();
+    }
+  }
+
+  private void readEscape() throws IOException
+  {
+    int c = read();
+    switch ( c )
+    {
+      case 'b':
+        _text.append( '\b' );
+        break;
+      case 'f':
+        _text.append( '\f' );
+        break;
+      case 'n':
+        _text.append( '\n' );
+        break;
+      case 'r':
+        _text.append( '\r' );
+        break;
+      case 't':
+        _text.append( '\t' );
+        break;
+      case 'u':
+        int code = 0;
+        for ( int i = 0; i < 4; i++ )
+        {
+          int digit = Character.digit( read(), 16 );
+          if ( digit < 0 )
+            throw syntaxError( "Invalid unicode escape" );
+          code = code * 16 + digit;
+        }
+        _text.append( (char) code );
+        break;
+      case -1:
+        throw syntaxError( "Unterminated escape sequence" );
+      default:
+        // \" \\ \/
+        _text.append( (char) c );
+    }
+  }
+
+  private void readLiteral( char first ) throws IOException
+  {
+    _text.setLength( 0 );
+    _text.append( first );
+    while ( true )
+    {
+      if ( _pos == _limit && !fill() )
+        return;
+
+      char c = _buffer[ _pos ];
+      if ( c == ',' || c == ':' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n' )
+        return;
+
+      _text.append( c );
+      _pos++;
+    }
+  }
+
+  private int read() throws IOException
+  {
+    if ( _pos == _limit && !fill() )
+      return -1;
+
+    return _buffer[ _pos++ ];
+  }
+
+  private boolean fill() throws IOException
+  {
+    _offset += _limit;
+    _pos = 0;
+    _limit = 0;
+    int count = _reader.read( _buffer, 0, _buffer.length );
+    if ( count <= 0 )
+      return false;
+
+    _limit = count;
+    return true;
+  }
+
+  private IOException syntaxError( String message )
+  {
+    return new IOException( message + " at character " + ( _offset + _pos ) );
+  }
+}
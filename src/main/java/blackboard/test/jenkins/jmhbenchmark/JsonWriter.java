@@ -0,0 +1,172 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * JsonWriter writes compact JSON to a {@link Writer} as it goes, so that large trends are never built in memory as a
+ * tree. It doesn't check that the calls form a valid document: names and values must be written in a valid order.
+ */
+final class JsonWriter
+{
+  private final Writer _out;
+  private boolean _needsComma;
+
+  JsonWriter( Writer out )
+  {
+    _out = out;
+  }
+
+  JsonWriter beginObject() throws IOException
+  {
+    beforeValue();
+    _out.write( '{' );
+    _needsComma = false;
+    return this;
+  }
+
+  JsonWriter endObject() throws IOException
+  {
+    _out.write( '}' );
+    _needsComma = true;
+    return this;
+  }
+
+  JsonWriter beginArray() throws IOException
+  {
+    beforeValue();
+    _out.write( '[' );
+    _needsComma = false;
+    return this;
+  }
+
+  JsonWriter endArray() throws IOException
+  {
+    _out.write( ']' );
+    _needsComma = true;
+    return this;
+  }
+
+  JsonWriter name( String name ) throws IOException
+  {
+    beforeValue();
+    writeString( name );
+    _out.write( ':' );
+    _needsComma = false;
+    return this;
+  }
+
+  JsonWriter value( String value ) throws IOException
+  {
+    if ( value == null )
+      return nullValue();
+
+    beforeValue();
+    writeString( value );
+    _needsComma = true;
+    return this;
+  }
+
+  JsonWriter value( long value ) throws IOException
+  {
+    beforeValue();
+    _out.write( Long.toString( value ) );
+    _needsComma = true;
+    return this;
+  }
+
+  JsonWriter value( boolean value ) throws IOException
+  {
+    beforeValue();
+    _out.write( value ? "true" : "false" );
+    _needsComma = true;
+    return this;
+  }
+
+  /**
+   * Writes a number, or null for NaN and infinities, which JSON can't represent. Whole numbers are written without a
+   * fraction to keep the output short.
+   */
+  JsonWriter value( double value ) throws IOException
+  {
+    if ( Double.isNaN( value ) || Double.isInfinite( value ) )
+      return nullValue();
+
+    beforeValue();
+    if ( value == Math.rint( value ) && Math.abs( value ) < 1e15 )
+    {
+      _out.write( Long.toString( (long) value ) );
+    }
+    else
+    {
+      _out.write( Double.toString( value ) );
+    }
+    _needsComma = true;
+    return this;
+  }
+
+  JsonWriter nullValue() throws IOException
+  {
+    beforeValue();
+    _out.write( "null" );
+    _needsComma = true;
+    return this;
+  }
+
+  void flush() throws IOException
+  {
+    _out.flush();
+  }
+
+  private void beforeValue() throws IOException
+  {
+    if ( _needsComma )
+    {
+      _out.write( ',' );
+    }
+  }
+
+  private void writeString( String value ) throws IOException
+  {
+    _out.write( '"' );
+    int start = 0;
+    for ( int i = 0; i < value.length(); i++ )
+    {
+      char c = value.charAt( i );
+      String escaped;
+      if ( c == '"' )
+      {
+        escaped = "\\\"";
+      }
+      else if ( c == '\\' )
+      {
+        escaped = "\\\\";
+      }
+      else if ( c == '\n' )
+      {
+        escaped = "\\n";
+      }
+      else if ( c == '\r' )
+      {
+        escaped = "\\r";
+      }
+      else if ( c == '\t' )
+      {
+        escaped = "\\t";
+      }
+      else if ( c < 0x20 || c == '\u2028' || c == '\u2029' )
+      {
+        escaped = String.format( "\\u%04x", (int) c );
+      }
+      else
+      {
+        continue;
+      }
+      _out.write( value, start, i - start );
+      _out.write( escaped );
+      start = i + 1;
+    }
+    _out.write( value, start, value.length() - start );
+    _out.write( '"' );
+  }
+}
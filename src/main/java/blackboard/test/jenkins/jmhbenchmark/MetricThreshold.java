@@ -0,0 +1,72 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * MetricThreshold gates a secondary metric of the benchmarks, e.g. <tt>gc.alloc.rate.norm</tt> reported by JMH's
+ * <tt>-prof gc</tt>. Lower values are better for the metrics of JMH's profilers, so a benchmark is marked as degraded
+ * when the metric grows by more than the given amount, in the unit of the metric (e.g. B/op), compared to the previous
+ * or baseline build. An absolute amount is used because these metrics are often 0, where a percentage is meaningless.
+ */
+public class MetricThreshold extends AbstractDescribableImpl<MetricThreshold>
+{
+  private final String _metric;
+  private final double _maxIncrease;
+
+  @DataBoundConstructor
+  public MetricThreshold( String metric, double maxIncrease )
+  {
+    _metric = metric;
+    _maxIncrease = maxIncrease;
+  }
+
+  /**
+   * Returns the name of the secondary metric as written by JMH, without the leading middle dot.
+   */
+  public String getMetric()
+  {
+    return BenchmarkResult.getMetricName( _metric == null ? "" : _metric.trim() );
+  }
+
+  public double getMaxIncrease()
+  {
+    return _maxIncrease;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<MetricThreshold>
+  {
+    public String getDisplayName()
+    {
+      return "Secondary Metric Threshold";
+    }
+
+    public FormValidation doCheckMetric( @QueryParameter String metric )
+    {
+      if ( metric.trim().length() == 0 )
+        return FormValidation.error( "The name of a secondary metric is required, e.g. gc.alloc.rate.norm" );
+
+      return FormValidation.ok();
+    }
+
+    public FormValidation doCheckMaxIncrease( @QueryParameter String maxIncrease )
+    {
+      try
+      {
+        if ( Double.parseDouble( maxIncrease ) < 0 )
+          return FormValidation.error( "Must not be negative" );
+      }
+      catch ( NumberFormatException ex )
+      {
+        return FormValidation.error( "Not a valid number" );
+      }
+      return FormValidation.ok();
+    }
+  }
+}
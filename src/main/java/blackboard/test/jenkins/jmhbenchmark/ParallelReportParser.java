@@ -0,0 +1,170 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelReportParser parses several JMH result files concurrently, each with the {@link ReportParser} matching its
+ * format, and merges them into one {@link BenchmarkReport}. The header of the merged report is the union of the
+ * headers of every file. A benchmark key found more than once, in one file or in several files, is reported as a
+ * duplicate and only its first occurrence (in the order of the files) is kept, as is the JVM of the first file that has
+ * one.
+ */
+public class ParallelReportParser
+{
+  private final File _baseDir;
+  private final TaskListener _listener;
+  private final List<String> _duplicates = new ArrayList<String>();
+
+  /**
+   * @param baseDir - the directory the result files are reported relative to
+   * @param listener - the listener to log to, may be null
+   */
+  public ParallelReportParser( File baseDir, TaskListener listener )
+  {
+    _baseDir = baseDir;
+    _listener = listener;
+  }
+
+  /**
+   * Returns a description of each duplicate benchmark found by the last call to {@link #parse(List)}.
+   */
+  public List<String> getDuplicates()
+  {
+    return _duplicates;
+  }
+
+  public BenchmarkReport parse( List<File> reportFiles ) throws IOException, InterruptedException
+  {
+    _duplicates.clear();
+    List<BenchmarkReport> reports = new ArrayList<BenchmarkReport>( reportFiles.size() );
+    if ( reportFiles.size() == 1 )
+    {
+      File reportFile = reportFiles.get( 0 );
+      reports.add( ReportParser.forFile( reportFile.getName() ).parse( null, reportFile, _listener ) );
+    }
+    else
+    {
+      int threads = Math.min( reportFiles.size(), Runtime.getRuntime().availableProcessors() );
+      ExecutorService executor = Executors.newFixedThreadPool( threads );
+      try
+      {
+        List<Future<BenchmarkReport>> futures = new ArrayList<Future<BenchmarkReport>>( reportFiles.size() );
+        for ( final File reportFile : reportFiles )
+        {
+          futures.add( executor.submit( new Callable<BenchmarkReport>()
+            {
+              public BenchmarkReport call() throws IOException
+              {
+                return ReportParser.forFile( reportFile.getName() ).parse( null, reportFile, _listener );
+              }
+            } ) );
+        }
+        for ( Future<BenchmarkReport> future : futures )
+        {
+          reports.add( getReport( future ) );
+        }
+      }
+      finally
+      {
+        executor.shutdownNow();
+      }
+    }
+
+    for ( int i = 0; i < reports.size(); i++ )
+    {
+      for ( String duplicate : reports.get( i ).getDuplicates() )
+      {
+        _duplicates.add( duplicate + " in " + getDisplayName( reportFiles.get( i ) ) );
+      }
+    }
+    return merge( reportFiles, reports );
+  }
+
+  private static BenchmarkReport getReport( Future<BenchmarkReport> future ) throws IOException, InterruptedException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch ( ExecutionException ex )
+    {
+      Throwable cause = ex.getCause();
+      if ( cause instanceof IOException )
+        throw (IOException) cause;
+      if ( cause instanceof RuntimeException )
+        throw (RuntimeException) cause;
+      throw new IOException( cause );
+    }
+  }
+
+  private BenchmarkReport merge( List<File> reportFiles, List<BenchmarkReport> reports )
+  {
+    if ( reports.size() == 1 )
+      return reports.get( 0 );
+
+    BenchmarkReport merged = new BenchmarkReport();
+    Set<String> header = new LinkedHashSet<String>();
+    Map<String, File> sources = new HashMap<String, File>();
+    for ( int i = 0; i < reports.size(); i++ )
+    {
+      File reportFile = reportFiles.get( i );
+      BenchmarkReport report = reports.get( i );
+      header.addAll( report.getHeader() );
+      if ( merged.getEnvironment() == null )
+      {
+        merged.setEnvironment( report.getEnvironment() );
+      }
+
+      for ( Map.Entry<String, BenchmarkResult> entry : report.getReport().entrySet() )
+      {
+        File source = sources.get( entry.getKey() );
+        if ( source != null )
+        {
+          _duplicates.add( entry.getKey() + " in " + getDisplayName( reportFile ) + " (already in "
+                           + getDisplayName( source ) + ")" );
+          continue;
+        }
+        sources.put( entry.getKey(), reportFile );
+        merged.addBenchmarkResult( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    // the improvement column comes last, after the params of every file
+    header.remove( ReportParser.IMPROVEMENT_IN_MEAN_HEADER_NAME );
+    for ( String column : header )
+    {
+      merged.addHeaderColumn( column );
+    }
+    merged.addHeaderColumn( ReportParser.IMPROVEMENT_IN_MEAN_HEADER_NAME );
+
+    if ( _listener != null )
+    {
+      PrintStream logger = _listener.getLogger();
+      logger.println( "JMH Benchmark: merged " + merged.getReport().size() + " benchmarks from " + reports.size()
+                      + " files." );
+    }
+    return merged;
+  }
+
+  private String getDisplayName( File reportFile )
+  {
+    String path = reportFile.getPath();
+    String basePath = _baseDir.getPath() + File.separator;
+    return path.startsWith( basePath ) ? path.substring( basePath.length() ) : path;
+  }
+}
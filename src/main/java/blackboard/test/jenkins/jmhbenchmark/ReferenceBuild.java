@@ -0,0 +1,62 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+/**
+ * ReferenceBuild selects the build of a reference job whose report the benchmarks are compared with, e.g. the latest
+ * successful build of the main branch for the builds of a feature branch.
+ */
+public enum ReferenceBuild
+{
+  /**
+   * The latest build that succeeded or is unstable.
+   */
+  LAST_SUCCESSFUL( "Last successful build" )
+  {
+    @Override
+    Run<?, ?> select( Job<?, ?> job )
+    {
+      return job.getLastSuccessfulBuild();
+    }
+  },
+  /**
+   * The latest build that succeeded, i.e. without a degraded benchmark.
+   */
+  LAST_STABLE( "Last stable build" )
+  {
+    @Override
+    Run<?, ?> select( Job<?, ?> job )
+    {
+      return job.getLastStableBuild();
+    }
+  },
+  /**
+   * The latest completed build, whatever its result.
+   */
+  LAST_COMPLETED( "Last completed build" )
+  {
+    @Override
+    Run<?, ?> select( Job<?, ?> job )
+    {
+      return job.getLastCompletedBuild();
+    }
+  };
+
+  private final String _displayName;
+
+  private ReferenceBuild( String displayName )
+  {
+    _displayName = displayName;
+  }
+
+  public String getDisplayName()
+  {
+    return _displayName;
+  }
+
+  /**
+   * Returns the selected build of the job, or null if it has none.
+   */
+  abstract Run<?, ?> select( Job<?, ?> job );
+}
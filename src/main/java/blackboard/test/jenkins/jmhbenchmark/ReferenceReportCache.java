@@ -0,0 +1,77 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.model.Run;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ReferenceReportCache keeps the reports of the reference builds the benchmarks of other jobs are compared with, e.g.
+ * the latest build of the main branch for every feature branch job. The cache is shared by all publishers, so that a
+ * burst of branch builds reads the reference report once, and holds the report of the latest reference build of at
+ * most 16 jobs, evicting the least recently used job first. The limit can be changed with the
+ * <tt>blackboard.test.jenkins.jmhbenchmark.ReferenceReportCache.maxJobs</tt> system property.
+ * <p/>
+ * The reports of the fixed baseline builds are kept in a second cache of the same size, keyed by the job of the
+ * baseline build, so that a job compared with its own baseline and used as the reference of other jobs doesn't evict
+ * one report with the other.
+ */
+final class ReferenceReportCache
+{
+  private static final int MAX_JOBS = Integer.getInteger( ReferenceReportCache.class.getName() + ".maxJobs", 16 );
+  private static final ReferenceReportCache INSTANCE = new ReferenceReportCache( MAX_JOBS );
+  private static final ReferenceReportCache BASELINE_INSTANCE = new ReferenceReportCache( MAX_JOBS );
+
+  private final LinkedHashMap<String, BenchmarkPublisher.BaselineReport> _reports;
+
+  ReferenceReportCache( final int maxJobs )
+  {
+    _reports = new LinkedHashMap<String, BenchmarkPublisher.BaselineReport>( 16, 0.75f, true )
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, BenchmarkPublisher.BaselineReport> eldest )
+        {
+          return size() > maxJobs;
+        }
+      };
+  }
+
+  static ReferenceReportCache getInstance()
+  {
+    return INSTANCE;
+  }
+
+  static ReferenceReportCache getBaselineInstance()
+  {
+    return BASELINE_INSTANCE;
+  }
+
+  /**
+   * Returns the benchmark results of a reference build, or null if the build didn't publish any. The report is read
+   * again only when the build isn't the one cached for its job anymore, e.g. because the job has a newer build.
+   */
+  Map<String, BenchmarkResult> get( Run<?, ?> build )
+  {
+    String jobName = build.getParent().getFullName();
+    synchronized ( this )
+    {
+      BenchmarkPublisher.BaselineReport cached = _reports.get( jobName );
+      if ( cached != null && cached.isReportOf( build ) )
+        return cached.getReport();
+    }
+
+    // builds that load the same report concurrently wait for each other on the build action, which keeps it in memory
+    BenchmarkBuildAction buildAction = build.getAction( BenchmarkBuildAction.class );
+    if ( buildAction == null )
+      return null;
+
+    Map<String, BenchmarkResult> report = buildAction.getPerformanceReport().getReport();
+    synchronized ( this )
+    {
+      _reports.put( jobName, new BenchmarkPublisher.BaselineReport( build, report ) );
+    }
+    return report;
+  }
+}
@@ -0,0 +1,104 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReportIngestCallable finds, parses and merges the JMH result files of a workspace on the node that holds the
+ * workspace, so that the master only receives the parsed report in the compact form of {@link BenchmarkReportCodec}
+ * rather than the raw result files.
+ */
+public class ReportIngestCallable implements FilePath.FileCallable<ReportIngestCallable.IngestedReport>
+{
+  private static final long serialVersionUID = -4127830375823012517L;
+
+  private final String _reportFilePattern;
+  private final String _fallbackPattern;
+  private final TaskListener _listener;
+
+  /**
+   * @param reportFilePattern - the Ant-style pattern of the result files relative to the workspace
+   * @param fallbackPattern - the pattern to use if the first one doesn't match any file, may be null
+   * @param listener - the build listener, used to log from the node
+   */
+  public ReportIngestCallable( String reportFilePattern, String fallbackPattern, TaskListener listener )
+  {
+    _reportFilePattern = reportFilePattern;
+    _fallbackPattern = fallbackPattern;
+    _listener = listener;
+  }
+
+  public IngestedReport invoke( File workspace, VirtualChannel channel ) throws IOException, InterruptedException
+  {
+    FilePath root = new FilePath( workspace );
+    FilePath[] files = root.list( _reportFilePattern );
+    if ( files.length <= 0 && _fallbackPattern != null )
+    {
+      files = root.list( _fallbackPattern );
+    }
+
+    List<String> relativePaths = new ArrayList<String>( files.length );
+    List<File> reportFiles = new ArrayList<File>( files.length );
+    for ( FilePath file : files )
+    {
+      relativePaths.add( file.getRemote().substring( workspace.getPath().length() + 1 ) );
+      reportFiles.add( new File( file.getRemote() ) );
+    }
+    if ( reportFiles.isEmpty() )
+      return new IngestedReport( relativePaths, null, new ArrayList<String>() );
+
+    ParallelReportParser parser = new ParallelReportParser( workspace, _listener );
+    BenchmarkReport report = parser.parse( reportFiles );
+    // the benchmarks ran on this node
+    report.setEnvironment( EnvironmentFingerprint.capture( report.getEnvironment() ) );
+    return new IngestedReport( relativePaths, BenchmarkReportCodec.encode( report ), parser.getDuplicates() );
+  }
+
+  /**
+   * The outcome of the ingestion sent back to the master: the matched files, the encoded report and the duplicate
+   * benchmarks.
+   */
+  public static final class IngestedReport implements Serializable
+  {
+    private static final long serialVersionUID = 2804722309561829347L;
+
+    private final List<String> _files;
+    private final byte[] _report;
+    private final List<String> _duplicates;
+
+    IngestedReport( List<String> files, byte[] report, List<String> duplicates )
+    {
+      _files = files;
+      _report = report;
+      _duplicates = duplicates;
+    }
+
+    /**
+     * Returns the paths of the result files relative to the workspace.
+     */
+    public List<String> getFiles()
+    {
+      return _files;
+    }
+
+    /**
+     * Returns the merged report of every file or null if no file matched.
+     */
+    public BenchmarkReport getReport() throws IOException
+    {
+      return _report == null ? null : BenchmarkReportCodec.decode( _report );
+    }
+
+    public List<String> getDuplicates()
+    {
+      return _duplicates;
+    }
+  }
+}
@@ -1,14 +1,56 @@
 package blackboard.test.jenkins.jmhbenchmark;
 
-import hudson.model.AbstractBuild;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Locale;
 
 public abstract class ReportParser
 {
-  public abstract BenchmarkReport parse( AbstractBuild<?, ?> build, File report, TaskListener listener )
+  protected static final String IMPROVEMENT_IN_MEAN_HEADER_NAME = "Score Improvement % (previous/baseline)";
+
+  public abstract BenchmarkReport parse( Run<?, ?> build, File report, TaskListener listener )
     throws IOException;
 
+  /**
+   * Returns the parser for a JMH result file based on its extension: JSON for <tt>.json</tt> files (JMH's 
+   * <tt>-rf json</tt>), CSV otherwise.
+   */
+  public static ReportParser forFile( String fileName )
+  {
+    if ( fileName.toLowerCase( Locale.ENGLISH ).endsWith( ".json" ) )
+    {
+      return new JsonParser();
+    }
+    return new CsvParser();
+  }
+
+  /**
+   * Abbreviates the package of a fully qualified benchmark name, e.g. <tt>org.openjdk.jmh.MyBenchmark.test</tt>
+   * becomes <tt>o.o.j.MyBenchmark.test</tt>. The name of a secondary metric is kept whole, e.g.
+   * <tt>org.openjdk.jmh.MyBenchmark.test:&#183;gc.alloc.rate.norm</tt> becomes
+   * <tt>o.o.j.MyBenchmark.test:gc.alloc.rate.norm</tt>.
+   */
+  protected static String getShortName( String name )
+  {
+    int metricSeparator = name.indexOf( ':' );
+    if ( metricSeparator >= 0 )
+      return getShortName( name.substring( 0, metricSeparator ) ) + ":"
+             + BenchmarkResult.getMetricName( name.substring( metricSeparator + 1 ) );
+
+    String[] splitNames = name.split( "\\." );
+    StringBuilder sb = new StringBuilder( 100 );
+    for ( int i = 0; i < splitNames.length - 2; i++ )
+    {
+      sb.append( splitNames[i].charAt( 0 ) );
+      sb.append( "." );
+    }
+    sb.append( splitNames[splitNames.length - 2] );
+    sb.append( "." );
+    sb.append( splitNames[splitNames.length - 1] );
+
+    return sb.toString();
+  }
 }
@@ -0,0 +1,97 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+/**
+ * RollingBaseline is a robust summary of the scores of a benchmark over the latest builds: the median score and the
+ * median absolute deviation (MAD) from it. Unlike a single baseline build, it isn't thrown off by one lucky or unlucky
+ * run and doesn't disappear when a build is deleted.
+ */
+public final class RollingBaseline
+{
+  /**
+   * Scales the MAD to the standard deviation of normally distributed scores.
+   */
+  static final double MAD_SCALE = 1.4826;
+
+  private final double _median;
+  private final double _mad;
+  private final int _builds;
+
+  public RollingBaseline( double median, double mad, int builds )
+  {
+    _median = median;
+    _mad = mad;
+    _builds = builds;
+  }
+
+  public double getMedian()
+  {
+    return _median;
+  }
+
+  public double getMad()
+  {
+    return _mad;
+  }
+
+  /**
+   * Returns the number of builds the baseline was computed from.
+   */
+  public int getBuilds()
+  {
+    return _builds;
+  }
+
+  /**
+   * Returns the two-sided p-value of a score under a normal distribution centred on the median, with the scaled MAD
+   * as standard deviation, or NaN if there are too few builds or no spread to test against.
+   */
+  public double getPValue( double score )
+  {
+    double sigma = MAD_SCALE * _mad;
+    if ( _builds < 3 || sigma == 0 || Double.isNaN( sigma ) )
+      return Double.NaN;
+
+    return 2 * Statistics.normalCdf( -Math.abs( score - _median ) / sigma );
+  }
+
+  /**
+   * Computes the baseline of the first <tt>count</tt> values of an array sorted in ascending order. The absolute
+   * deviations are visited in ascending order by walking outwards from the median, so no second sort is needed.
+   */
+  static RollingBaseline fromSorted( double[] sorted, int count )
+  {
+    if ( count == 0 )
+      return null;
+
+    int upper = count / 2;
+    double median = count % 2 == 1 ? sorted[ upper ] : ( sorted[ upper - 1 ] + sorted[ upper ] ) / 2;
+
+    int left = upper - 1;
+    int right = upper;
+    int lowRank = ( count - 1 ) / 2;
+    int highRank = count / 2;
+    double low = 0;
+    double high = 0;
+    for ( int rank = 0; rank <= highRank; rank++ )
+    {
+      double deviation;
+      if ( right >= count || ( left >= 0 && median - sorted[ left ] <= sorted[ right ] - median ) )
+      {
+        deviation = median - sorted[ left-- ];
+      }
+      else
+      {
+        deviation = sorted[ right++ ] - median;
+      }
+      if ( rank == lowRank )
+      {
+        low = deviation;
+      }
+      if ( rank == highRank )
+      {
+        high = deviation;
+      }
+    }
+    return new RollingBaseline( median, ( low + high ) / 2, count );
+  }
+}
@@ -0,0 +1,313 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.util.Arrays;
+
+/**
+ * Statistics holds the significance tests used to decide whether the score of a benchmark changed between two builds.
+ */
+final class Statistics
+{
+  /**
+   * The confidence level of the score error reported by JMH.
+   */
+  static final double JMH_SCORE_CONFIDENCE = 0.999;
+
+  /**
+   * Above this number of samples, or with ties, the Mann-Whitney U test uses the normal approximation.
+   */
+  private static final int EXACT_MANN_WHITNEY_LIMIT = 40;
+  private static final double EPSILON = 1e-12;
+  private static final int MAX_ITERATIONS = 300;
+
+  private Statistics()
+  {
+  }
+
+  /**
+   * Tests whether the scores of two JMH results differ: with the Mann-Whitney U test if both results have the score
+   * of each iteration, with {@link #welchTTest(BenchmarkResult, BenchmarkResult)} otherwise.
+   *
+   * @return the two-sided p-value, or NaN if the results can't be tested
+   */
+  static double compare( BenchmarkResult a, BenchmarkResult b )
+  {
+    double[] samplesA = a.getRawSamples();
+    double[] samplesB = b.getRawSamples();
+    if ( samplesA != null && samplesB != null && samplesA.length > 1 && samplesB.length > 1 )
+      return mannWhitneyUTest( samplesA, samplesB );
+
+    return welchTTest( a, b );
+  }
+
+  /**
+   * The Mann-Whitney U test of two samples. Unlike a test of the means, it also finds shifts of a bimodal or long
+   * tailed distribution. The p-value is exact for small samples without ties, and uses the normal approximation with
+   * tie and continuity corrections otherwise.
+   *
+   * @return the two-sided p-value
+   */
+  static double mannWhitneyUTest( double[] a, double[] b )
+  {
+    int n1 = a.length;
+    int n2 = b.length;
+    double[] sortedA = a.clone();
+    double[] sortedB = b.clone();
+    Arrays.sort( sortedA );
+    Arrays.sort( sortedB );
+
+    // merge the sorted samples, giving tied values their average rank
+    double rankSumA = 0;
+    double tieCorrection = 0;
+    int i = 0;
+    int j = 0;
+    while ( i < n1 || j < n2 )
+    {
+      double value = j == n2 || ( i < n1 && sortedA[ i ] <= sortedB[ j ] ) ? sortedA[ i ] : sortedB[ j ];
+      int tiesA = 0;
+      int tiesB = 0;
+      while ( i < n1 && sortedA[ i ] == value )
+      {
+        tiesA++;
+        i++;
+      }
+      while ( j < n2 && sortedB[ j ] == value )
+      {
+        tiesB++;
+        j++;
+      }
+      int ties = tiesA + tiesB;
+      double averageRank = i + j - ( ties - 1 ) / 2.0;
+      rankSumA += tiesA * averageRank;
+      tieCorrection += (double) ties * ties * ties - ties;
+    }
+
+    double u = rankSumA - n1 * ( n1 + 1 ) / 2.0;
+    if ( tieCorrection == 0 && n1 + n2 <= EXACT_MANN_WHITNEY_LIMIT )
+      return exactMannWhitneyPValue( (int) u, n1, n2 );
+
+    int n = n1 + n2;
+    double mean = n1 * (double) n2 / 2;
+    double variance = n1 * (double) n2 / 12 * ( ( n + 1 ) - tieCorrection / ( (double) n * ( n - 1 ) ) );
+    if ( variance <= 0 )
+      return 1;
+
+    double z = ( Math.abs( u - mean ) - 0.5 ) / Math.sqrt( variance );
+    return Math.min( 1, 2 * normalCdf( -Math.max( z, 0 ) ) );
+  }
+
+  /**
+   * Returns the two-sided p-value of U from the exact distribution of U for samples of sizes n1 and n2, built with
+   * the recurrence f(m, n, u) = f(m - 1, n, u - n) + f(m, n - 1, u).
+   */
+  private static double exactMannWhitneyPValue( int u, int n1, int n2 )
+  {
+    // counts[ n ][ u ] holds f(m, n, u) for the current m
+    double[][] counts = new double[ n2 + 1 ][];
+    for ( int n = 0; n <= n2; n++ )
+    {
+      counts[ n ] = new double[ n1 * n + 1 ];
+      counts[ n ][ 0 ] = 1;
+    }
+    for ( int m = 1; m <= n1; m++ )
+    {
+      double[][] next = new double[ n2 + 1 ][];
+      next[ 0 ] = new double[] { 1 };
+      for ( int n = 1; n <= n2; n++ )
+      {
+        next[ n ] = new double[ n1 * n + 1 ];
+        for ( int k = 0; k <= m * n; k++ )
+        {
+          double count = k < next[ n - 1 ].length ? next[ n - 1 ][ k ] : 0;
+          if ( k >= n && k - n < counts[ n ].length )
+          {
+            count += counts[ n ][ k - n ];
+          }
+          next[ n ][ k ] = count;
+        }
+      }
+      counts = next;
+    }
+
+    double[] distribution = counts[ n2 ];
+    double total = 0;
+    double lower = 0;
+    double upper = 0;
+    for ( int k = 0; k <= n1 * n2; k++ )
+    {
+      total += distribution[ k ];
+      if ( k <= u )
+      {
+        lower += distribution[ k ];
+      }
+      if ( k >= u )
+      {
+        upper += distribution[ k ];
+      }
+    }
+    return Math.min( 1, 2 * Math.min( lower, upper ) / total );
+  }
+
+  /**
+   * Returns P(Z &lt;= z) for the standard normal distribution.
+   */
+  static double normalCdf( double z )
+  {
+    return 0.5 * erfc( -z / Math.sqrt( 2 ) );
+  }
+
+  /**
+   * The complementary error function, with a fractional error below 1.2e-7.
+   */
+  private static double erfc( double x )
+  {
+    double z = Math.abs( x );
+    double t = 1 / ( 1 + 0.5 * z );
+    double result = t * Math.exp( -z * z - 1.26551223 + t * ( 1.00002368 + t * ( 0.37409196 + t * ( 0.09678418
+                    + t * ( -0.18628806 + t * ( 0.27886807 + t * ( -1.13520398 + t * ( 1.48851587
+                    + t * ( -0.82215223 + t * 0.17087277 ) ) ) ) ) ) ) ) );
+    return x >= 0 ? result : 2 - result;
+  }
+
+  /**
+   * Welch's t-test of the scores of two JMH results. JMH reports the score error as the half-width of the 99.9%
+   * confidence interval, <tt>t(0.9995, n - 1) * s / sqrt(n)</tt>, so the standard error of each score is recovered from
+   * the score error and the number of samples.
+   *
+   * @return the two-sided p-value, or NaN if either result lacks the samples or score error needed for the test
+   */
+  static double welchTTest( BenchmarkResult a, BenchmarkResult b )
+  {
+    double varianceA = getStandardErrorSquared( a );
+    double varianceB = getStandardErrorSquared( b );
+    if ( Double.isNaN( varianceA ) || Double.isNaN( varianceB ) || varianceA + varianceB == 0 )
+      return Double.NaN;
+
+    double t = ( a.getMean() - b.getMean() ) / Math.sqrt( varianceA + varianceB );
+    double df = ( varianceA + varianceB ) * ( varianceA + varianceB )
+                / ( varianceA * varianceA / ( a.getSamples() - 1 ) + varianceB * varianceB / ( b.getSamples() - 1 ) );
+    return 2 * studentTCdf( -Math.abs( t ), df );
+  }
+
+  private static double getStandardErrorSquared( BenchmarkResult result )
+  {
+    int samples = result.getSamples();
+    double error = result.getMeanError();
+    if ( samples < 2 || Double.isNaN( error ) || error <= 0 )
+      return Double.NaN;
+
+    double standardError = error / studentTQuantile( 1 - ( 1 - JMH_SCORE_CONFIDENCE ) / 2, samples - 1 );
+    return standardError * standardError;
+  }
+
+  /**
+   * Returns P(T &lt;= t) for Student's t distribution with df degrees of freedom.
+   */
+  static double studentTCdf( double t, double df )
+  {
+    if ( Double.isInfinite( t ) )
+      return t > 0 ? 1 : 0;
+
+    double tail = 0.5 * regularizedIncompleteBeta( df / ( df + t * t ), df / 2, 0.5 );
+    return t > 0 ? 1 - tail : tail;
+  }
+
+  /**
+   * Returns t such that P(T &lt;= t) = p for Student's t distribution with df degrees of freedom, found by bisection.
+   */
+  static double studentTQuantile( double p, double df )
+  {
+    if ( p == 0.5 )
+      return 0;
+    if ( p < 0.5 )
+      return -studentTQuantile( 1 - p, df );
+
+    double low = 0;
+    double high = 1;
+    while ( studentTCdf( high, df ) < p )
+    {
+      low = high;
+      high *= 2;
+    }
+    for ( int i = 0; i < 100 && high - low > EPSILON * high; i++ )
+    {
+      double middle = ( low + high ) / 2;
+      if ( studentTCdf( middle, df ) < p )
+      {
+        low = middle;
+      }
+      else
+      {
+        high = middle;
+      }
+    }
+    return ( low + high ) / 2;
+  }
+
+  /**
+   * Returns the regularized incomplete beta function I_x(a, b), evaluated with its continued fraction.
+   */
+  static double regularizedIncompleteBeta( double x, double a, double b )
+  {
+    if ( x <= 0 )
+      return 0;
+    if ( x >= 1 )
+      return 1;
+
+    double front = Math.exp( logGamma( a + b ) - logGamma( a ) - logGamma( b ) + a * Math.log( x ) + b
+                             * Math.log( 1 - x ) );
+    // the continued fraction converges quickly for x < (a + 1) / (a + b + 2), use the symmetry otherwise
+    if ( x < ( a + 1 ) / ( a + b + 2 ) )
+      return front * incompleteBetaFraction( x, a, b ) / a;
+
+    return 1 - front * incompleteBetaFraction( 1 - x, b, a ) / b;
+  }
+
+  private static double incompleteBetaFraction( double x, double a, double b )
+  {
+    double tiny = 1e-300;
+    double c = 1;
+    double d = 1 - ( a + b ) * x / ( a + 1 );
+    d = 1 / ( Math.abs( d ) < tiny ? tiny : d );
+    double result = d;
+
+    for ( int m = 1; m <= MAX_ITERATIONS; m++ )
+    {
+      int m2 = 2 * m;
+      double numerator = m * ( b - m ) * x / ( ( a + m2 - 1 ) * ( a + m2 ) );
+      d = 1 + numerator * d;
+      d = 1 / ( Math.abs( d ) < tiny ? tiny : d );
+      c = 1 + numerator / c;
+      c = Math.abs( c ) < tiny ? tiny : c;
+      result *= d * c;
+
+      numerator = -( a + m ) * ( a + b + m ) * x / ( ( a + m2 ) * ( a + m2 + 1 ) );
+      d = 1 + numerator * d;
+      d = 1 / ( Math.abs( d ) < tiny ? tiny : d );
+      c = 1 + numerator / c;
+      c = Math.abs( c ) < tiny ? tiny : c;
+      double delta = d * c;
+      result *= delta;
+      if ( Math.abs( delta - 1 ) < EPSILON )
+        break;
+    }
+    return result;
+  }
+
+  /**
+   * Returns ln(Gamma(x)) for x &gt; 0 with the Lanczos approximation.
+   */
+  static double logGamma( double x )
+  {
+    double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155,
+                              0.1208650973866179e-2, -0.5395239384953e-5 };
+    double y = x;
+    double tmp = x + 5.5;
+    tmp -= ( x + 0.5 ) * Math.log( tmp );
+    double series = 1.000000000190015;
+    for ( double coefficient : coefficients )
+    {
+      series += coefficient / ++y;
+    }
+    return -tmp + Math.log( 2.5066282746310005 * series / x );
+  }
+}
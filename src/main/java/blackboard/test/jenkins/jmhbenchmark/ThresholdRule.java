@@ -0,0 +1,200 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * ThresholdRule overrides the gain and degradation thresholds of {@link BenchmarkPublisher} for the benchmarks it
+ * matches, or excludes them from gating. The rules of a publisher are ordered and the first matching rule applies.
+ * <p/>
+ * A rule matches a benchmark by its full name and, optionally, by its parameters. The name pattern is a glob
+ * (<tt>*</tt> matches any sequence of characters, <tt>?</tt> a single one) or, between slashes, a regular expression,
+ * e.g. <tt>/.*\.io\..*&#47;</tt>. The parameter pattern is a comma separated list of <tt>name=glob</tt> conditions that
+ * must all hold, e.g. <tt>size=1000, mode=*fast</tt>. An empty pattern matches every benchmark.
+ */
+public class ThresholdRule extends AbstractDescribableImpl<ThresholdRule>
+{
+  private final String _benchmarkPattern;
+  private final String _paramPattern;
+  private final boolean _exclude;
+  private final int _performanceIncreaseThreshold;
+  private final int _performanceDegradationThreshold;
+
+  @DataBoundConstructor
+  public ThresholdRule( String benchmarkPattern, String paramPattern, boolean exclude,
+                        int performanceIncreaseThreshold, int performanceDegradationThreshold )
+  {
+    _benchmarkPattern = benchmarkPattern;
+    _paramPattern = paramPattern;
+    _exclude = exclude;
+    _performanceIncreaseThreshold = performanceIncreaseThreshold;
+    _performanceDegradationThreshold = performanceDegradationThreshold;
+  }
+
+  public String getBenchmarkPattern()
+  {
+    return _benchmarkPattern;
+  }
+
+  public String getParamPattern()
+  {
+    return _paramPattern;
+  }
+
+  /**
+   * Returns whether the matched benchmarks are left out of gating: their changes are reported but never flagged.
+   */
+  public boolean isExclude()
+  {
+    return _exclude;
+  }
+
+  public int getPerformanceIncreaseThreshold()
+  {
+    return _performanceIncreaseThreshold;
+  }
+
+  public int getPerformanceDegradationThreshold()
+  {
+    return _performanceDegradationThreshold;
+  }
+
+  /**
+   * Returns whether the rule has the same patterns and thresholds, so that the compiled rules of a job are kept as long
+   * as its configuration doesn't change.
+   */
+  @Override
+  public boolean equals( Object obj )
+  {
+    if ( this == obj )
+      return true;
+    if ( !( obj instanceof ThresholdRule ) )
+      return false;
+
+    ThresholdRule other = (ThresholdRule) obj;
+    return equal( _benchmarkPattern, other._benchmarkPattern ) && equal( _paramPattern, other._paramPattern )
+           && _exclude == other._exclude && _performanceIncreaseThreshold == other._performanceIncreaseThreshold
+           && _performanceDegradationThreshold == other._performanceDegradationThreshold;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int hash = _benchmarkPattern == null ? 0 : _benchmarkPattern.hashCode();
+    hash = 31 * hash + ( _paramPattern == null ? 0 : _paramPattern.hashCode() );
+    hash = 31 * hash + ( _exclude ? 1 : 0 );
+    hash = 31 * hash + _performanceIncreaseThreshold;
+    return 31 * hash + _performanceDegradationThreshold;
+  }
+
+  private static boolean equal( String a, String b )
+  {
+    return a == null ? b == null : a.equals( b );
+  }
+
+  /**
+   * Compiles a benchmark name pattern: a regular expression between slashes, a glob otherwise.
+   */
+  static Pattern compileNamePattern( String pattern )
+  {
+    String trimmed = pattern.trim();
+    if ( trimmed.length() > 1 && trimmed.startsWith( "/" ) && trimmed.endsWith( "/" ) )
+      return Pattern.compile( trimmed.substring( 1, trimmed.length() - 1 ) );
+
+    return compileGlob( trimmed );
+  }
+
+  static Pattern compileGlob( String glob )
+  {
+    StringBuilder regex = new StringBuilder( glob.length() + 16 );
+    int literalStart = 0;
+    for ( int i = 0; i < glob.length(); i++ )
+    {
+      char c = glob.charAt( i );
+      if ( c == '*' || c == '?' )
+      {
+        if ( i > literalStart )
+        {
+          regex.append( Pattern.quote( glob.substring( literalStart, i ) ) );
+        }
+        regex.append( c == '*' ? ".*" : "." );
+        literalStart = i + 1;
+      }
+    }
+    if ( literalStart < glob.length() )
+    {
+      regex.append( Pattern.quote( glob.substring( literalStart ) ) );
+    }
+    return Pattern.compile( regex.toString() );
+  }
+
+  static boolean isLiteral( String pattern )
+  {
+    String trimmed = pattern.trim();
+    return !( trimmed.startsWith( "/" ) && trimmed.endsWith( "/" ) && trimmed.length() > 1 )
+           && trimmed.indexOf( '*' ) < 0 && trimmed.indexOf( '?' ) < 0;
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<ThresholdRule>
+  {
+    public String getDisplayName()
+    {
+      return "Threshold Rule";
+    }
+
+    public FormValidation doCheckBenchmarkPattern( @QueryParameter String benchmarkPattern )
+    {
+      try
+      {
+        compileNamePattern( benchmarkPattern );
+      }
+      catch ( PatternSyntaxException ex )
+      {
+        return FormValidation.error( "Not a valid regular expression: " + ex.getDescription() );
+      }
+      return FormValidation.ok();
+    }
+
+    public FormValidation doCheckParamPattern( @QueryParameter String paramPattern )
+    {
+      for ( String condition : paramPattern.split( "," ) )
+      {
+        if ( condition.trim().length() > 0 && condition.indexOf( '=' ) <= 0 )
+          return FormValidation.error( "Expected name=value conditions separated by commas" );
+      }
+      return FormValidation.ok();
+    }
+
+    public FormValidation doCheckPerformanceIncreaseThreshold( @QueryParameter String performanceIncreaseThreshold )
+    {
+      return checkNumber( performanceIncreaseThreshold );
+    }
+
+    public FormValidation doCheckPerformanceDegradationThreshold( @QueryParameter String performanceDegradationThreshold )
+    {
+      return checkNumber( performanceDegradationThreshold );
+    }
+
+    private static FormValidation checkNumber( String value )
+    {
+      try
+      {
+        Integer.parseInt( value );
+      }
+      catch ( NumberFormatException ex )
+      {
+        return FormValidation.error( "Not a valid number" );
+      }
+      return FormValidation.ok();
+    }
+  }
+}
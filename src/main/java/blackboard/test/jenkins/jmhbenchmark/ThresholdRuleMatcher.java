@@ -0,0 +1,222 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ThresholdRuleMatcher finds the first {@link ThresholdRule} matching a benchmark. The patterns of the rules are
+ * compiled once. Rules with a literal benchmark name are looked up in a hash map, so only wildcard and regular
+ * expression rules are tried one by one, and the rules matching each benchmark name are remembered: benchmarks that
+ * only differ by their parameters, and the same benchmarks in later builds, just check the parameter conditions of
+ * the candidate rules.
+ * <p/>
+ * A rule whose regular expression doesn't compile, e.g. one set through the Pipeline step that the form validation
+ * doesn't check, is skipped rather than failing the build, and listed by {@link #getInvalidRules()}.
+ * <p/>
+ * The matcher of each job is kept by {@link #forJob(String, List)}, so that it outlives the publisher, which Pipeline
+ * creates for every build. The matchers of at most 64 jobs are kept, evicting the least recently used job first. The
+ * limit can be changed with the <tt>blackboard.test.jenkins.jmhbenchmark.ThresholdRuleMatcher.maxJobs</tt> system
+ * property.
+ */
+final class ThresholdRuleMatcher
+{
+  private static final String PARAM_PREFIX = "Param: ";
+  private static final int[] NO_RULES = new int[ 0 ];
+  private static final int MAX_JOBS = Integer.getInteger( ThresholdRuleMatcher.class.getName() + ".maxJobs", 64 );
+  private static final Map<String, ThresholdRuleMatcher> MATCHERS =
+    new LinkedHashMap<String, ThresholdRuleMatcher>( 16, 0.75f, true )
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, ThresholdRuleMatcher> eldest )
+        {
+          return size() > MAX_JOBS;
+        }
+      };
+
+  private final List<ThresholdRule> _rules;
+  private final Map<String, int[]> _literalRules = new HashMap<String, int[]>();
+  private final int[] _patternRules;
+  // null for a rule matching every name
+  private final Pattern[] _namePatterns;
+  private final String[][] _paramNames;
+  private final Pattern[][] _paramValues;
+  private final Map<String, int[]> _candidates = new ConcurrentHashMap<String, int[]>();
+  private final List<String> _invalidRules = new ArrayList<String>();
+
+  ThresholdRuleMatcher( List<ThresholdRule> rules )
+  {
+    _rules = new ArrayList<ThresholdRule>( rules );
+    int count = _rules.size();
+    _namePatterns = new Pattern[ count ];
+    _paramNames = new String[ count ][];
+    _paramValues = new Pattern[ count ][];
+
+    Map<String, List<Integer>> literalRules = new HashMap<String, List<Integer>>();
+    List<Integer> patternRules = new ArrayList<Integer>();
+    for ( int i = 0; i < count; i++ )
+    {
+      ThresholdRule rule = _rules.get( i );
+      String namePattern = rule.getBenchmarkPattern() == null ? "" : rule.getBenchmarkPattern().trim();
+      if ( namePattern.length() > 0 && ThresholdRule.isLiteral( namePattern ) )
+      {
+        List<Integer> indexes = literalRules.get( namePattern );
+        if ( indexes == null )
+        {
+          indexes = new ArrayList<Integer>();
+          literalRules.put( namePattern, indexes );
+        }
+        indexes.add( i );
+      }
+      else
+      {
+        try
+        {
+          _namePatterns[ i ] = namePattern.length() == 0 ? null : ThresholdRule.compileNamePattern( namePattern );
+          patternRules.add( i );
+        }
+        catch ( PatternSyntaxException ex )
+        {
+          _invalidRules.add( namePattern + " (" + ex.getDescription() + ")" );
+        }
+      }
+      compileParamPattern( i, rule.getParamPattern() );
+    }
+
+    for ( Map.Entry<String, List<Integer>> entry : literalRules.entrySet() )
+    {
+      _literalRules.put( entry.getKey(), toArray( entry.getValue() ) );
+    }
+    _patternRules = toArray( patternRules );
+  }
+
+  /**
+   * Returns the matcher of the rules of a job, compiling the rules again only when they changed since the last build
+   * of the job.
+   */
+  static ThresholdRuleMatcher forJob( String jobName, List<ThresholdRule> rules )
+  {
+    synchronized ( MATCHERS )
+    {
+      ThresholdRuleMatcher matcher = MATCHERS.get( jobName );
+      if ( matcher == null || !matcher._rules.equals( rules ) )
+      {
+        matcher = new ThresholdRuleMatcher( rules );
+        MATCHERS.put( jobName, matcher );
+      }
+      return matcher;
+    }
+  }
+
+  boolean isEmpty()
+  {
+    return _rules.isEmpty();
+  }
+
+  /**
+   * Returns the name pattern and error of each rule skipped because its regular expression doesn't compile.
+   */
+  List<String> getInvalidRules()
+  {
+    return _invalidRules;
+  }
+
+  /**
+   * Returns the first rule matching the benchmark, or null if none does.
+   */
+  ThresholdRule match( BenchmarkResult result )
+  {
+    for ( int index : getCandidates( result.getBenchmarkName() ) )
+    {
+      if ( matchesParams( index, result.getParams() ) )
+        return _rules.get( index );
+    }
+    return null;
+  }
+
+  /**
+   * Returns the indexes, in rule order, of the rules whose name pattern matches the benchmark name.
+   */
+  private int[] getCandidates( String benchmarkName )
+  {
+    if ( benchmarkName == null )
+      return NO_RULES;
+
+    int[] candidates = _candidates.get( benchmarkName );
+    if ( candidates != null )
+      return candidates;
+
+    int[] literal = _literalRules.get( benchmarkName );
+    List<Integer> matching = new ArrayList<Integer>();
+    if ( literal != null )
+    {
+      for ( int index : literal )
+      {
+        matching.add( index );
+      }
+    }
+    for ( int index : _patternRules )
+    {
+      if ( _namePatterns[ index ] == null || _namePatterns[ index ].matcher( benchmarkName ).matches() )
+      {
+        matching.add( index );
+      }
+    }
+
+    candidates = toArray( matching );
+    Arrays.sort( candidates );
+    _candidates.put( benchmarkName, candidates );
+    return candidates;
+  }
+
+  private boolean matchesParams( int index, Map<String, String> params )
+  {
+    String[] names = _paramNames[ index ];
+    for ( int i = 0; i < names.length; i++ )
+    {
+      String value = params.get( names[ i ] );
+      if ( value == null || !_paramValues[ index ][ i ].matcher( value ).matches() )
+        return false;
+    }
+    return true;
+  }
+
+  private void compileParamPattern( int index, String paramPattern )
+  {
+    List<String> names = new ArrayList<String>();
+    List<Pattern> values = new ArrayList<Pattern>();
+    if ( paramPattern != null )
+    {
+      for ( String condition : paramPattern.split( "," ) )
+      {
+        int separator = condition.indexOf( '=' );
+        if ( separator <= 0 )
+          continue;
+
+        String name = condition.substring( 0, separator ).trim();
+        names.add( name.startsWith( PARAM_PREFIX ) ? name : PARAM_PREFIX + name );
+        values.add( ThresholdRule.compileGlob( condition.substring( separator + 1 ).trim() ) );
+      }
+    }
+    _paramNames[ index ] = names.toArray( new String[ names.size() ] );
+    _paramValues[ index ] = values.toArray( new Pattern[ values.size() ] );
+  }
+
+  private static int[] toArray( List<Integer> values )
+  {
+    int[] array = new int[ values.size() ];
+    for ( int i = 0; i < array.length; i++ )
+    {
+      array[ i ] = values.get( i );
+    }
+    return array;
+  }
+}
@@ -0,0 +1,90 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TrendGraphCache keeps the most recently rendered trend graphs as PNG bytes so that repeated views of the trend page
+ * don't render every graph again. The cache is shared by all projects and bounded by the total size of the images: it
+ * holds at most 32 MB (or 1/64th of the maximum heap if that is smaller) and evicts the least recently used images
+ * first. The limit can be changed with the <tt>blackboard.test.jenkins.jmhbenchmark.TrendGraphCache.maxBytes</tt>
+ * system property.
+ */
+final class TrendGraphCache
+{
+  private static final long MAX_BYTES = Long.getLong( TrendGraphCache.class.getName() + ".maxBytes",
+                                                      Math.min( 32L * 1024 * 1024,
+                                                                Runtime.getRuntime().maxMemory() / 64 ) );
+  private static final TrendGraphCache INSTANCE = new TrendGraphCache( MAX_BYTES );
+
+  private final long _maxBytes;
+  private final LinkedHashMap<String, byte[]> _images = new LinkedHashMap<String, byte[]>( 64, 0.75f, true );
+  private long _bytes;
+
+  TrendGraphCache( long maxBytes )
+  {
+    _maxBytes = maxBytes;
+  }
+
+  static TrendGraphCache getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the key of a graph of a project. The latest build of the trend and the modification time of the trend are
+   * part of the key so that a graph is never served for outdated data.
+   */
+  static String getKey( String projectName, String benchmarkKey, int width, int height, int lastBuildNumber,
+                        long lastModified )
+  {
+    StringBuilder sb = new StringBuilder( 150 );
+    sb.append( projectName ).append( '\0' ).append( benchmarkKey ).append( '\0' ).append( width ).append( 'x' );
+    sb.append( height ).append( '#' ).append( lastBuildNumber ).append( '@' ).append( lastModified );
+    return sb.toString();
+  }
+
+  synchronized byte[] get( String key )
+  {
+    return _images.get( key );
+  }
+
+  synchronized void put( String key, byte[] image )
+  {
+    if ( image.length > _maxBytes )
+      return;
+
+    byte[] previous = _images.put( key, image );
+    if ( previous != null )
+    {
+      _bytes -= previous.length;
+    }
+    _bytes += image.length;
+
+    Iterator<byte[]> eldest = _images.values().iterator();
+    while ( _bytes > _maxBytes && eldest.hasNext() )
+    {
+      _bytes -= eldest.next().length;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Drops every graph of the given project, e.g. when a new build published its benchmark results.
+   */
+  synchronized void invalidate( String projectName )
+  {
+    String prefix = projectName + '\0';
+    Iterator<Map.Entry<String, byte[]>> it = _images.entrySet().iterator();
+    while ( it.hasNext() )
+    {
+      Map.Entry<String, byte[]> entry = it.next();
+      if ( entry.getKey().startsWith( prefix ) )
+      {
+        _bytes -= entry.getValue().length;
+        it.remove();
+      }
+    }
+  }
+}
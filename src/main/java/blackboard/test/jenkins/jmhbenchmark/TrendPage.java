@@ -0,0 +1,248 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * TrendPage is one page of the trend graphs of a project, after filtering the benchmarks by name, parameters, mode and
+ * latest change. The filters are applied on the server and only the graphs of the page are sent to the browser, so the
+ * cost of the trend page depends on the page size rather than on the number of benchmarks.
+ * <p/>
+ * The name filter is a case-insensitive substring of the benchmark key, or a glob found anywhere in the key if it
+ * contains <tt>*</tt> or <tt>?</tt>. The parameter filter uses the <tt>name=glob</tt> conditions of the
+ * {@link ThresholdRule}s. The parameters and the latest change of a benchmark are read from the report of the latest
+ * build, so benchmarks that are no longer run only match the name and mode filters.
+ */
+public final class TrendPage
+{
+  public static final String VIEW_ALL = "all";
+  public static final String VIEW_CHANGED = "changed";
+  public static final String VIEW_REGRESSED = "regressed";
+  static final int DEFAULT_PAGE_SIZE = 25;
+  static final int MAX_PAGE_SIZE = 200;
+
+  private final String _name;
+  private final String _params;
+  private final String _mode;
+  private final String _view;
+  private final int _pageSize;
+  private final int _page;
+  private final int _matchCount;
+  private final List<String> _keys;
+  private final List<String> _modes;
+
+  private TrendPage( String name, String params, String mode, String view, int pageSize, int page, int matchCount,
+                     List<String> keys, List<String> modes )
+  {
+    _name = name;
+    _params = params;
+    _mode = mode;
+    _view = view;
+    _pageSize = pageSize;
+    _page = page;
+    _matchCount = matchCount;
+    _keys = Collections.unmodifiableList( keys );
+    _modes = Collections.unmodifiableList( modes );
+  }
+
+  /**
+   * Filters the trend of a project and returns the requested page. Missing or invalid arguments fall back to no
+   * filtering and the first page; a page past the end is the last page.
+   *
+   * @param latestReport - the report of the latest build, null if it isn't needed (no parameter filter and all
+   *          benchmarks viewed) or unavailable
+   */
+  static TrendPage create( TrendSnapshot snapshot, BenchmarkReport latestReport, String name, String params,
+                           String mode, String view, String page, String pageSize )
+  {
+    String nameFilter = trim( name );
+    String paramsFilter = trim( params );
+    String modeFilter = trim( mode );
+    String viewFilter = VIEW_CHANGED.equals( view ) || VIEW_REGRESSED.equals( view ) ? view : VIEW_ALL;
+    int size = Math.max( 1, Math.min( MAX_PAGE_SIZE, parseInt( pageSize, DEFAULT_PAGE_SIZE ) ) );
+
+    Pattern namePattern = null;
+    if ( nameFilter.indexOf( '*' ) >= 0 || nameFilter.indexOf( '?' ) >= 0 )
+    {
+      namePattern = ThresholdRule.compileGlob( nameFilter.toLowerCase( Locale.ENGLISH ) );
+    }
+    String lowerName = nameFilter.toLowerCase( Locale.ENGLISH );
+    ThresholdRuleMatcher paramMatcher = null;
+    if ( paramsFilter.length() > 0 )
+    {
+      paramMatcher = new ThresholdRuleMatcher( Collections.singletonList( new ThresholdRule( "", paramsFilter, false,
+                                                                                             0, 0 ) ) );
+    }
+    Map<String, BenchmarkResult> latestResults =
+      latestReport == null ? Collections.<String, BenchmarkResult>emptyMap() : latestReport.getReport();
+
+    TreeSet<String> modes = new TreeSet<String>();
+    List<String> matching = new ArrayList<String>();
+    for ( Map.Entry<String, BenchmarkTrend> entry : snapshot.getTrend().entrySet() )
+    {
+      String key = entry.getKey();
+      BenchmarkTrend trend = entry.getValue();
+      if ( trend.getMode() != null )
+      {
+        modes.add( trend.getMode() );
+      }
+
+      if ( modeFilter.length() > 0 && !modeFilter.equals( trend.getMode() ) )
+        continue;
+
+      String lowerKey = key.toLowerCase( Locale.ENGLISH );
+      if ( namePattern != null ? !namePattern.matcher( lowerKey ).find() : !lowerKey.contains( lowerName ) )
+        continue;
+
+      BenchmarkResult latest = latestResults.get( key );
+      if ( paramMatcher != null && ( latest == null || paramMatcher.match( latest ) == null ) )
+        continue;
+
+      if ( !viewFilter.equals( VIEW_ALL ) )
+      {
+        String indicator = latest == null ? "" : latest.getChangeIndicator();
+        if ( viewFilter.equals( VIEW_REGRESSED ) ? !"red".equals( indicator )
+                                                 : indicator == null || indicator.length() == 0 )
+          continue;
+      }
+      matching.add( key );
+    }
+
+    int pageCount = Math.max( 1, ( matching.size() + size - 1 ) / size );
+    int pageNumber = Math.max( 1, Math.min( pageCount, parseInt( page, 1 ) ) );
+    int from = ( pageNumber - 1 ) * size;
+    List<String> keys = new ArrayList<String>( matching.subList( from, Math.min( matching.size(), from + size ) ) );
+    return new TrendPage( nameFilter, paramsFilter, modeFilter, viewFilter, size, pageNumber, matching.size(), keys,
+                          new ArrayList<String>( modes ) );
+  }
+
+  /**
+   * Returns whether showing the given filters needs the report of the latest build.
+   */
+  static boolean needsLatestReport( String params, String view )
+  {
+    return trim( params ).length() > 0 || VIEW_CHANGED.equals( view ) || VIEW_REGRESSED.equals( view );
+  }
+
+  public String getName()
+  {
+    return _name;
+  }
+
+  public String getParams()
+  {
+    return _params;
+  }
+
+  public String getMode()
+  {
+    return _mode;
+  }
+
+  public String getView()
+  {
+    return _view;
+  }
+
+  public int getPageSize()
+  {
+    return _pageSize;
+  }
+
+  /**
+   * Returns the number of this page, starting at 1.
+   */
+  public int getPage()
+  {
+    return _page;
+  }
+
+  public int getPageCount()
+  {
+    return Math.max( 1, ( _matchCount + _pageSize - 1 ) / _pageSize );
+  }
+
+  /**
+   * Returns the number of benchmarks matching the filters, on every page.
+   */
+  public int getMatchCount()
+  {
+    return _matchCount;
+  }
+
+  /**
+   * Returns the keys of the benchmarks on this page.
+   */
+  public List<String> getKeys()
+  {
+    return _keys;
+  }
+
+  /**
+   * Returns every benchmark mode of the trend, for the mode filter.
+   */
+  public List<String> getModes()
+  {
+    return _modes;
+  }
+
+  /**
+   * Returns the query string of the given page with the filters of this page, e.g. <tt>?name=io&amp;page=2</tt>.
+   */
+  public String getQuery( int page )
+  {
+    StringBuilder sb = new StringBuilder( 100 );
+    sb.append( "?page=" ).append( page );
+    sb.append( "&pageSize=" ).append( _pageSize );
+    appendParameter( sb, "name", _name );
+    appendParameter( sb, "params", _params );
+    appendParameter( sb, "mode", _mode );
+    if ( !_view.equals( VIEW_ALL ) )
+    {
+      appendParameter( sb, "view", _view );
+    }
+    return sb.toString();
+  }
+
+  private static void appendParameter( StringBuilder sb, String name, String value )
+  {
+    if ( value.length() == 0 )
+      return;
+
+    try
+    {
+      sb.append( '&' ).append( name ).append( '=' ).append( URLEncoder.encode( value, "UTF-8" ) );
+    }
+    catch ( UnsupportedEncodingException ex )
+    {
+      throw new IllegalStateException( ex );
+    }
+  }
+
+  private static String trim( String value )
+  {
+    return value == null ? "" : value.trim();
+  }
+
+  private static int parseInt( String value, int defaultValue )
+  {
+    if ( value == null )
+      return defaultValue;
+
+    try
+    {
+      return Integer.parseInt( value.trim() );
+    }
+    catch ( NumberFormatException ex )
+    {
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TrendSnapshot is an immutable view of a {@link BenchmarkTrendStore} at a given version. Snapshots are published by
+ * the store with an atomic reference swap, so every request works on a consistent trend without locking.
+ * <p/>
+ * The JSON form of the trend, rendered by the browser on the trend page, is encoded once per snapshot, plain and
+ * gzipped, and shared by every request until the trend changes.
+ */
+public final class TrendSnapshot
+{
+  private final long _version;
+  private final long _lastModified;
+  private final int _lastBuildNumber;
+  private final Map<String, BenchmarkTrend> _trend;
+  private volatile byte[] _json;
+  private volatile byte[] _gzippedJson;
+
+  TrendSnapshot( long version, long lastModified, int lastBuildNumber, Map<String, BenchmarkTrend> trend )
+  {
+    _version = version;
+    _lastModified = lastModified;
+    _lastBuildNumber = lastBuildNumber;
+    _trend = Collections.unmodifiableMap( trend );
+  }
+
+  /**
+   * Returns the version of the store this snapshot was computed from.
+   */
+  public long getVersion()
+  {
+    return _version;
+  }
+
+  /**
+   * Returns the time at which a build was last added to or removed from the trend.
+   */
+  public long getLastModified()
+  {
+    return _lastModified;
+  }
+
+  /**
+   * Returns the number of the latest build that published benchmark results, or 0 if there is none.
+   */
+  public int getLastBuildNumber()
+  {
+    return _lastBuildNumber;
+  }
+
+  /**
+   * Returns the trend of every benchmark sorted by benchmark key.
+   */
+  public Map<String, BenchmarkTrend> getTrend()
+  {
+    return _trend;
+  }
+
+  /**
+   * Returns the trend of a single benchmark or null if the benchmark is unknown.
+   */
+  public BenchmarkTrend getTrend( String key )
+  {
+    return _trend.get( key );
+  }
+
+  /**
+   * Returns the trend of every benchmark as UTF-8 encoded JSON, optionally gzipped. The series are written as columns
+   * aligned on the build numbers:
+   * <pre>
+   * {"lastModified": 1400000000000, "lastBuildNumber": 2, "benchmarks": [{"key": "o.s.MyBenchmark.test", "name": ...,
+   *   "mode": "thrpt", "threads": 1, "samples": 10, "unit": "ops/s", "builds": [1, 2], "scores": [10.5, 11],
+   *   "errors": [0.2, 0.3], "changePoints": [2], "shifts": [4.8], "percentiles": {"p99": [12.1, null]}}, ...]}
+   * </pre>
+   */
+  byte[] getJson( boolean gzipped ) throws IOException
+  {
+    byte[] json = gzipped ? _gzippedJson : _json;
+    if ( json != null )
+      return json;
+
+    // concurrent requests may both encode the snapshot, which is harmless
+    json = getJson( _trend.keySet(), gzipped );
+    if ( gzipped )
+    {
+      _gzippedJson = json;
+    }
+    else
+    {
+      _json = json;
+    }
+    return json;
+  }
+
+  /**
+   * Returns the trend of the given benchmarks in the form of {@link #getJson(boolean)}, e.g. for a page of the trend.
+   * Unknown benchmarks are left out. The result isn't cached.
+   */
+  byte[] getJson( Collection<String> keys, boolean gzipped ) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream( 16 * 1024 );
+    OutputStream out = gzipped ? new GZIPOutputStream( bytes ) : bytes;
+    Writer writer = new OutputStreamWriter( out, "UTF-8" );
+    writeJson( writer, keys, 0 );
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes the trend of the given benchmarks in the form of {@link #getJson(boolean)}, only with the builds after
+   * <tt>since</tt> so that a client polling the trend only receives the builds it doesn't have yet. Benchmarks without
+   * such builds are left out. The writer isn't closed.
+   */
+  void writeJson( Writer writer, Collection<String> keys, int since ) throws IOException
+  {
+    JsonWriter json = new JsonWriter( writer );
+    json.beginObject();
+    json.name( "lastModified" ).value( _lastModified );
+    json.name( "lastBuildNumber" ).value( _lastBuildNumber );
+    json.name( "benchmarks" ).beginArray();
+    for ( String key : keys )
+    {
+      BenchmarkTrend trend = _trend.get( key );
+      if ( trend == null || trend.getLastBuildNumber() <= since )
+        continue;
+
+      Map<Integer, Double> means = tailMap( trend.getMeanTrend(), since );
+      json.beginObject();
+      json.name( "key" ).value( key );
+      json.name( "name" ).value( trend.getBenchmarkName() );
+      json.name( "mode" ).value( trend.getMode() );
+      json.name( "threads" ).value( trend.getThreads() );
+      json.name( "samples" ).value( trend.getSamples() );
+      json.name( "unit" ).value( trend.getUnit() );
+
+      json.name( "builds" ).beginArray();
+      for ( Integer buildNumber : means.keySet() )
+      {
+        json.value( buildNumber );
+      }
+      json.endArray();
+      json.name( "scores" ).beginArray();
+      for ( Double mean : means.values() )
+      {
+        json.value( mean );
+      }
+      json.endArray();
+      json.name( "errors" ).beginArray();
+      for ( Double meanError : tailMap( trend.getMeanErrorTrend(), since ).values() )
+      {
+        json.value( meanError );
+      }
+      json.endArray();
+
+      Map<Integer, Double> changePoints = tailMap( trend.getChangePoints(), since );
+      json.name( "changePoints" ).beginArray();
+      for ( Integer changePoint : changePoints.keySet() )
+      {
+        json.value( changePoint );
+      }
+      json.endArray();
+      json.name( "shifts" ).beginArray();
+      for ( Double shift : changePoints.values() )
+      {
+        json.value( shift );
+      }
+      json.endArray();
+
+      json.name( "percentiles" ).beginObject();
+      for ( Map.Entry<String, Map<Integer, Double>> percentile : trend.getPercentileTrends().entrySet() )
+      {
+        if ( tailMap( percentile.getValue(), since ).isEmpty() )
+          continue;
+
+        json.name( percentile.getKey() ).beginArray();
+        for ( Integer buildNumber : means.keySet() )
+        {
+          Double score = percentile.getValue().get( buildNumber );
+          if ( score == null )
+          {
+            json.nullValue();
+          }
+          else
+          {
+            json.value( score );
+          }
+        }
+        json.endArray();
+      }
+      json.endObject();
+      json.endObject();
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  /**
+   * Returns the entries of a trend after the given build; the trends of {@link BenchmarkTrend} are sorted maps.
+   */
+  private static Map<Integer, Double> tailMap( Map<Integer, Double> trend, int since )
+  {
+    if ( since <= 0 )
+      return trend;
+
+    return ( (SortedMap<Integer, Double>) trend ).tailMap( since + 1 );
+  }
+}
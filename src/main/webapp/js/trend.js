@@ -0,0 +1,370 @@
+/*
+ * Draws the benchmark trend graphs of the project page in the browser. The trend of the benchmarks of the page is
+ * fetched once from the trendData endpoint of the project action and each graph is drawn on a canvas when it scrolls
+ * into view. If the browser can't draw on a canvas or the data can't be fetched, the graphs fall back to the PNG
+ * images rendered by the server, which are requested when they scroll into view as well.
+ */
+var jmhTrend = (function()
+{
+  var PADDING_LEFT = 80;
+  var PADDING_RIGHT = 20;
+  var PADDING_TOP = 36;
+  var PADDING_BOTTOM = 90;
+  var COLORS = [ "#3465a4", "#ef2929", "#73d216", "#f57900", "#75507b", "#c17d11", "#edd400", "#555753" ];
+
+  function canDraw()
+  {
+    var canvas = document.createElement( "canvas" );
+    return !!( canvas.getContext && canvas.getContext( "2d" ) );
+  }
+
+  function fetchTrend( url, onSuccess, onFailure )
+  {
+    var request = new XMLHttpRequest();
+    request.open( "GET", url, true );
+    request.onreadystatechange = function()
+    {
+      if ( request.readyState !== 4 )
+        return;
+
+      if ( request.status !== 200 )
+      {
+        onFailure();
+        return;
+      }
+
+      var trend;
+      try
+      {
+        trend = JSON.parse( request.responseText );
+      }
+      catch ( e )
+      {
+        onFailure();
+        return;
+      }
+      onSuccess( trend );
+    };
+    request.send( null );
+  }
+
+  var observer = null;
+  var visibleCallbacks = [];
+
+  function onIntersection( entries )
+  {
+    for ( var i = 0; i < entries.length; i++ )
+    {
+      if ( !entries[ i ].isIntersecting )
+        continue;
+
+      var element = entries[ i ].target;
+      observer.unobserve( element );
+      var index = parseInt( element.getAttribute( "data-graph-index" ), 10 );
+      var callback = visibleCallbacks[ index ];
+      visibleCallbacks[ index ] = null;
+      if ( callback )
+      {
+        callback();
+      }
+    }
+  }
+
+  /*
+   * Calls back once the element is about to scroll into view, right away if the browser can't tell.
+   */
+  function whenVisible( element, callback )
+  {
+    if ( !window.IntersectionObserver )
+    {
+      callback();
+      return;
+    }
+
+    if ( observer === null )
+    {
+      observer = new IntersectionObserver( onIntersection, { rootMargin: "400px 0px" } );
+    }
+    element.setAttribute( "data-graph-index", String( visibleCallbacks.length ) );
+    visibleCallbacks.push( callback );
+    observer.observe( element );
+  }
+
+  function showImage( container, graphUrl, width, height )
+  {
+    var key = container.getAttribute( "data-key" );
+    var image = document.createElement( "img" );
+    image.className = "trend";
+    image.width = width;
+    image.height = height;
+    image.src = graphUrl + "?width=" + width + "&height=" + height + "&benchmarkKey=" + encodeURIComponent( key );
+    container.innerHTML = "";
+    container.appendChild( image );
+  }
+
+  /*
+   * Returns about five round tick values covering [min, max].
+   */
+  function ticks( min, max )
+  {
+    if ( min === max )
+    {
+      var margin = min === 0 ? 1 : Math.abs( min ) * 0.1;
+      min -= margin;
+      max += margin;
+    }
+    var rough = ( max - min ) / 5;
+    var magnitude = Math.pow( 10, Math.floor( Math.log( rough ) / Math.LN10 ) );
+    var residual = rough / magnitude;
+    var step = ( residual > 5 ? 10 : residual > 2 ? 5 : residual > 1 ? 2 : 1 ) * magnitude;
+    var values = [];
+    for ( var value = Math.floor( min / step ) * step; value <= max + step / 2; value += step )
+    {
+      values.push( Math.round( value / step ) * step );
+    }
+    return values;
+  }
+
+  function formatTick( value )
+  {
+    var abs = Math.abs( value );
+    if ( abs !== 0 && ( abs >= 1e6 || abs < 1e-3 ) )
+      return value.toExponential( 1 );
+
+    return String( parseFloat( value.toPrecision( 6 ) ) );
+  }
+
+  function seriesOf( benchmark )
+  {
+    var series = [ { label: "Score", values: benchmark.scores },
+                   { label: "Score Error (99.9%)", values: benchmark.errors } ];
+    for ( var label in benchmark.percentiles )
+    {
+      if ( benchmark.percentiles.hasOwnProperty( label ) )
+      {
+        series.push( { label: label, values: benchmark.percentiles[ label ] } );
+      }
+    }
+    return series;
+  }
+
+  function draw( canvas, key, benchmark )
+  {
+    var context = canvas.getContext( "2d" );
+    var width = canvas.width;
+    var height = canvas.height;
+    var plotWidth = width - PADDING_LEFT - PADDING_RIGHT;
+    var plotHeight = height - PADDING_TOP - PADDING_BOTTOM;
+    var builds = benchmark.builds;
+    var series = seriesOf( benchmark );
+
+    var min = Infinity;
+    var max = -Infinity;
+    for ( var s = 0; s < series.length; s++ )
+    {
+      for ( var i = 0; i < series[ s ].values.length; i++ )
+      {
+        var value = series[ s ].values[ i ];
+        if ( value !== null )
+        {
+          min = Math.min( min, value );
+          max = Math.max( max, value );
+        }
+      }
+    }
+    if ( min === Infinity )
+    {
+      min = 0;
+      max = 1;
+    }
+    var yTicks = ticks( min, max );
+    min = yTicks[ 0 ];
+    max = yTicks[ yTicks.length - 1 ];
+
+    function x( index )
+    {
+      return PADDING_LEFT + ( builds.length === 1 ? plotWidth / 2 : index * plotWidth / ( builds.length - 1 ) );
+    }
+
+    function y( value )
+    {
+      return PADDING_TOP + plotHeight - ( value - min ) / ( max - min ) * plotHeight;
+    }
+
+    context.fillStyle = "#fff";
+    context.fillRect( 0, 0, width, height );
+    context.font = "12px sans-serif";
+    context.fillStyle = "#000";
+    context.textAlign = "center";
+    context.fillText( key + ", threads=" + benchmark.threads + ", samples=" + benchmark.samples + ", mode="
+                      + benchmark.mode, width / 2, 18 );
+
+    // value axis
+    context.textAlign = "right";
+    context.textBaseline = "middle";
+    context.strokeStyle = "#ddd";
+    context.lineWidth = 1;
+    for ( var t = 0; t < yTicks.length; t++ )
+    {
+      var tickY = Math.round( y( yTicks[ t ] ) ) + 0.5;
+      context.beginPath();
+      context.moveTo( PADDING_LEFT, tickY );
+      context.lineTo( PADDING_LEFT + plotWidth, tickY );
+      context.stroke();
+      context.fillText( formatTick( yTicks[ t ] ), PADDING_LEFT - 6, tickY );
+    }
+    context.save();
+    context.translate( 14, PADDING_TOP + plotHeight / 2 );
+    context.rotate( -Math.PI / 2 );
+    context.textAlign = "center";
+    context.fillText( benchmark.unit, 0, 0 );
+    context.restore();
+
+    // build axis, with at most one label every 14 pixels
+    var labelStep = Math.max( 1, Math.ceil( builds.length * 14 / plotWidth ) );
+    context.textAlign = "right";
+    for ( var b = 0; b < builds.length; b += labelStep )
+    {
+      context.save();
+      context.translate( x( b ), PADDING_TOP + plotHeight + 6 );
+      context.rotate( -Math.PI / 2 );
+      context.fillText( String( builds[ b ] ), 0, 0 );
+      context.restore();
+    }
+    context.textAlign = "center";
+    context.textBaseline = "alphabetic";
+    context.fillText( "Build Number #", PADDING_LEFT + plotWidth / 2, height - 32 );
+
+    // builds where a persistent shift of the score began
+    context.strokeStyle = "#cc0000";
+    for ( var c = 0; c < benchmark.changePoints.length; c++ )
+    {
+      var index = builds.indexOf( benchmark.changePoints[ c ] );
+      if ( index < 0 )
+        continue;
+
+      var markerX = Math.round( x( index ) ) + 0.5;
+      context.beginPath();
+      context.moveTo( markerX, PADDING_TOP );
+      context.lineTo( markerX, PADDING_TOP + plotHeight );
+      context.stroke();
+    }
+
+    // series and legend
+    var legendX = PADDING_LEFT;
+    context.lineWidth = 2;
+    context.textAlign = "left";
+    for ( var n = 0; n < series.length; n++ )
+    {
+      var color = COLORS[ n % COLORS.length ];
+      context.strokeStyle = color;
+      context.beginPath();
+      var drawing = false;
+      for ( var p = 0; p < builds.length; p++ )
+      {
+        var score = series[ n ].values[ p ];
+        if ( score === null )
+        {
+          drawing = false;
+          continue;
+        }
+        if ( drawing )
+        {
+          context.lineTo( x( p ), y( score ) );
+        }
+        else
+        {
+          context.moveTo( x( p ), y( score ) );
+          drawing = true;
+        }
+      }
+      context.stroke();
+
+      context.fillStyle = color;
+      context.fillRect( legendX, height - 16, 10, 10 );
+      context.fillStyle = "#000";
+      context.fillText( series[ n ].label, legendX + 14, height - 7 );
+      legendX += 24 + context.measureText( series[ n ].label ).width;
+    }
+  }
+
+  /*
+   * Draws every graph of the page. Each graph is a <div class="jmh-trend-graph" data-key="..."> inside the given
+   * container, which holds the URLs of the trend data and of the PNG graphs and the size of the graphs.
+   */
+  function render( container )
+  {
+    var graphs = [];
+    var divs = container.getElementsByTagName( "div" );
+    for ( var i = 0; i < divs.length; i++ )
+    {
+      if ( divs[ i ].className.indexOf( "jmh-trend-graph" ) >= 0 )
+      {
+        graphs.push( divs[ i ] );
+      }
+    }
+
+    var width = parseInt( container.getAttribute( "data-width" ), 10 );
+    var height = parseInt( container.getAttribute( "data-height" ), 10 );
+    var graphUrl = container.getAttribute( "data-graph-url" );
+    function fallback()
+    {
+      for ( var g = 0; g < graphs.length; g++ )
+      {
+        lazyImage( graphs[ g ] );
+      }
+    }
+
+    function lazyImage( graph )
+    {
+      whenVisible( graph, function()
+        {
+          showImage( graph, graphUrl, width, height );
+        } );
+    }
+
+    function lazyCanvas( graph, key, benchmark )
+    {
+      whenVisible( graph, function()
+        {
+          var canvas = document.createElement( "canvas" );
+          canvas.className = "trend";
+          canvas.width = width;
+          canvas.height = height;
+          graph.innerHTML = "";
+          graph.appendChild( canvas );
+          draw( canvas, key, benchmark );
+        } );
+    }
+
+    if ( !canDraw() || !window.JSON )
+    {
+      fallback();
+      return;
+    }
+
+    fetchTrend( container.getAttribute( "data-url" ), function( trend )
+      {
+        var benchmarks = {};
+        for ( var b = 0; b < trend.benchmarks.length; b++ )
+        {
+          benchmarks[ trend.benchmarks[ b ].key ] = trend.benchmarks[ b ];
+        }
+        for ( var g = 0; g < graphs.length; g++ )
+        {
+          var key = graphs[ g ].getAttribute( "data-key" );
+          var benchmark = benchmarks[ key ];
+          if ( benchmark )
+          {
+            lazyCanvas( graphs[ g ], key, benchmark );
+          }
+          else
+          {
+            lazyImage( graphs[ g ] );
+          }
+        }
+      }, fallback );
+  }
+
+  return { render: render };
+})();
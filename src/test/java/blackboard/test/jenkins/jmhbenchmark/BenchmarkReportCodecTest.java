@@ -0,0 +1,249 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class BenchmarkReportCodecTest
+{
+  @Test
+  public void roundTripsEveryField() throws IOException
+  {
+    BenchmarkReport report = new BenchmarkReport();
+    List<String> header = new ArrayList<String>();
+    header.add( "Benchmark" );
+    header.add( "Param: size" );
+    report.setHeader( header );
+    report.setEnvironment( new EnvironmentFingerprint( "17.0.2", "OpenJDK 64-Bit Server VM 17.0.2+8", "-Xmx2g",
+                                                       "Intel(R) Xeon(R) CPU", 8, "Linux amd64",
+                                                       "5.15.0-91-generic" ) );
+    BenchmarkResult result = result( "org.sample.LatencyBenchmark.read", "100" );
+    result.setRawSamples( new double[] { 0.5, 0.25, Double.NaN } );
+    result.addPercentile( 50, 0.48 );
+    result.addPercentile( 99.9, 2.1 );
+    result.setMeanChangeFromPrev( -12.5 );
+    result.setMeanChangeFromBaseline( 3.25 );
+    result.setPValueFromPrev( 0.001 );
+    result.setPValueFromBaseline( Double.NaN );
+    result.setChangeIndicator( "red" );
+    report.addBenchmarkResult( result.getKey(), result );
+
+    BenchmarkReport decoded = BenchmarkReportCodec.decode( BenchmarkReportCodec.encode( report ) );
+
+    assertEquals( header, decoded.getHeader() );
+    assertEquals( report.getEnvironment().getId(), decoded.getEnvironment().getId() );
+    assertEquals( 8, decoded.getEnvironment().getProcessors() );
+    assertEquals( "5.15.0-91-generic", decoded.getEnvironment().getOsVersion() );
+    BenchmarkResult read = decoded.getReport().get( "o.s.LatencyBenchmark.read:100" );
+    assertEquals( "org.sample.LatencyBenchmark.read", read.getBenchmarkName() );
+    assertEquals( "o.s.LatencyBenchmark.read", read.getShortBenchmarkName() );
+    assertEquals( "sample", read.getMode() );
+    assertEquals( 4, read.getThreads() );
+    assertEquals( 250000, read.getSamples() );
+    assertEquals( 0.52, read.getMean(), 0 );
+    assertEquals( 0.01, read.getMeanError(), 0 );
+    assertEquals( "ms/op", read.getUnit() );
+    assertArrayEquals( new double[] { 0.5, 0.25, Double.NaN }, read.getRawSamples(), 0 );
+    assertEquals( result.getPercentiles(), read.getPercentiles() );
+    assertEquals( result.getParams(), read.getParams() );
+    assertEquals( -12.5, read.getMeanChangeFromPrev(), 0 );
+    assertEquals( 3.25, read.getMeanChangeFromBaseline(), 0 );
+    assertEquals( 0.001, read.getPValueFromPrev(), 0 );
+    assertEquals( Double.NaN, read.getPValueFromBaseline(), 0 );
+    assertEquals( "red", read.getChangeIndicator() );
+  }
+
+  @Test
+  public void writesRepeatedStringsOnce() throws IOException
+  {
+    BenchmarkReport report = new BenchmarkReport();
+    for ( int i = 0; i < 100; i++ )
+    {
+      // equal, but distinct, strings in every result
+      BenchmarkResult result = result( "org.sample.LatencyBenchmark.read" + i, new String( "shared value" ) );
+      report.addBenchmarkResult( result.getKey(), result );
+    }
+
+    BenchmarkReport decoded = BenchmarkReportCodec.decode( BenchmarkReportCodec.encode( report ) );
+
+    assertEquals( 100, decoded.getReport().size() );
+    BenchmarkResult first = decoded.getReport().get( "o.s.LatencyBenchmark.read0:shared value" );
+    BenchmarkResult last = decoded.getReport().get( "o.s.LatencyBenchmark.read99:shared value" );
+    // read back from the string table
+    assertSame( first.getMode(), last.getMode() );
+    assertSame( first.getUnit(), last.getUnit() );
+    assertSame( first.getParams().get( "Param: size" ), last.getParams().get( "Param: size" ) );
+    assertEquals( "org.sample.LatencyBenchmark.read99", last.getBenchmarkName() );
+  }
+
+  @Test
+  public void keepsNullStrings() throws IOException
+  {
+    BenchmarkReport report = new BenchmarkReport();
+    BenchmarkResult result = result( "org.sample.MyBenchmark.first", "1" );
+    result.setUnit( null );
+    result.setChangeIndicator( null );
+    report.addBenchmarkResult( "key", result );
+
+    BenchmarkReport decoded = BenchmarkReportCodec.decode( BenchmarkReportCodec.encode( report ) );
+
+    assertNull( decoded.getReport().get( "key" ).getUnit() );
+    assertNull( decoded.getReport().get( "key" ).getChangeIndicator() );
+    assertNull( decoded.getReport().get( "key" ).getRawSamples() );
+    assertNull( decoded.getEnvironment() );
+  }
+
+  @Test
+  public void writesStringsBeyondTheLimitOfWriteUtf() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 30000; i++ )
+    {
+      // 3 bytes in UTF-8 each: 90 KB
+      sb.append( '\u20ac' );
+    }
+    String value = sb.toString();
+    BenchmarkReport report = new BenchmarkReport();
+    BenchmarkResult result = result( "org.sample.JsonBenchmark.parse", value );
+    report.addBenchmarkResult( result.getKey(), result );
+
+    BenchmarkReport decoded = BenchmarkReportCodec.decode( BenchmarkReportCodec.encode( report ) );
+
+    assertEquals( value, decoded.getReport().get( result.getKey() ).getParams().get( "Param: size" ) );
+  }
+
+  @Test
+  public void readsVersion5Reports() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( new GZIPOutputStream( bytes ) );
+    out.writeInt( 0x4a4d4852 );
+    out.writeInt( 5 );
+    // the header
+    out.writeInt( 1 );
+    writeNewString( out, "Benchmark" );
+    // one result, without raw samples, percentiles or params
+    out.writeInt( 1 );
+    writeNewString( out, "M.m" );
+    writeNewString( out, "a.M.m" );
+    // the short name, from the string table
+    out.writeInt( 1 );
+    writeNewString( out, "thrpt" );
+    out.writeInt( 1 );
+    out.writeInt( 5 );
+    out.writeDouble( 100 );
+    out.writeDouble( 1 );
+    writeNewString( out, "ops/s" );
+    out.writeInt( -1 );
+    out.writeInt( 0 );
+    out.writeInt( 0 );
+    out.writeDouble( 0 );
+    out.writeDouble( 0 );
+    out.writeDouble( 0.5 );
+    out.writeDouble( 0.5 );
+    // the mode again, from the string table
+    out.writeInt( 3 );
+    out.writeBoolean( false );
+    out.close();
+
+    BenchmarkReport report = BenchmarkReportCodec.decode( bytes.toByteArray() );
+
+    BenchmarkResult result = report.getReport().get( "M.m" );
+    assertEquals( "a.M.m", result.getBenchmarkName() );
+    assertEquals( "ops/s", result.getUnit() );
+    assertEquals( 100, result.getMean(), 0 );
+    assertEquals( "thrpt", result.getChangeIndicator() );
+    assertNull( report.getEnvironment() );
+  }
+
+  @Test
+  public void splitsTheOsVersionOfVersion6Reports() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( new GZIPOutputStream( bytes ) );
+    out.writeInt( 0x4a4d4852 );
+    out.writeInt( 6 );
+    // no header, no result
+    out.writeInt( 0 );
+    out.writeInt( 0 );
+    out.writeBoolean( true );
+    writeLengthPrefixedString( out, "17.0.2" );
+    writeLengthPrefixedString( out, "OpenJDK 64-Bit Server VM 17.0.2+8" );
+    writeLengthPrefixedString( out, "-Xmx2g" );
+    writeLengthPrefixedString( out, "Intel(R) Xeon(R) CPU" );
+    out.writeInt( 8 );
+    writeLengthPrefixedString( out, "Linux 5.15.0-91-generic amd64" );
+    out.close();
+
+    EnvironmentFingerprint environment = BenchmarkReportCodec.decode( bytes.toByteArray() ).getEnvironment();
+
+    assertEquals( "Linux amd64", environment.getOs() );
+    assertEquals( "5.15.0-91-generic", environment.getOsVersion() );
+    // the same environment after a kernel patch
+    EnvironmentFingerprint patched = new EnvironmentFingerprint( "17.0.2", "OpenJDK 64-Bit Server VM 17.0.2+8",
+                                                                 "-Xmx2g", "Intel(R) Xeon(R) CPU", 8, "Linux amd64",
+                                                                 "5.15.0-97-generic" );
+    assertEquals( environment.getId(), patched.getId() );
+    assertTrue( EnvironmentFingerprint.isLikeForLike( environment, patched ) );
+  }
+
+  @Test
+  public void rejectsANewerVersion() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( new GZIPOutputStream( bytes ) );
+    out.writeInt( 0x4a4d4852 );
+    out.writeInt( 99 );
+    out.close();
+    try
+    {
+      BenchmarkReportCodec.decode( bytes.toByteArray() );
+      fail( "version 99 is unknown" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Unsupported benchmark report version 99", ex.getMessage() );
+    }
+  }
+
+  private static void writeNewString( DataOutputStream out, String value ) throws IOException
+  {
+    out.writeInt( -2 );
+    out.writeUTF( value );
+  }
+
+  private static void writeLengthPrefixedString( DataOutputStream out, String value ) throws IOException
+  {
+    byte[] bytes = value.getBytes( "UTF-8" );
+    out.writeInt( -2 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static BenchmarkResult result( String benchmarkName, String size )
+  {
+    BenchmarkResult result = new BenchmarkResult();
+    result.setBenchmarkName( benchmarkName );
+    result.setShortBenchmarkName( ReportParser.getShortName( benchmarkName ) );
+    result.setMode( new String( "sample" ) );
+    result.setThreads( 4 );
+    result.setSamples( 250000 );
+    result.setMean( 0.52 );
+    result.setMeanError( 0.01 );
+    result.setUnit( new String( "ms/op" ) );
+    result.addParams( "Param: size", size );
+    return result;
+  }
+}
@@ -0,0 +1,316 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BenchmarkTrendStoreTest
+{
+  private static final int MAGIC = 0x4a4d4854;
+
+  @Test
+  public void readsTheTrendBackAfterReopening() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+      store.append( 1, report( 10, 20 ) );
+      store.append( 2, report( 11, 21 ) );
+      store.append( 3, report( 12, 22 ) );
+
+      BenchmarkTrendStore reopened = reopen( file );
+
+      TrendSnapshot snapshot = reopened.computeSnapshot();
+      assertEquals( 3, snapshot.getLastBuildNumber() );
+      assertEquals( "{1=10.0, 2=11.0, 3=12.0}", snapshot.getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+      assertEquals( "{1=20.0, 2=21.0, 3=22.0}", snapshot.getTrend( "o.s.M.second" ).getMeanTrend().toString() );
+      assertEquals( "{1=0.5, 2=0.5, 3=0.5}", snapshot.getTrend( "o.s.M.first" ).getMeanErrorTrend().toString() );
+      assertEquals( "thrpt", snapshot.getTrend( "o.s.M.first" ).getMode() );
+      assertEquals( "ops/s", snapshot.getTrend( "o.s.M.first" ).getUnit() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void appendsAndRemovesAfterReopening() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+      store.append( 1, report( 10, 20 ) );
+      store.append( 2, report( 11, 21 ) );
+
+      BenchmarkTrendStore reopened = reopen( file );
+      reopened.append( 3, report( 12, 22 ) );
+      reopened.remove( 1 );
+      // a build published again replaces its scores
+      reopened.append( 2, report( 15, 25 ) );
+
+      TrendSnapshot snapshot = reopen( file ).computeSnapshot();
+      assertEquals( "{2=15.0, 3=12.0}", snapshot.getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+      assertEquals( "{2=25.0, 3=22.0}", snapshot.getTrend( "o.s.M.second" ).getMeanTrend().toString() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void dropsATruncatedLastRecord() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+      store.append( 1, report( 10, 20 ) );
+      store.append( 2, report( 11, 21 ) );
+      long length = file.length();
+      store.append( 3, report( 12, 22 ) );
+      // a crash in the middle of the last append
+      truncate( file, length + ( file.length() - length ) / 2 );
+
+      BenchmarkTrendStore reopened = reopen( file );
+      assertEquals( "{1=10.0, 2=11.0}",
+                    reopened.computeSnapshot().getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+
+      // the file was compacted, so appending after the dropped record is read back
+      reopened.append( 3, report( 13, 23 ) );
+      assertEquals( "{1=10.0, 2=11.0, 3=13.0}",
+                    reopen( file ).computeSnapshot().getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void refusesAnUnknownFormatSoThatTheTrendIsRebuilt() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      writeHeader( file, MAGIC, 99 );
+      assertFalse( new BenchmarkTrendStore( file ).load() );
+
+      writeHeader( file, 0x12345678, 1 );
+      assertFalse( new BenchmarkTrendStore( file ).load() );
+
+      // the environments of versions 3 and 4 hold the OS version
+      writeHeader( file, MAGIC, 4 );
+      assertFalse( new BenchmarkTrendStore( file ).load() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void upgradesAVersion2File() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      DataOutputStream out = new DataOutputStream( new FileOutputStream( file ) );
+      try
+      {
+        out.writeInt( MAGIC );
+        out.writeInt( 2 );
+        out.writeByte( 'S' );
+        out.writeInt( 0 );
+        out.writeUTF( "o.s.M.first" );
+        out.writeUTF( "o.s.M.first" );
+        out.writeUTF( "thrpt" );
+        out.writeInt( 1 );
+        out.writeInt( 5 );
+        out.writeUTF( "ops/s" );
+        out.writeByte( 'B' );
+        out.writeInt( 7 );
+        out.writeInt( 1 );
+        out.writeInt( 0 );
+        out.writeDouble( 42 );
+        out.writeDouble( 1 );
+        out.writeByte( 0 );
+      }
+      finally
+      {
+        out.close();
+      }
+
+      BenchmarkTrendStore store = reopen( file );
+      assertEquals( "{7=42.0}", store.computeSnapshot().getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+      // rewritten in the current format
+      assertEquals( 5, readVersion( file ) );
+      assertEquals( "{7=42.0}",
+                    reopen( file ).computeSnapshot().getTrend( "o.s.M.first" ).getMeanTrend().toString() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void writesKeysBeyondTheLimitOfWriteUtf() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      StringBuilder sb = new StringBuilder();
+      for ( int i = 0; i < 30000; i++ )
+      {
+        sb.append( '\u20ac' );
+      }
+      BenchmarkReport report = new BenchmarkReport();
+      BenchmarkResult result = result( "org.sample.M.first", 10 );
+      result.addParams( "Param: json", sb.toString() );
+      report.addBenchmarkResult( result.getKey(), result );
+
+      new BenchmarkTrendStore( file ).append( 1, report );
+
+      Map<String, BenchmarkTrend> trend = reopen( file ).computeSnapshot().getTrend();
+      assertEquals( 1, trend.size() );
+      assertEquals( result.getKey(), trend.keySet().iterator().next() );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void computesTheRollingBaselineOfEachCall() throws IOException
+  {
+    File file = newTrendFile();
+    try
+    {
+      BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+      double[] scores = { 5, 1, 9, 3, 7, 2, 8 };
+      for ( int i = 0; i < scores.length; i++ )
+      {
+        store.append( i + 1, report( scores[ i ], 0 ) );
+      }
+
+      // the latest 3 builds: 7, 2, 8; the latest 5 builds: 9, 3, 7, 2, 8
+      assertEquals( 7, store.getRollingBaselines( 3, null ).get( "o.s.M.first" ).getMedian(), 0 );
+      assertEquals( 7, store.getRollingBaselines( 5, null ).get( "o.s.M.first" ).getMedian(), 0 );
+      assertEquals( 5, store.getRollingBaselines( 100, null ).get( "o.s.M.first" ).getMedian(), 0 );
+      assertEquals( 3, store.getRollingBaselines( 3, null ).get( "o.s.M.first" ).getBuilds() );
+
+      store.remove( 7 );
+      // 3, 7, 2
+      assertEquals( 3, store.getRollingBaselines( 3, null ).get( "o.s.M.first" ).getMedian(), 0 );
+      assertNull( store.getRollingBaselines( 3, null ).get( "o.s.M.missing" ) );
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  private static File newTrendFile() throws IOException
+  {
+    File file = File.createTempFile( "jmh_benchmark_trend", ".dat" );
+    assertTrue( file.delete() );
+    return file;
+  }
+
+  private static BenchmarkTrendStore reopen( File file ) throws IOException
+  {
+    BenchmarkTrendStore store = new BenchmarkTrendStore( file );
+    assertTrue( store.load() );
+    return store;
+  }
+
+  private static BenchmarkReport report( double first, double second )
+  {
+    BenchmarkReport report = new BenchmarkReport();
+    List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+    results.add( result( "org.sample.M.first", first ) );
+    if ( second != 0 )
+    {
+      results.add( result( "org.sample.M.second", second ) );
+    }
+    for ( BenchmarkResult result : results )
+    {
+      report.addBenchmarkResult( result.getKey(), result );
+    }
+    return report;
+  }
+
+  private static BenchmarkResult result( String benchmarkName, double mean )
+  {
+    BenchmarkResult result = new BenchmarkResult();
+    result.setBenchmarkName( benchmarkName );
+    result.setShortBenchmarkName( ReportParser.getShortName( benchmarkName ) );
+    result.setMode( "thrpt" );
+    result.setThreads( 1 );
+    result.setSamples( 5 );
+    result.setMean( mean );
+    result.setMeanError( 0.5 );
+    result.setUnit( "ops/s" );
+    return result;
+  }
+
+  private static void truncate( File file, long length ) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+    try
+    {
+      raf.setLength( length );
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  private static void writeHeader( File file, int magic, int version ) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream( new FileOutputStream( file ) );
+    try
+    {
+      out.writeInt( magic );
+      out.writeInt( version );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private static int readVersion( File file ) throws IOException
+  {
+    DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+    try
+    {
+      in.readInt();
+      return in.readInt();
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Parses the JMH CSV variants under <tt>src/test/resources/.../csv</tt>.
+ */
+public class CsvParserTest
+{
+  @Test
+  public void parsesQuotedJsonParamsAndTrailingEmptyFields() throws Exception
+  {
+    BenchmarkReport report = parse( "params.csv" );
+
+    assertEquals( 3, report.getReport().size() );
+    assertEquals( "Param: config", report.getHeader().get( 7 ) );
+    assertEquals( "Param: size", report.getHeader().get( 8 ) );
+
+    BenchmarkResult json = find( report, "org.sample.JsonBenchmark.parse", "100" );
+    assertEquals( "o.s.JsonBenchmark.parse", json.getShortBenchmarkName() );
+    assertEquals( "thrpt", json.getMode() );
+    assertEquals( 1, json.getThreads() );
+    assertEquals( 5, json.getSamples() );
+    assertEquals( 1234.56789, json.getMean(), 0 );
+    assertEquals( 12.345678, json.getMeanError(), 0 );
+    assertEquals( "ops/s", json.getUnit() );
+    assertEquals( "{\"depth\": 2, \"keys\": [\"a\", \"b\"]}", json.getParams().get( "Param: config" ) );
+
+    BenchmarkResult comma = find( report, "org.sample.JsonBenchmark.parse", "1000" );
+    assertEquals( "plain, with a comma", comma.getParams().get( "Param: config" ) );
+
+    // a benchmark without params leaves the param columns empty
+    BenchmarkResult write = report.getReport().get( "o.s.JsonBenchmark.write" );
+    assertNotNull( write );
+    assertEquals( "", write.getParams().get( "Param: config" ) );
+    assertEquals( "", write.getParams().get( "Param: size" ) );
+  }
+
+  @Test
+  public void keepsTheScoreErrorOfNaNUnset() throws Exception
+  {
+    BenchmarkResult write = parse( "params.csv" ).getReport().get( "o.s.JsonBenchmark.write" );
+
+    assertEquals( 42, write.getMean(), 0 );
+    assertEquals( 0, write.getMeanError(), 0 );
+  }
+
+  @Test
+  public void keysSecondaryMetricsAfterTheirBenchmark() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "profilers.csv" ).getReport();
+
+    BenchmarkResult rate = results.get( "o.s.AllocBenchmark.test:gc.alloc.rate" );
+    assertNotNull( rate );
+    assertEquals( "gc.alloc.rate", rate.getSecondaryMetric() );
+    assertEquals( "MB/sec", rate.getUnit() );
+    assertEquals( 1024.5, rate.getMean(), 0 );
+    assertNotNull( results.get( "o.s.AllocBenchmark.test:gc.alloc.rate.norm" ) );
+    assertNull( results.get( "o.s.AllocBenchmark.test" ).getSecondaryMetric() );
+  }
+
+  @Test
+  public void foldsPercentileRowsIntoTheirBenchmark() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "profilers.csv" ).getReport();
+
+    // 2 alloc metrics with their benchmark and the latency benchmark, without its percentile rows
+    assertEquals( 4, results.size() );
+    BenchmarkResult read = results.get( "o.s.LatencyBenchmark.read" );
+    assertEquals( 250000, read.getSamples() );
+    assertEquals( 3, read.getPercentiles().size() );
+    assertEquals( 0.48, read.getPercentile( 50 ), 0 );
+    assertEquals( 2.1, read.getPercentile( 99.9 ), 0 );
+    assertEquals( 9.8, read.getPercentile( 100 ), 0 );
+  }
+
+  @Test
+  public void reportsResultsKeyedAlikeInOneFile() throws Exception
+  {
+    BenchmarkReport report = parse( "collision.csv" );
+
+    assertEquals( 1, report.getReport().size() );
+    BenchmarkResult first = report.getReport().get( "o.a.Foo.test" );
+    assertEquals( "org.apache.Foo.test", first.getBenchmarkName() );
+    assertEquals( 100, first.getMean(), 0 );
+    assertEquals( 2, report.getDuplicates().size() );
+    assertEquals( "o.a.Foo.test of org.acme.Foo.test (already added for org.apache.Foo.test)",
+                  report.getDuplicates().get( 0 ) );
+    assertEquals( "o.a.Foo.test (already added)", report.getDuplicates().get( 1 ) );
+  }
+
+  @Test
+  public void parsesCrlfLineEnds() throws Exception
+  {
+    File crlf = toCrlf( getFixture( "params.csv" ) );
+    try
+    {
+      BenchmarkReport report = new CsvParser().parse( null, crlf, null );
+
+      assertEquals( 3, report.getReport().size() );
+      assertEquals( "Param: size", report.getHeader().get( 8 ) );
+      assertEquals( "1000", find( report, "org.sample.JsonBenchmark.parse", "1000" ).getParams().get( "Param: size" ) );
+      assertEquals( "", report.getReport().get( "o.s.JsonBenchmark.write" ).getParams().get( "Param: size" ) );
+    }
+    finally
+    {
+      crlf.delete();
+    }
+  }
+
+  @Test
+  public void reportsTheLineOfATruncatedRecord() throws Exception
+  {
+    try
+    {
+      parse( "truncated.csv" );
+      fail( "the second benchmark has no score" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Incomplete benchmark record at line 3", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void reportsTheLineOfAnUnterminatedParam() throws Exception
+  {
+    try
+    {
+      parse( "unterminated.csv" );
+      fail( "the config param is not terminated" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Unterminated quoted field at line 2", ex.getMessage() );
+    }
+  }
+
+  private static BenchmarkReport parse( String fixture ) throws IOException, URISyntaxException
+  {
+    return new CsvParser().parse( null, getFixture( fixture ), null );
+  }
+
+  private static File getFixture( String name ) throws URISyntaxException
+  {
+    return new File( CsvParserTest.class.getResource( "csv/" + name ).toURI() );
+  }
+
+  private static BenchmarkResult find( BenchmarkReport report, String benchmarkName, String size )
+  {
+    for ( BenchmarkResult result : report.getReport().values() )
+    {
+      if ( result.getBenchmarkName().equals( benchmarkName ) && size.equals( result.getParams().get( "Param: size" ) ) )
+        return result;
+    }
+    fail( "no result for " + benchmarkName + " with size " + size );
+    return null;
+  }
+
+  /**
+   * Copies a fixture with its line ends converted to CRLF, as JMH writes them on Windows.
+   */
+  private static File toCrlf( File fixture ) throws IOException
+  {
+    File crlf = File.createTempFile( "jmh-crlf", ".csv" );
+    InputStream in = new FileInputStream( fixture );
+    OutputStream out = new FileOutputStream( crlf );
+    try
+    {
+      int b;
+      while ( ( b = in.read() ) != -1 )
+      {
+        if ( b == '\n' )
+        {
+          out.write( '\r' );
+        }
+        out.write( b );
+      }
+    }
+    finally
+    {
+      in.close();
+      out.close();
+    }
+    return crlf;
+  }
+}
@@ -0,0 +1,194 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CsvTokenizerTest
+{
+  @Test
+  public void readsQuotedFieldsWithCommasQuotesAndLineBreaks() throws IOException
+  {
+    List<List<String>> records =
+      readAll( "\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\"\n\"{\"\"k\"\": [1, 2]}\",plain\n" );
+
+    assertEquals( 2, records.size() );
+    assertEquals( list( "a,b", "say \"hi\"", "two\nlines" ), records.get( 0 ) );
+    assertEquals( list( "{\"k\": [1, 2]}", "plain" ), records.get( 1 ) );
+  }
+
+  @Test
+  public void readsCrlfAndLfLineEndsAndSkipsEmptyLines() throws IOException
+  {
+    List<List<String>> records = readAll( "a,b\r\nc,d\r\n\r\n\ne,f\nlast,record" );
+
+    assertEquals( 4, records.size() );
+    assertEquals( list( "a", "b" ), records.get( 0 ) );
+    assertEquals( list( "c", "d" ), records.get( 1 ) );
+    assertEquals( list( "e", "f" ), records.get( 2 ) );
+    assertEquals( list( "last", "record" ), records.get( 3 ) );
+  }
+
+  @Test
+  public void keepsTrailingEmptyFields() throws IOException
+  {
+    List<List<String>> records = readAll( "\"ops/s\",,\r\n\"ops/s\",\"\",\nx," );
+
+    assertEquals( list( "ops/s", "", "" ), records.get( 0 ) );
+    assertEquals( list( "ops/s", "", "" ), records.get( 1 ) );
+    assertEquals( list( "x", "" ), records.get( 2 ) );
+  }
+
+  @Test
+  public void skipsTheRestOfARecord() throws IOException
+  {
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( "a,\"b\nc\",d\ne\n" ) );
+
+    assertTrue( tokenizer.nextRecord() );
+    assertTrue( tokenizer.nextField() );
+    assertEquals( "a", tokenizer.getField() );
+    assertTrue( tokenizer.nextRecord() );
+    assertTrue( tokenizer.nextField() );
+    assertEquals( "e", tokenizer.getField() );
+    assertFalse( tokenizer.nextField() );
+    assertFalse( tokenizer.nextRecord() );
+  }
+
+  @Test
+  public void convertsNumbers() throws IOException
+  {
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( "5,-12,+3,1234.5678,NaN,1.5E-4\n" ) );
+    tokenizer.nextRecord();
+
+    tokenizer.nextField();
+    assertEquals( 5, tokenizer.getInt() );
+    tokenizer.nextField();
+    assertEquals( -12, tokenizer.getInt() );
+    tokenizer.nextField();
+    assertEquals( 3, tokenizer.getInt() );
+    tokenizer.nextField();
+    assertEquals( 1234.5678, tokenizer.getDouble(), 0 );
+    tokenizer.nextField();
+    assertTrue( Double.isNaN( tokenizer.getDouble() ) );
+    tokenizer.nextField();
+    assertEquals( 1.5E-4, tokenizer.getDouble(), 0 );
+  }
+
+  @Test
+  public void convertsDoublesLikeParseDouble() throws IOException
+  {
+    // converted from the buffer, then beyond the digits and exponents that are exact doubles
+    String[] values = { "0.1", "-0.0", "42", ".5", "3.", "123456.789012345", "9.99e22", "1e-22", "0.30000000000000004",
+                        "9007199254740993", "1.7976931348623157E308", "4.9E-324", "1e-400", "Infinity" };
+    StringBuilder csv = new StringBuilder();
+    for ( String value : values )
+    {
+      csv.append( csv.length() == 0 ? "" : "," ).append( value );
+    }
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( csv.toString() ) );
+    tokenizer.nextRecord();
+
+    for ( String value : values )
+    {
+      tokenizer.nextField();
+      assertEquals( value, Double.valueOf( Double.parseDouble( value ) ), Double.valueOf( tokenizer.getDouble() ) );
+    }
+  }
+
+  @Test
+  public void reportsTheLineOfAnInvalidNumber() throws IOException
+  {
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( "header\r\n1\r\n12x\r\n" ) );
+    tokenizer.nextRecord();
+    tokenizer.nextRecord();
+    tokenizer.nextRecord();
+    tokenizer.nextField();
+    try
+    {
+      tokenizer.getInt();
+      fail( "12x is not a number" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Not a valid number '12x' at line 3", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void rejectsAnIntOverflow() throws IOException
+  {
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( "2147483648" ) );
+    tokenizer.nextRecord();
+    tokenizer.nextField();
+    try
+    {
+      tokenizer.getInt();
+      fail( "2147483648 doesn't fit in an int" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Not a valid number '2147483648' at line 1", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void reportsTheLineOfAnUnterminatedQuotedField() throws IOException
+  {
+    try
+    {
+      readAll( "a,b\nc,\"open\nfield\n" );
+      fail( "the quoted field is not terminated" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Unterminated quoted field at line 2", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void growsTheFieldBufferForLongFields() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 10000; i++ )
+    {
+      sb.append( (char) ( 'a' + i % 26 ) );
+    }
+    List<List<String>> records = readAll( "\"" + sb + "\"," + sb + "\n" );
+
+    assertEquals( list( sb.toString(), sb.toString() ), records.get( 0 ) );
+  }
+
+  private static List<List<String>> readAll( String csv ) throws IOException
+  {
+    List<List<String>> records = new ArrayList<List<String>>();
+    CsvTokenizer tokenizer = new CsvTokenizer( new StringReader( csv ) );
+    while ( tokenizer.nextRecord() )
+    {
+      List<String> fields = new ArrayList<String>();
+      while ( tokenizer.nextField() )
+      {
+        fields.add( tokenizer.getField() );
+      }
+      records.add( fields );
+    }
+    return records;
+  }
+
+  private static List<String> list( String... fields )
+  {
+    List<String> list = new ArrayList<String>();
+    for ( String field : fields )
+    {
+      list.add( field );
+    }
+    return list;
+  }
+}
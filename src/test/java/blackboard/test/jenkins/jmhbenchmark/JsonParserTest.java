@@ -0,0 +1,204 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Parses the JMH JSON outputs under <tt>src/test/resources/.../json</tt>.
+ */
+public class JsonParserTest
+{
+  @Test
+  public void readsThePrimaryMetricOfEachMode() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "modes.json" ).getReport();
+
+    BenchmarkResult thrpt = results.get( "o.s.AllocBenchmark.test:100" );
+    assertNotNull( thrpt );
+    assertEquals( "org.sample.AllocBenchmark.test", thrpt.getBenchmarkName() );
+    assertEquals( "thrpt", thrpt.getMode() );
+    assertEquals( 2, thrpt.getThreads() );
+    assertEquals( 1500.25, thrpt.getMean(), 0 );
+    assertEquals( 12.5, thrpt.getMeanError(), 0 );
+    assertEquals( "ops/s", thrpt.getUnit() );
+
+    BenchmarkResult avgt = results.get( "o.s.ParseBenchmark.parse" );
+    assertEquals( "avgt", avgt.getMode() );
+    assertEquals( "us/op", avgt.getUnit() );
+
+    BenchmarkResult sample = results.get( "o.s.LatencyBenchmark.read" );
+    assertEquals( "sample", sample.getMode() );
+    assertEquals( 0.52, sample.getMean(), 0 );
+    assertEquals( 0.01, sample.getMeanError(), 0 );
+  }
+
+  @Test
+  public void keepsTheIterationScoresOfRawData() throws Exception
+  {
+    BenchmarkResult thrpt = parse( "modes.json" ).getReport().get( "o.s.AllocBenchmark.test:100" );
+
+    // the samples are the raw data points of every fork
+    assertEquals( 6, thrpt.getSamples() );
+    double[] rawSamples = thrpt.getRawSamples();
+    assertEquals( 6, rawSamples.length );
+    assertEquals( 1480.0, rawSamples[ 0 ], 0 );
+    assertEquals( 1510.0, rawSamples[ 2 ], 0 );
+    assertEquals( 1495.5, rawSamples[ 3 ], 0 );
+    assertEquals( 1496.0, rawSamples[ 5 ], 0 );
+  }
+
+  @Test
+  public void countsTheSamplesOfTheRawDataHistogram() throws Exception
+  {
+    BenchmarkResult sample = parse( "modes.json" ).getReport().get( "o.s.LatencyBenchmark.read" );
+
+    assertEquals( 3901, sample.getSamples() );
+    assertNull( sample.getRawSamples() );
+  }
+
+  @Test
+  public void fallsBackToForksTimesIterationsWithoutRawData() throws Exception
+  {
+    BenchmarkResult avgt = parse( "modes.json" ).getReport().get( "o.s.ParseBenchmark.parse" );
+
+    assertEquals( 5, avgt.getSamples() );
+  }
+
+  @Test
+  public void keepsThePercentilesOfTheSampleModeOnly() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "modes.json" ).getReport();
+
+    BenchmarkResult sample = results.get( "o.s.LatencyBenchmark.read" );
+    assertEquals( 5, sample.getPercentiles().size() );
+    assertEquals( 0.48, sample.getPercentile( 50 ), 0 );
+    assertEquals( 2.1, sample.getPercentile( 99.9 ), 0 );
+    assertEquals( 9.8, sample.getPercentile( 100 ), 0 );
+    // the secondary metrics of a sample mode benchmark keep theirs as well
+    assertEquals( 3.0, results.get( "o.s.LatencyBenchmark.read:gc.count" ).getPercentile( 50 ), 0 );
+
+    assertTrue( results.get( "o.s.AllocBenchmark.test:100" ).getPercentiles().isEmpty() );
+    assertTrue( results.get( "o.s.AllocBenchmark.test:100:gc.alloc.rate" ).getPercentiles().isEmpty() );
+    assertTrue( results.get( "o.s.ParseBenchmark.parse" ).getPercentiles().isEmpty() );
+  }
+
+  @Test
+  public void readsSecondaryMetricsAsResultsOfTheirOwn() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "modes.json" ).getReport();
+
+    // 3 benchmarks, 2 gc metrics of the first one and 1 of the last one
+    assertEquals( 6, results.size() );
+    BenchmarkResult rate = results.get( "o.s.AllocBenchmark.test:100:gc.alloc.rate" );
+    assertNotNull( rate );
+    assertEquals( "org.sample.AllocBenchmark.test:\u00b7gc.alloc.rate", rate.getBenchmarkName() );
+    assertEquals( "gc.alloc.rate", rate.getSecondaryMetric() );
+    assertEquals( "o.s.AllocBenchmark.test:100", rate.getPrimaryKey() );
+    assertEquals( 1024.5, rate.getMean(), 0 );
+    assertEquals( 3.25, rate.getMeanError(), 0 );
+    assertEquals( "MB/sec", rate.getUnit() );
+    assertEquals( "thrpt", rate.getMode() );
+    assertEquals( 2, rate.getThreads() );
+    assertEquals( "100", rate.getParams().get( "Param: size" ) );
+  }
+
+  @Test
+  public void readsNaNStringsAsNaN() throws Exception
+  {
+    Map<String, BenchmarkResult> results = parse( "modes.json" ).getReport();
+
+    BenchmarkResult avgt = results.get( "o.s.ParseBenchmark.parse" );
+    assertTrue( Double.isNaN( avgt.getMean() ) );
+    // a NaN score error leaves the error unset
+    assertEquals( 0, avgt.getMeanError(), 0 );
+
+    BenchmarkResult norm = results.get( "o.s.AllocBenchmark.test:100:gc.alloc.rate.norm" );
+    assertEquals( 72.0, norm.getMean(), 0 );
+    assertEquals( 0, norm.getMeanError(), 0 );
+  }
+
+  @Test
+  public void reportsTheParamsWithTheColumnsOfTheCsvOutput() throws Exception
+  {
+    BenchmarkReport report = parse( "modes.json" );
+
+    assertEquals( "Benchmark", report.getHeader().get( 0 ) );
+    assertEquals( "Unit", report.getHeader().get( 6 ) );
+    assertEquals( "Param: size", report.getHeader().get( 7 ) );
+    assertEquals( ReportParser.IMPROVEMENT_IN_MEAN_HEADER_NAME, report.getHeader().get( 8 ) );
+    assertEquals( 9, report.getHeader().size() );
+  }
+
+  @Test
+  public void keepsTheJvmOfTheFirstBenchmark() throws Exception
+  {
+    EnvironmentFingerprint environment = parse( "modes.json" ).getEnvironment();
+
+    assertEquals( "17.0.2", environment.getJvmVersion() );
+    assertEquals( "OpenJDK 64-Bit Server VM 17.0.2+8", environment.getJvmName() );
+    assertEquals( "-Xmx2g -XX:+UseG1GC", environment.getJvmArgs() );
+  }
+
+  @Test
+  public void readsEscapedStringsAndNumericParams() throws Exception
+  {
+    BenchmarkReport report = parse( "escaped.json" );
+
+    assertEquals( 1, report.getReport().size() );
+    BenchmarkResult result = report.getReport().values().iterator().next();
+    assertEquals( "say \"hi\" \\ to caf\u00e9\tnow\nplease /", result.getParams().get( "Param: text" ) );
+    assertEquals( "10", result.getParams().get( "Param: count" ) );
+    assertEquals( 2.5E7, result.getMean(), 0 );
+    assertEquals( 1.25E-3, result.getMeanError(), 0 );
+    assertEquals( 1, result.getSamples() );
+    assertNull( report.getEnvironment() );
+  }
+
+  @Test
+  public void rejectsATruncatedFile() throws Exception
+  {
+    try
+    {
+      parse( "truncated.json" );
+      fail( "the file ends in the middle of the raw data" );
+    }
+    catch ( IOException ex )
+    {
+      assertTrue( ex.getMessage(), ex.getMessage().startsWith( "Expected END_ARRAY but was END_DOCUMENT" ) );
+    }
+  }
+
+  @Test
+  public void rejectsAFileThatIsNotAnArray() throws Exception
+  {
+    try
+    {
+      parse( "object.json" );
+      fail( "JMH writes an array of benchmarks" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "object.json is not a JMH JSON result file", ex.getMessage() );
+    }
+  }
+
+  private static BenchmarkReport parse( String fixture ) throws IOException, URISyntaxException
+  {
+    return new JsonParser().parse( null, getFixture( fixture ), null );
+  }
+
+  private static File getFixture( String name ) throws URISyntaxException
+  {
+    return new File( JsonParserTest.class.getResource( "json/" + name ).toURI() );
+  }
+}
@@ -0,0 +1,221 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class JsonTokenizerTest
+{
+  @Test
+  public void readsNamesAndValuesOfNestedObjectsAndArrays() throws IOException
+  {
+    JsonTokenizer tokenizer =
+      tokenizer( "{ \"a\" : [ 1, \"two\", true, null ],\n\t\"b\":{\"c\":false} , \"d\" : [] }" );
+
+    tokenizer.beginObject();
+    assertEquals( "a", tokenizer.nextName() );
+    tokenizer.beginArray();
+    assertEquals( JsonTokenizer.Token.NUMBER, tokenizer.peek() );
+    assertEquals( 1, tokenizer.nextInt() );
+    assertEquals( JsonTokenizer.Token.STRING, tokenizer.peek() );
+    assertEquals( "two", tokenizer.nextString() );
+    assertEquals( JsonTokenizer.Token.BOOLEAN, tokenizer.peek() );
+    assertEquals( "true", tokenizer.nextString() );
+    assertEquals( JsonTokenizer.Token.NULL, tokenizer.peek() );
+    assertEquals( "null", tokenizer.nextString() );
+    assertFalse( tokenizer.hasNext() );
+    tokenizer.endArray();
+    assertEquals( "b", tokenizer.nextName() );
+    tokenizer.beginObject();
+    assertEquals( "c", tokenizer.nextName() );
+    assertEquals( "false", tokenizer.nextString() );
+    tokenizer.endObject();
+    assertEquals( "d", tokenizer.nextName() );
+    tokenizer.beginArray();
+    assertFalse( tokenizer.hasNext() );
+    tokenizer.endArray();
+    assertFalse( tokenizer.hasNext() );
+    tokenizer.endObject();
+    assertEquals( JsonTokenizer.Token.END_DOCUMENT, tokenizer.peek() );
+  }
+
+  @Test
+  public void readsEscapedStrings() throws IOException
+  {
+    JsonTokenizer tokenizer =
+      tokenizer( "[\"q\\\"b\\\\s\\/\", \"\\b\\f\\n\\r\\t\", \"caf\\u00e9 \\u00B7gc\", \"\\\"\"]" );
+
+    tokenizer.beginArray();
+    assertEquals( "q\"b\\s/", tokenizer.nextString() );
+    assertEquals( "\b\f\n\r\t", tokenizer.nextString() );
+    assertEquals( "caf\u00e9 \u00b7gc", tokenizer.nextString() );
+    assertEquals( "\"", tokenizer.nextString() );
+    tokenizer.endArray();
+  }
+
+  @Test
+  public void readsNumbersAndNonFiniteStrings() throws IOException
+  {
+    JsonTokenizer tokenizer = tokenizer( "[-12, 0.5, 1.5E-4, -2e+3, \"NaN\", \"Infinity\", \"-Infinity\", 7.0]" );
+
+    tokenizer.beginArray();
+    assertEquals( -12, tokenizer.nextInt() );
+    assertEquals( 0.5, tokenizer.nextDouble(), 0 );
+    assertEquals( 1.5E-4, tokenizer.nextDouble(), 0 );
+    assertEquals( -2000, tokenizer.nextDouble(), 0 );
+    assertTrue( Double.isNaN( tokenizer.nextDouble() ) );
+    assertEquals( Double.POSITIVE_INFINITY, tokenizer.nextDouble(), 0 );
+    assertEquals( Double.NEGATIVE_INFINITY, tokenizer.nextDouble(), 0 );
+    // an integral double, as JMH writes the counts of the histograms
+    assertEquals( 7, tokenizer.nextInt() );
+    tokenizer.endArray();
+  }
+
+  @Test
+  public void skipsNestedValues() throws IOException
+  {
+    JsonTokenizer tokenizer =
+      tokenizer( "{\"skipped\": {\"x\": [[1, 2], {\"y\": \"]}\"}], \"z\": null}, \"kept\": 3, \"last\": \"s\"}" );
+
+    tokenizer.beginObject();
+    assertEquals( "skipped", tokenizer.nextName() );
+    tokenizer.skipValue();
+    assertEquals( "kept", tokenizer.nextName() );
+    assertEquals( 3, tokenizer.nextInt() );
+    assertEquals( "last", tokenizer.nextName() );
+    tokenizer.skipValue();
+    tokenizer.endObject();
+    assertEquals( JsonTokenizer.Token.END_DOCUMENT, tokenizer.peek() );
+  }
+
+  @Test
+  public void readsTokensAcrossTheBufferBoundary() throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 20000; i++ )
+    {
+      sb.append( (char) ( 'a' + i % 26 ) );
+    }
+    StringBuilder json = new StringBuilder( "[" );
+    // puts numbers and escapes on both sides of the 8192 characters boundary
+    for ( int i = 0; i < 2000; i++ )
+    {
+      json.append( "1234.5, \"\\u0041\\n\", " );
+    }
+    json.append( "\"" ).append( sb ).append( "\"]" );
+    JsonTokenizer tokenizer = tokenizer( json.toString() );
+
+    tokenizer.beginArray();
+    for ( int i = 0; i < 2000; i++ )
+    {
+      assertEquals( 1234.5, tokenizer.nextDouble(), 0 );
+      assertEquals( "A\n", tokenizer.nextString() );
+    }
+    assertEquals( sb.toString(), tokenizer.nextString() );
+    tokenizer.endArray();
+  }
+
+  @Test
+  public void rejectsAnUnterminatedString() throws IOException
+  {
+    assertSyntaxError( "[\"open", "Unterminated string at character 6" );
+  }
+
+  @Test
+  public void rejectsAnInvalidUnicodeEscape() throws IOException
+  {
+    assertSyntaxError( "[\"\\u00g0\"]", "Invalid unicode escape at character 7" );
+  }
+
+  @Test
+  public void rejectsMismatchedBrackets() throws IOException
+  {
+    assertSyntaxError( "[1}", "Unexpected '}' at character 3" );
+  }
+
+  @Test
+  public void rejectsAnUnexpectedToken() throws IOException
+  {
+    JsonTokenizer tokenizer = tokenizer( "{\"a\": [1]}" );
+    tokenizer.beginObject();
+    try
+    {
+      tokenizer.nextString();
+      fail( "the next token is a name" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Expected a string but was NAME at character 4", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void rejectsAnInvalidNumber() throws IOException
+  {
+    JsonTokenizer tokenizer = tokenizer( "[12x, 1.5]" );
+    tokenizer.beginArray();
+    try
+    {
+      tokenizer.nextDouble();
+      fail( "12x is not a number" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Not a valid number: 12x at character 4", ex.getMessage() );
+    }
+    try
+    {
+      tokenizer.nextInt();
+      fail( "1.5 is not an integer" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Not an integer: 1.5 at character 9", ex.getMessage() );
+    }
+  }
+
+  @Test
+  public void rejectsATruncatedValueWhileSkipping() throws IOException
+  {
+    JsonTokenizer tokenizer = tokenizer( "{\"a\": [[1, 2]" );
+    tokenizer.beginObject();
+    tokenizer.nextName();
+    try
+    {
+      tokenizer.skipValue();
+      fail( "the array is not closed" );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( "Unexpected end of document at character 13", ex.getMessage() );
+    }
+  }
+
+  /**
+   * Reads every token of a document, expecting the given error.
+   */
+  private static void assertSyntaxError( String json, String message ) throws IOException
+  {
+    JsonTokenizer tokenizer = tokenizer( json );
+    try
+    {
+      tokenizer.skipValue();
+      fail( "expected: " + message );
+    }
+    catch ( IOException ex )
+    {
+      assertEquals( message, ex.getMessage() );
+    }
+  }
+
+  private static JsonTokenizer tokenizer( String json )
+  {
+    return new JsonTokenizer( new StringReader( json ) );
+  }
+}
@@ -0,0 +1,126 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the median and MAD against the values of R (<tt>median</tt>, <tt>mad( x, constant = 1 )</tt>).
+ */
+public class RollingBaselineTest
+{
+  @Test
+  public void computesTheMedianAndMadOfAnOddCount()
+  {
+    // median( c( 1, 2, 3, 4, 100 ) ) = 3, mad( ..., constant = 1 ) = 1
+    RollingBaseline baseline = fromSorted( 1, 2, 3, 4, 100 );
+
+    assertEquals( 3, baseline.getMedian(), 0 );
+    assertEquals( 1, baseline.getMad(), 0 );
+    assertEquals( 5, baseline.getBuilds() );
+  }
+
+  @Test
+  public void computesTheMedianAndMadOfAnEvenCount()
+  {
+    // median( c( 1, 2, 4, 7, 8, 20 ) ) = 5.5, mad( ..., constant = 1 ) = 3
+    RollingBaseline baseline = fromSorted( 1, 2, 4, 7, 8, 20 );
+
+    assertEquals( 5.5, baseline.getMedian(), 0 );
+    assertEquals( 3, baseline.getMad(), 0 );
+  }
+
+  @Test
+  public void keepsAZeroMadForTiedScores()
+  {
+    // median( c( 1, 1, 1, 2, 9 ) ) = 1, mad( ..., constant = 1 ) = 0
+    RollingBaseline ties = fromSorted( 1, 1, 1, 2, 9 );
+    assertEquals( 1, ties.getMedian(), 0 );
+    assertEquals( 0, ties.getMad(), 0 );
+
+    RollingBaseline constant = fromSorted( 4, 4, 4, 4 );
+    assertEquals( 4, constant.getMedian(), 0 );
+    assertEquals( 0, constant.getMad(), 0 );
+    // no spread to test against
+    assertTrue( Double.isNaN( constant.getPValue( 5 ) ) );
+  }
+
+  @Test
+  public void summarizesASingleBuild()
+  {
+    RollingBaseline baseline = fromSorted( 42 );
+
+    assertEquals( 42, baseline.getMedian(), 0 );
+    assertEquals( 0, baseline.getMad(), 0 );
+    assertEquals( 1, baseline.getBuilds() );
+    assertTrue( Double.isNaN( baseline.getPValue( 40 ) ) );
+    assertNull( RollingBaseline.fromSorted( new double[ 4 ], 0 ) );
+  }
+
+  @Test
+  public void onlyReadsTheFirstCountValues()
+  {
+    RollingBaseline baseline = RollingBaseline.fromSorted( new double[] { 1, 2, 3, 0, 0 }, 3 );
+
+    assertEquals( 2, baseline.getMedian(), 0 );
+    assertEquals( 1, baseline.getMad(), 0 );
+    assertEquals( 3, baseline.getBuilds() );
+  }
+
+  @Test
+  public void matchesTheMadOfSortedDeviations()
+  {
+    Random random = new Random( 42 );
+    for ( int run = 0; run < 500; run++ )
+    {
+      double[] values = new double[ 1 + random.nextInt( 30 ) ];
+      for ( int i = 0; i < values.length; i++ )
+      {
+        // few distinct values, so that ties are frequent
+        values[ i ] = random.nextInt( 8 ) * 0.5 + ( random.nextBoolean() ? 0 : random.nextGaussian() * 10 );
+      }
+      Arrays.sort( values );
+
+      double median = median( values );
+      double[] deviations = new double[ values.length ];
+      for ( int i = 0; i < values.length; i++ )
+      {
+        deviations[ i ] = Math.abs( values[ i ] - median );
+      }
+      Arrays.sort( deviations );
+
+      RollingBaseline baseline = RollingBaseline.fromSorted( values, values.length );
+      assertEquals( median, baseline.getMedian(), 0 );
+      assertEquals( median( deviations ), baseline.getMad(), 1e-12 );
+    }
+  }
+
+  @Test
+  public void testsAScoreAgainstTheScaledMad()
+  {
+    // a MAD of 1 / 1.4826 is a standard deviation of 1: 1.959964 away from the median, the p-value is 0.05
+    RollingBaseline baseline = new RollingBaseline( 10, 1 / RollingBaseline.MAD_SCALE, 10 );
+
+    assertEquals( 0.05, baseline.getPValue( 11.959964 ), 1e-6 );
+    assertEquals( 0.05, baseline.getPValue( 8.040036 ), 1e-6 );
+    assertEquals( 1, baseline.getPValue( 10 ), 1e-6 );
+    // too few builds to test against
+    assertTrue( Double.isNaN( new RollingBaseline( 10, 1, 2 ).getPValue( 20 ) ) );
+  }
+
+  private static RollingBaseline fromSorted( double... sorted )
+  {
+    return RollingBaseline.fromSorted( sorted, sorted.length );
+  }
+
+  private static double median( double[] sorted )
+  {
+    int upper = sorted.length / 2;
+    return sorted.length % 2 == 1 ? sorted[ upper ] : ( sorted[ upper - 1 ] + sorted[ upper ] ) / 2;
+  }
+}
@@ -0,0 +1,130 @@
+package blackboard.test.jenkins.jmhbenchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the significance tests against the values of R (<tt>wilcox.test</tt>, <tt>pt</tt>, <tt>qt</tt>,
+ * <tt>pbeta</tt>).
+ */
+public class StatisticsTest
+{
+  @Test
+  public void computesTheExactMannWhitneyPValueWithoutTies()
+  {
+    // wilcox.test( c( 1.1, 2.2, 3.3 ), c( 4.4, 5.5, 6.6 ) ): W = 0, p-value = 0.1
+    assertEquals( 0.1, Statistics.mannWhitneyUTest( new double[] { 1.1, 2.2, 3.3 },
+                                                    new double[] { 4.4, 5.5, 6.6 } ), 1e-12 );
+    // wilcox.test( c( 1, 3, 5 ), c( 2, 4, 6 ) ): W = 3, p-value = 0.7
+    assertEquals( 0.7, Statistics.mannWhitneyUTest( new double[] { 5, 1, 3 }, new double[] { 6, 2, 4 } ), 1e-12 );
+    // wilcox.test( 1:5, 6:10 ): W = 0, p-value = 0.007937
+    assertEquals( 2.0 / 252, Statistics.mannWhitneyUTest( new double[] { 1, 2, 3, 4, 5 },
+                                                          new double[] { 6, 7, 8, 9, 10 } ), 1e-12 );
+    // the test is symmetric
+    assertEquals( 2.0 / 252, Statistics.mannWhitneyUTest( new double[] { 6, 7, 8, 9, 10 },
+                                                          new double[] { 1, 2, 3, 4, 5 } ), 1e-12 );
+  }
+
+  @Test
+  public void correctsTheNormalApproximationForTies()
+  {
+    // wilcox.test( c( 1, 2, 2, 3, 4 ), c( 2, 3, 5, 6, 7 ) ): W = 4.5, p-value = 0.1116
+    assertEquals( 0.111612, Statistics.mannWhitneyUTest( new double[] { 1, 2, 2, 3, 4 },
+                                                         new double[] { 2, 3, 5, 6, 7 } ), 1e-6 );
+    // wilcox.test( c( 1.5, 2.5, 2.5, 3.5, 3.5, 4.5 ), c( 3.5, 4.5, 4.5, 5.5, 6.5, 7.5, 8.5 ) ): W = 3,
+    // p-value = 0.01136
+    assertEquals( 0.011358, Statistics.mannWhitneyUTest( new double[] { 1.5, 2.5, 2.5, 3.5, 3.5, 4.5 },
+                                                         new double[] { 3.5, 4.5, 4.5, 5.5, 6.5, 7.5, 8.5 } ),
+                  1e-6 );
+  }
+
+  @Test
+  public void findsNoDifferenceBetweenIdenticalSamples()
+  {
+    // every value tied: no variance left to test against
+    assertEquals( 1, Statistics.mannWhitneyUTest( new double[] { 5, 5, 5 }, new double[] { 5, 5, 5 } ), 0 );
+    assertEquals( 1, Statistics.mannWhitneyUTest( new double[] { 1, 2, 3 }, new double[] { 3, 2, 1 } ), 0 );
+  }
+
+  @Test
+  public void computesTheStudentTDistribution()
+  {
+    // pt( 2, 5 ) = 0.9490303
+    assertEquals( 0.9490303, Statistics.studentTCdf( 2, 5 ), 1e-7 );
+    assertEquals( 1 - 0.9490303, Statistics.studentTCdf( -2, 5 ), 1e-7 );
+    assertEquals( 0.5, Statistics.studentTCdf( 0, 3 ), 1e-12 );
+    // qt( 0.975, 10 ) = 2.228139, qt( 0.9995, 4 ) = 8.610302, qt( 0.9995, 19 ) = 3.883406
+    assertEquals( 2.228139, Statistics.studentTQuantile( 0.975, 10 ), 1e-6 );
+    assertEquals( 8.610302, Statistics.studentTQuantile( 0.9995, 4 ), 1e-6 );
+    assertEquals( 3.883406, Statistics.studentTQuantile( 0.9995, 19 ), 1e-6 );
+    assertEquals( -2.228139, Statistics.studentTQuantile( 0.025, 10 ), 1e-6 );
+  }
+
+  @Test
+  public void computesTheRegularizedIncompleteBeta()
+  {
+    // pbeta( 0.5, 2, 3 ) = 0.6875, pbeta( 0.3, 2, 5 ) = 0.579825, pbeta( 0.9, 0.5, 0.5 ) = 0.7951672
+    assertEquals( 0.6875, Statistics.regularizedIncompleteBeta( 0.5, 2, 3 ), 1e-10 );
+    assertEquals( 0.579825, Statistics.regularizedIncompleteBeta( 0.3, 2, 5 ), 1e-10 );
+    assertEquals( 0.7951672, Statistics.regularizedIncompleteBeta( 0.9, 0.5, 0.5 ), 1e-7 );
+    assertEquals( 0, Statistics.regularizedIncompleteBeta( 0, 2, 3 ), 0 );
+    assertEquals( 1, Statistics.regularizedIncompleteBeta( 1, 2, 3 ), 0 );
+    // lgamma( 0.5 ) = log( sqrt( pi ) ), lgamma( 10 ) = log( 9! )
+    assertEquals( Math.log( Math.sqrt( Math.PI ) ), Statistics.logGamma( 0.5 ), 1e-10 );
+    assertEquals( Math.log( 362880 ), Statistics.logGamma( 10 ), 1e-10 );
+  }
+
+  @Test
+  public void recoversTheStandardErrorFromTheJmhConfidenceInterval()
+  {
+    // a score error of qt( 0.9995, 4 ) over 5 samples is a standard error of 1, so both results have a standard error
+    // of 1 and df = 8: a difference of qt( 0.975, 8 ) * sqrt( 2 ) has a p-value of 0.05
+    BenchmarkResult a = result( 10, 8.610302, 5 );
+    BenchmarkResult b = result( 10 + 2.306004 * Math.sqrt( 2 ), 8.610302, 5 );
+    assertEquals( 0.05, Statistics.welchTTest( a, b ), 1e-6 );
+    assertEquals( 0.05, Statistics.welchTTest( b, a ), 1e-6 );
+  }
+
+  @Test
+  public void usesTheWelchSatterthwaiteDegreesOfFreedom()
+  {
+    // standard errors of 1 (5 samples) and 2 (10 samples, qt( 0.9995, 9 ) = 4.780913): t = -4 / sqrt( 5 ),
+    // df = 12.33, 2 * pt( -1.788854, 12.32877 ) = 0.09822
+    BenchmarkResult a = result( 100, 8.610302, 5 );
+    BenchmarkResult b = result( 104, 2 * 4.780913, 10 );
+    assertEquals( 0.098219, Statistics.welchTTest( a, b ), 1e-5 );
+  }
+
+  @Test
+  public void cannotTestWithoutTwoSamplesOrAScoreError()
+  {
+    assertTrue( Double.isNaN( Statistics.welchTTest( result( 10, 1, 1 ), result( 12, 1, 5 ) ) ) );
+    assertTrue( Double.isNaN( Statistics.welchTTest( result( 10, 0, 5 ), result( 12, 1, 5 ) ) ) );
+    assertTrue( Double.isNaN( Statistics.welchTTest( result( 10, Double.NaN, 5 ), result( 12, 1, 5 ) ) ) );
+  }
+
+  @Test
+  public void comparesTheIterationScoresWhenBothResultsHaveThem()
+  {
+    BenchmarkResult a = result( 2, 1, 3 );
+    a.setRawSamples( new double[] { 1.1, 2.2, 3.3 } );
+    BenchmarkResult b = result( 5.5, 1, 3 );
+    b.setRawSamples( new double[] { 4.4, 5.5, 6.6 } );
+    assertEquals( 0.1, Statistics.compare( a, b ), 1e-12 );
+
+    // a single iteration falls back to the score error
+    b.setRawSamples( new double[] { 5.5 } );
+    assertEquals( Statistics.welchTTest( a, b ), Statistics.compare( a, b ), 0 );
+  }
+
+  private static BenchmarkResult result( double mean, double meanError, int samples )
+  {
+    BenchmarkResult result = new BenchmarkResult();
+    result.setMean( mean );
+    result.setMeanError( meanError );
+    result.setSamples( samples );
+    return result;
+  }
+}